@@ -12,6 +12,7 @@ import com.lody.welike.http.RequestMethod;
 import com.lody.welike.http.callback.DownloadCallback;
 import com.lody.welike.http.callback.HttpCallback;
 import com.lody.welike.utils.DiskLruCache;
+import com.lody.welike.utils.TaskScheduler;
 import com.lody.welike.utils.WeLog;
 
 import java.io.File;
@@ -35,7 +36,7 @@ public class WelikeHttp {
      * 开启一个线程不断拉去Http请求,
      * 并派发执行请求的任务.
      */
-    private HttpRequestQueue requestQueue = new HttpRequestQueue();
+    private HttpRequestQueue requestQueue;
 
     /**
      * 下载控制器,保存所有的下载任务
@@ -79,6 +80,8 @@ public class WelikeHttp {
      */
     public WelikeHttp(HttpConfig config) {
         this.config = config;
+        this.requestQueue = new HttpRequestQueue(config);
+        TaskScheduler.get().requestConcurrency(TaskScheduler.Lane.NETWORK, this, config.concurrency);
         HttpThreadPool.execute(requestQueue);
     }
 
@@ -89,6 +92,9 @@ public class WelikeHttp {
      */
     public void applyConfig(HttpConfig config) {
         this.config.applyConfig(config);
+        TaskScheduler.get().requestConcurrency(TaskScheduler.Lane.NETWORK, this, this.config.concurrency);
+        requestQueue.setMaxInFlight(this.config.concurrency);
+        requestQueue.setAgingTime(this.config.priorityAgingTime);
     }
 
     /**
@@ -177,7 +183,7 @@ public class WelikeHttp {
      * @return 下载控制器
      */
     public DownloadController download(String url, File target) {
-        this.downloadController.startDownloadTask(url, target, null).execute();
+        this.downloadController.startDownloadTask(url, target, null);
         return downloadController;
     }
 
@@ -189,7 +195,7 @@ public class WelikeHttp {
      * @return 下载控制器
      */
     public DownloadController download(String url, String targetPath) {
-        this.downloadController.startDownloadTask(url, new File(targetPath), null).execute();
+        this.downloadController.startDownloadTask(url, new File(targetPath), null);
         return downloadController;
     }
 
@@ -235,6 +241,7 @@ public class WelikeHttp {
             try {
                 synchronized (requestQueue) {
                     cache.delete();
+                    config.getResponseCache().evictMemory();
                     //重新加载缓存
                     config.recreateDiskCache();
                 }
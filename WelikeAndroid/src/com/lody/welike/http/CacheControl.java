@@ -0,0 +1,205 @@
+package com.lody.welike.http;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache-Control指令.
+ * 可以从响应头解析({@link #parse(Map)}),
+ * 也可以由使用者创建,通过{@link HttpRequestBuilder#cacheControl(CacheControl)}覆盖服务器返回的指令.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class CacheControl {
+
+    /**
+     * 不写入缓存
+     */
+    private boolean noStore;
+    /**
+     * 每次使用缓存前必须向服务器验证
+     */
+    private boolean noCache;
+    /**
+     * 缓存的有效时长(秒),-1表示未指定
+     */
+    private long maxAgeSeconds = -1;
+    /**
+     * 共享缓存的有效时长(秒),-1表示未指定
+     */
+    private long sMaxAgeSeconds = -1;
+    /**
+     * 缓存过期后仍可直接使用并在后台验证的时长(秒)
+     */
+    private long staleWhileRevalidateSeconds;
+    /**
+     * 请求出错时仍可使用过期缓存的时长(秒)
+     */
+    private long staleIfErrorSeconds;
+
+    public CacheControl() {
+    }
+
+    /**
+     * 从响应头解析Cache-Control指令,无法识别的指令会被忽略.
+     *
+     * @param header 响应头
+     * @return 指令, 响应头中没有Cache-Control时所有值都是默认值
+     */
+    public static CacheControl parse(Map<String, List<String>> header) {
+        CacheControl cacheControl = new CacheControl();
+        List<String> values = getHeaders(header, "Cache-Control");
+        if (values == null) {
+            return cacheControl;
+        }
+        for (String value : values) {
+            if (value == null) {
+                continue;
+            }
+            for (String directive : value.split(",")) {
+                directive = directive.trim();
+                String name = directive;
+                String argument = null;
+                int equals = directive.indexOf('=');
+                if (equals != -1) {
+                    name = directive.substring(0, equals).trim();
+                    argument = directive.substring(equals + 1).trim();
+                    if (argument.length() > 1 && argument.startsWith("\"") && argument.endsWith("\"")) {
+                        argument = argument.substring(1, argument.length() - 1);
+                    }
+                }
+                if ("no-store".equalsIgnoreCase(name)) {
+                    cacheControl.noStore = true;
+                } else if ("no-cache".equalsIgnoreCase(name)) {
+                    cacheControl.noCache = true;
+                } else if ("max-age".equalsIgnoreCase(name)) {
+                    cacheControl.maxAgeSeconds = parseSeconds(argument, -1);
+                } else if ("s-maxage".equalsIgnoreCase(name)) {
+                    cacheControl.sMaxAgeSeconds = parseSeconds(argument, -1);
+                } else if ("stale-while-revalidate".equalsIgnoreCase(name)) {
+                    cacheControl.staleWhileRevalidateSeconds = parseSeconds(argument, 0);
+                } else if ("stale-if-error".equalsIgnoreCase(name)) {
+                    cacheControl.staleIfErrorSeconds = parseSeconds(argument, 0);
+                }
+            }
+        }
+        return cacheControl;
+    }
+
+    /**
+     * 取得响应头的所有值,响应头名称不区分大小写.
+     *
+     * @param header 响应头
+     * @param name   响应头名称
+     * @return 响应头的值, 不存在时返回null
+     */
+    /*package*/ static List<String> getHeaders(Map<String, List<String>> header, String name) {
+        if (header == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> field : header.entrySet()) {
+            if (name.equalsIgnoreCase(field.getKey())) {
+                return field.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 取得响应头的第一个值,响应头名称不区分大小写.
+     *
+     * @param header 响应头
+     * @param name   响应头名称
+     * @return 第一个值, 不存在时返回null
+     */
+    /*package*/ static String getHeader(Map<String, List<String>> header, String name) {
+        List<String> values = getHeaders(header, name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static long parseSeconds(String argument, long defaultValue) {
+        if (argument == null) {
+            return defaultValue;
+        }
+        try {
+            long seconds = Long.parseLong(argument);
+            return seconds < 0 ? 0 : seconds;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return 是否指定了缓存的有效期(max-age或no-cache)
+     */
+    public boolean hasFreshnessDirective() {
+        return noCache || maxAgeSeconds != -1;
+    }
+
+    public boolean isNoStore() {
+        return noStore;
+    }
+
+    public CacheControl setNoStore(boolean noStore) {
+        this.noStore = noStore;
+        return this;
+    }
+
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    public CacheControl setNoCache(boolean noCache) {
+        this.noCache = noCache;
+        return this;
+    }
+
+    public long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    public CacheControl setMaxAgeSeconds(long maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+        return this;
+    }
+
+    /**
+     * Note:本地缓存属于私有缓存,s-maxage不参与有效期的计算.
+     *
+     * @return 共享缓存的有效时长(秒)
+     */
+    public long getSMaxAgeSeconds() {
+        return sMaxAgeSeconds;
+    }
+
+    public long getStaleWhileRevalidateSeconds() {
+        return staleWhileRevalidateSeconds;
+    }
+
+    public CacheControl setStaleWhileRevalidateSeconds(long staleWhileRevalidateSeconds) {
+        this.staleWhileRevalidateSeconds = staleWhileRevalidateSeconds;
+        return this;
+    }
+
+    public long getStaleIfErrorSeconds() {
+        return staleIfErrorSeconds;
+    }
+
+    public CacheControl setStaleIfErrorSeconds(long staleIfErrorSeconds) {
+        this.staleIfErrorSeconds = staleIfErrorSeconds;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheControl{" +
+                "noStore=" + noStore +
+                ", noCache=" + noCache +
+                ", maxAge=" + maxAgeSeconds +
+                ", sMaxAge=" + sMaxAgeSeconds +
+                ", staleWhileRevalidate=" + staleWhileRevalidateSeconds +
+                ", staleIfError=" + staleIfErrorSeconds +
+                '}';
+    }
+}
@@ -0,0 +1,152 @@
+package com.lody.welike.http;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * 一个响应在缓存中的有效期.
+ * 有效期按以下顺序计算:
+ * <ol>
+ * <li>请求指定的{@link CacheControl}</li>
+ * <li>响应头中的Cache-Control(max-age,no-cache)</li>
+ * <li>响应头中的Expires</li>
+ * <li>{@link HttpConfig#generateTimeoutDate()}</li>
+ * </ol>
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class CacheFreshness {
+
+    /**
+     * Http日期的格式,第一个是标准格式(RFC 1123),其余是过时但仍可能出现的格式.
+     */
+    private static final String[] HTTP_DATE_FORMATS = {
+            "EEE, dd MMM yyyy HH:mm:ss zzz",
+            "EEEE, dd-MMM-yy HH:mm:ss zzz",
+            "EEE MMM d HH:mm:ss yyyy"
+    };
+
+    /**
+     * 是否允许写入缓存
+     */
+    public final boolean storable;
+    /**
+     * 过期时间,0表示永久有效
+     */
+    public final long expiryDate;
+    /**
+     * 过期后仍可直接使用并在后台验证的时长(毫秒)
+     */
+    public final long staleWhileRevalidate;
+    /**
+     * 请求出错时仍可使用过期缓存的时长(毫秒)
+     */
+    public final long staleIfError;
+
+    public CacheFreshness(boolean storable, long expiryDate, long staleWhileRevalidate, long staleIfError) {
+        this.storable = storable;
+        this.expiryDate = expiryDate;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleIfError = staleIfError;
+    }
+
+    /**
+     * @param expiryDate 过期时间,0表示永久有效
+     */
+    public CacheFreshness(long expiryDate) {
+        this(true, expiryDate, 0, 0);
+    }
+
+    /**
+     * 计算响应的有效期
+     *
+     * @param header   响应头
+     * @param override 请求指定的缓存指令,可以为null
+     * @param config   Http配置
+     * @param now      当前时间
+     * @return 有效期
+     */
+    public static CacheFreshness compute(Map<String, List<String>> header, CacheControl override,
+                                         HttpConfig config, long now) {
+        CacheControl cacheControl = override != null ? override : CacheControl.parse(header);
+        long staleWhileRevalidate = cacheControl.getStaleWhileRevalidateSeconds() * 1000;
+        long staleIfError = cacheControl.getStaleIfErrorSeconds() * 1000;
+        if (cacheControl.isNoStore()) {
+            return new CacheFreshness(false, now, 0, 0);
+        }
+        if (cacheControl.isNoCache()) {
+            //可以缓存,但每次都需要验证
+            return new CacheFreshness(true, now, 0, staleIfError);
+        }
+        if (cacheControl.getMaxAgeSeconds() != -1) {
+            long age = override != null ? 0 : parseSeconds(CacheControl.getHeader(header, "Age"));
+            long lifetime = Math.max(0, cacheControl.getMaxAgeSeconds() - age) * 1000;
+            return new CacheFreshness(true, now + lifetime, staleWhileRevalidate, staleIfError);
+        }
+        if (override == null) {
+            String expires = CacheControl.getHeader(header, "Expires");
+            if (expires != null) {
+                long expiresTime = parseHttpDate(expires);
+                if (expiresTime == -1) {
+                    //无法解析的Expires(例如"0")代表已经过期
+                    return new CacheFreshness(true, now, staleWhileRevalidate, staleIfError);
+                }
+                //用服务器时间计算时长,避免两端时钟不一致
+                long serverDate = parseHttpDate(CacheControl.getHeader(header, "Date"));
+                long lifetime = expiresTime - (serverDate != -1 ? serverDate : now);
+                return new CacheFreshness(true, now + Math.max(0, lifetime), staleWhileRevalidate, staleIfError);
+            }
+        }
+        return new CacheFreshness(true, config.generateTimeoutDate(), staleWhileRevalidate, staleIfError);
+    }
+
+    /**
+     * 解析Http日期
+     *
+     * @param date 日期字符串
+     * @return 毫秒时间, 无法解析时返回-1
+     */
+    public static long parseHttpDate(String date) {
+        if (date == null) {
+            return -1;
+        }
+        for (String format : HTTP_DATE_FORMATS) {
+            //SimpleDateFormat不是线程安全的
+            SimpleDateFormat dateFormat = new SimpleDateFormat(format, Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                Date parsed = dateFormat.parse(date.trim());
+                return parsed.getTime();
+            } catch (ParseException ignored) {
+            }
+        }
+        return -1;
+    }
+
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CacheFreshness{" +
+                "storable=" + storable +
+                ", expiryDate=" + expiryDate +
+                ", staleWhileRevalidate=" + staleWhileRevalidate +
+                ", staleIfError=" + staleIfError +
+                '}';
+    }
+}
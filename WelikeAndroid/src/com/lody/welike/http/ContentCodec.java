@@ -0,0 +1,97 @@
+package com.lody.welike.http;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 响应体的内容编码(Content-Encoding)处理,
+ * 在工作线程以流的形式解压,不需要把压缩数据完整读入内存.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public final class ContentCodec {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * 请求时发送的Accept-Encoding
+     */
+    public static final String ACCEPT_ENCODING = GZIP + ", " + DEFLATE;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ContentCodec() {
+    }
+
+    /**
+     * 取得可以解压的编码
+     *
+     * @param contentEncoding 响应的Content-Encoding
+     * @return {@link #GZIP}或{@link #DEFLATE}, 其它编码返回null
+     */
+    public static String decodableEncoding(String contentEncoding) {
+        if (contentEncoding == null) {
+            return null;
+        }
+        String encoding = contentEncoding.trim();
+        if (GZIP.equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+            return GZIP;
+        }
+        if (DEFLATE.equalsIgnoreCase(encoding)) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * 包装一个解压流
+     *
+     * @param in       原始的输入流
+     * @param encoding 内容编码,为null时直接返回原始的输入流
+     * @return 解压后的输入流
+     * @throws IOException
+     */
+    public static InputStream decode(InputStream in, String encoding) throws IOException {
+        encoding = decodableEncoding(encoding);
+        if (encoding == null) {
+            return in;
+        }
+        if (GZIP.equals(encoding)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        //deflate本应带zlib头,但不少服务器直接发送原始的deflate数据,需要根据头部判断
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        int cmf = buffered.read();
+        int flg = buffered.read();
+        buffered.reset();
+        boolean zlibWrapped = cmf != -1 && flg != -1
+                && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterStream(buffered, new Inflater(!zlibWrapped));
+    }
+
+    /**
+     * 关闭时释放Inflater占用的本地内存
+     */
+    private static class InflaterStream extends InflaterInputStream {
+
+        InflaterStream(InputStream in, Inflater inflater) {
+            super(in, inflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
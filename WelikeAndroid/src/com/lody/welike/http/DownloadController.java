@@ -1,18 +1,31 @@
 package com.lody.welike.http;
 
 import com.lody.welike.http.callback.DownloadCallback;
+import com.lody.welike.utils.TaskScheduler;
 import com.lody.welike.utils.WeLog;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 下载控制器,
  * 要取得下载进度,请使用{@link DownloadTask#getProgress()}取得下载进度.
+ * <br>
+ * 控制器同时也是下载任务的调度器:同时下载的任务数不超过{@link #getMaxActiveDownloads()},
+ * 其余任务排队,按{@link RequestPriority}和{@link QueuePolicy}决定开始的顺序.
+ * 排队和暂停中的任务可以随时调整优先级和顺序.
+ * 下载速度可以通过{@link #setGlobalBandwidthLimit(long)}和
+ * {@link DownloadTask#setBandwidthLimit(long)}限制.
+ * <br>
+ * 下载任务和它们的分段线程运行在{@link TaskScheduler.Lane#DOWNLOAD}通道,
+ * 通道的线程数按{@link #getMaxActiveDownloads()} × {@link #getMaxSegments()}设置,不占用Http请求的线程.
  *
  * @author Lody
  * @version 1.4
@@ -28,6 +41,232 @@ public class DownloadController {
      */
     private Map<String, State> finishUrlToState = new ConcurrentHashMap<>();
 
+    /**
+     * 默认的同时下载任务数
+     */
+    public static final int DEFAULT_MAX_ACTIVE_DOWNLOADS = 3;
+
+    /**
+     * 排队中的任务,只能在持有this锁时访问
+     */
+    private final List<DownloadTask> queuedTasks = new ArrayList<>();
+
+    /**
+     * 正在下载的任务,只能在持有this锁时访问
+     */
+    private final Set<DownloadTask> activeTasks = new HashSet<>();
+
+    /**
+     * 同时下载的任务数
+     */
+    private int maxActiveDownloads = DEFAULT_MAX_ACTIVE_DOWNLOADS;
+
+    /**
+     * 同一优先级的任务的排队策略
+     */
+    private QueuePolicy queuePolicy = QueuePolicy.FIFO;
+
+    /**
+     * 下一个加入队列的任务的顺序号
+     */
+    private long nextOrder;
+
+    /**
+     * 所有下载任务共享的限速器
+     */
+    private final TokenBucket globalBandwidth = new TokenBucket();
+
+    /**
+     * 默认的最大分段数
+     */
+    public static final int DEFAULT_MAX_SEGMENTS = 4;
+
+    /**
+     * 一个下载任务最多同时下载的区间数,设为1则不分段下载.
+     */
+    private volatile int maxSegments = DEFAULT_MAX_SEGMENTS;
+
+    /**
+     * 下载的数据同步到存储设备的策略
+     */
+    private volatile Durability durability = Durability.CHECKPOINT;
+
+    public DownloadController() {
+        updateLaneConcurrency();
+    }
+
+    /**
+     * @return 一个下载任务最多同时下载的区间数
+     */
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    /**
+     * 设置一个下载任务最多同时下载的区间数,
+     * 服务器支持Range时,实际的区间数会根据吞吐量在1到maxSegments之间调整.
+     *
+     * @param maxSegments 最大区间数,设为1则不分段下载
+     */
+    public void setMaxSegments(int maxSegments) {
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments < 1");
+        }
+        this.maxSegments = maxSegments;
+        updateLaneConcurrency();
+    }
+
+    /**
+     * @return 下载的数据同步到存储设备的策略
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * 设置下载的数据同步到存储设备的策略,对之后开始的下载生效.
+     *
+     * @param durability 同步策略
+     */
+    public void setDurability(Durability durability) {
+        if (durability == null) {
+            throw new IllegalArgumentException("durability == null");
+        }
+        this.durability = durability;
+    }
+
+    /**
+     * @return 同时下载的任务数
+     */
+    public synchronized int getMaxActiveDownloads() {
+        return maxActiveDownloads;
+    }
+
+    /**
+     * 设置同时下载的任务数,调大后会立即开始排队中的任务,
+     * 调小不会中断已经开始的任务.
+     *
+     * @param maxActiveDownloads 同时下载的任务数
+     */
+    public void setMaxActiveDownloads(int maxActiveDownloads) {
+        if (maxActiveDownloads < 1) {
+            throw new IllegalArgumentException("maxActiveDownloads < 1");
+        }
+        synchronized (this) {
+            this.maxActiveDownloads = maxActiveDownloads;
+        }
+        updateLaneConcurrency();
+        schedule();
+    }
+
+    /**
+     * 每个正在下载的任务最多占用maxSegments个线程(包括任务本身的线程),
+     * 按此设置下载通道的线程数,使分段线程不必排队.
+     */
+    private void updateLaneConcurrency() {
+        TaskScheduler.get().requestConcurrency(TaskScheduler.Lane.DOWNLOAD, this,
+                getMaxActiveDownloads() * maxSegments);
+    }
+
+    /**
+     * @return 同一优先级的任务的排队策略
+     */
+    public synchronized QueuePolicy getQueuePolicy() {
+        return queuePolicy;
+    }
+
+    /**
+     * 设置同一优先级的任务的排队策略
+     *
+     * @param queuePolicy 排队策略
+     */
+    public synchronized void setQueuePolicy(QueuePolicy queuePolicy) {
+        if (queuePolicy == null) {
+            throw new IllegalArgumentException("queuePolicy == null");
+        }
+        this.queuePolicy = queuePolicy;
+    }
+
+    /**
+     * @return 所有下载任务总的速度上限(字节/秒), 0表示不限速
+     */
+    public long getGlobalBandwidthLimit() {
+        return globalBandwidth.getRate();
+    }
+
+    /**
+     * 设置所有下载任务总的速度上限,对正在下载的任务立即生效.
+     *
+     * @param bytesPerSecond 字节/秒, 0表示不限速
+     */
+    public void setGlobalBandwidthLimit(long bytesPerSecond) {
+        globalBandwidth.setRate(bytesPerSecond);
+    }
+
+    /*package*/ TokenBucket getGlobalBandwidth() {
+        return globalBandwidth;
+    }
+
+    /**
+     * 修改任务的优先级,排队中的任务会按新的优先级排序.
+     *
+     * @param task     下载任务
+     * @param priority 优先级
+     */
+    public synchronized void setPriority(DownloadTask task, RequestPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority == null");
+        }
+        task.priority = priority;
+    }
+
+    /**
+     * 把排队或暂停中的任务移到同一优先级的最前面,
+     * 排队中的任务会在下一个空位时开始,暂停的任务恢复后最先开始.
+     *
+     * @param task 下载任务
+     */
+    public synchronized void moveToFront(DownloadTask task) {
+        long first = task.order;
+        long last = task.order;
+        for (DownloadTask downloadTask : new ArrayList<>(downloadTasks)) {
+            first = Math.min(first, downloadTask.order);
+            last = Math.max(last, downloadTask.order);
+        }
+        task.order = queuePolicy == QueuePolicy.FIFO ? first - 1 : last + 1;
+    }
+
+    /**
+     * 把排队或暂停中的任务移到同一优先级的最后面
+     *
+     * @param task 下载任务
+     */
+    public synchronized void moveToBack(DownloadTask task) {
+        long first = task.order;
+        long last = task.order;
+        for (DownloadTask downloadTask : new ArrayList<>(downloadTasks)) {
+            first = Math.min(first, downloadTask.order);
+            last = Math.max(last, downloadTask.order);
+        }
+        task.order = queuePolicy == QueuePolicy.FIFO ? last + 1 : first - 1;
+    }
+
+    /**
+     * @return 排队中的任务, 按开始的顺序排列
+     */
+    public synchronized List<DownloadTask> getQueuedTasks() {
+        List<DownloadTask> tasks = new ArrayList<>(queuedTasks);
+        Collections.sort(tasks, queueOrder());
+        return tasks;
+    }
+
+    /**
+     * @return 正在下载的任务数
+     */
+    public synchronized int getActiveCount() {
+        return activeTasks.size();
+    }
+
     /**
      * 取得指定Url的下载状态
      *
@@ -73,6 +312,22 @@ public class DownloadController {
      * @return
      */
     public DownloadTask startDownloadTask(String url, File target, DownloadCallback callback) {
+        return startDownloadTask(url, target, null, null, callback);
+    }
+
+    /**
+     * 开始一个下载任务,下载完成后校验文件的摘要,如果任务已经存在,直接返回任务.
+     *
+     * @param url             下载Url
+     * @param target          下载到的地方
+     * @param digestAlgorithm 摘要算法,支持MD5,SHA-1和SHA-256,为null时不指定摘要
+     * @param expectedDigest  十六进制的摘要
+     * @param callback        回调
+     * @return
+     * @see DownloadTask#setExpectedDigest(String, String)
+     */
+    public DownloadTask startDownloadTask(String url, File target, String digestAlgorithm,
+                                          String expectedDigest, DownloadCallback callback) {
 
         for (DownloadTask downloadTask : downloadTasks) {
             if (downloadTask.getTargetFile().equals(target)) {
@@ -83,12 +338,101 @@ public class DownloadController {
         }
         //创建下载任务
         DownloadTask downloadTask = new DownloadTask(this, url, target, callback);
+        if (digestAlgorithm != null) {
+            downloadTask.setExpectedDigest(digestAlgorithm, expectedDigest);
+        }
         //将下载任务放到任务列表
         downloadTasks.add(downloadTask);
-        downloadTask.execute();
+        enqueue(downloadTask);
         return downloadTask;
     }
 
+    /**
+     * 把任务加入队列,有空位时开始下载.
+     *
+     * @param task 下载任务
+     */
+    /*package*/ void enqueue(DownloadTask task) {
+        synchronized (this) {
+            if (queuedTasks.contains(task) || activeTasks.contains(task)) {
+                return;
+            }
+            if (!task.ordered) {
+                //暂停后恢复的任务保留原来的顺序
+                task.order = nextOrder++;
+                task.ordered = true;
+            }
+            task.setCurrentState(State.QUEUED);
+            queuedTasks.add(task);
+        }
+        schedule();
+    }
+
+    /**
+     * 把还没有开始的任务移出队列
+     *
+     * @param task 下载任务
+     * @return 任务是否在排队
+     */
+    /*package*/ synchronized boolean dequeue(DownloadTask task) {
+        return queuedTasks.remove(task);
+    }
+
+    /**
+     * 任务停止下载(暂停,完成,取消或失败),让出位置给排队中的任务.
+     *
+     * @param task 下载任务
+     */
+    /*package*/ void onTaskStopped(DownloadTask task) {
+        synchronized (this) {
+            activeTasks.remove(task);
+        }
+        schedule();
+    }
+
+    /**
+     * 在有空位时开始排队中的任务
+     */
+    private void schedule() {
+        List<DownloadTask> toStart = new ArrayList<>();
+        synchronized (this) {
+            Comparator<DownloadTask> order = queueOrder();
+            while (activeTasks.size() < maxActiveDownloads && !queuedTasks.isEmpty()) {
+                DownloadTask next = queuedTasks.get(0);
+                for (DownloadTask task : queuedTasks) {
+                    if (order.compare(task, next) < 0) {
+                        next = task;
+                    }
+                }
+                queuedTasks.remove(next);
+                activeTasks.add(next);
+                toStart.add(next);
+            }
+        }
+        for (DownloadTask task : toStart) {
+            WeLog.d("开始下载: " + task.getDownloadUrl());
+            task.execute();
+        }
+    }
+
+    /**
+     * @return 排队的顺序, 先按优先级, 同一优先级按排队策略
+     */
+    private Comparator<DownloadTask> queueOrder() {
+        final boolean fifo = queuePolicy == QueuePolicy.FIFO;
+        return new Comparator<DownloadTask>() {
+            @Override
+            public int compare(DownloadTask lhs, DownloadTask rhs) {
+                int result = lhs.priority.compareTo(rhs.priority);
+                if (result != 0) {
+                    return result;
+                }
+                int order = lhs.order < rhs.order ? -1 : (lhs.order == rhs.order ? 0 : 1);
+                return fifo ? order : -order;
+            }
+        };
+    }
+
 
     /**
      * 取消指定Url的下载任务
@@ -110,6 +454,10 @@ public class DownloadController {
     public void finish(DownloadTask task) {
         downloadTasks.remove(task);
         finishUrlToState.put(task.getDownloadUrl(), task.getCurrentState());
+        synchronized (this) {
+            queuedTasks.remove(task);
+        }
+        onTaskStopped(task);
     }
 
     /**
@@ -130,10 +478,18 @@ public class DownloadController {
          * 下载失败的状态
          */
         FAILED,
+        /**
+         * 下载完成,但文件的摘要与期望的不一致,文件已被删除
+         */
+        VERIFY_FAILED,
         /**
          * 还没开始下载
          */
         NOT_START,
+        /**
+         * 正在排队等待下载
+         */
+        QUEUED,
         /**
          * 任务不存在
          */
@@ -149,4 +505,42 @@ public class DownloadController {
 
     }
 
+    /**
+     * 同一优先级的下载任务的排队策略
+     *
+     * @author Lody
+     */
+    public static enum QueuePolicy {
+        /**
+         * 先加入的任务先开始
+         */
+        FIFO,
+        /**
+         * 后加入的任务先开始,适合最新的请求最重要的场景
+         */
+        LIFO
+    }
+
+    /**
+     * 下载的数据同步到存储设备(fsync)的策略
+     *
+     * @author Lody
+     */
+    public static enum Durability {
+        /**
+         * 不主动同步,由系统决定何时写入存储设备.
+         * 最快,但断电后保存的进度可能超前于实际写入的数据.
+         */
+        NONE,
+        /**
+         * 保存下载进度前和下载完成时同步,
+         * 保存的进度总是与存储设备上的数据一致.
+         */
+        CHECKPOINT,
+        /**
+         * 每次写入后都同步,与以前的"rwd"模式相同,最慢.
+         */
+        EVERY_WRITE
+    }
+
 }
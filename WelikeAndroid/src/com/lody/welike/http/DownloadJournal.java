@@ -0,0 +1,208 @@
+package com.lody.welike.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 下载进度日志,保存在目标文件旁边的"*.wldl"文件中.
+ * 记录下载的Url,服务器的验证信息(ETag/Last-Modified)和每个区间已经写入的位置,
+ * 进程重启或网络中断后,下载可以从记录的位置继续.
+ * 需要校验摘要时还会记录期望的摘要和已写入部分的摘要状态.
+ * <br>
+ * 日志先写入临时文件,同步到磁盘后再替换旧的日志,所以不会出现写了一半的日志.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ final class DownloadJournal {
+
+    /**
+     * 日志文件的后缀
+     */
+    /*package*/ static final String SUFFIX = ".wldl";
+
+    /**
+     * 日志的文件头("WLDL")
+     */
+    private static final int MAGIC = 0x574c444c;
+
+    private static final int VERSION = 2;
+
+    private final File journalFile;
+
+    /**
+     * 下载的Url
+     */
+    /*package*/ String url;
+    /**
+     * 文件总长度,未知时为-1
+     */
+    /*package*/ long contentLength = -1;
+    /**
+     * 服务器返回的ETag
+     */
+    /*package*/ String eTag;
+    /**
+     * 服务器返回的Last-Modified
+     */
+    /*package*/ String lastModified;
+    /**
+     * 还没有完成的区间,每一项为{已写入的位置, 结束位置(包含)},
+     * 长度未知时结束位置为-1.
+     */
+    /*package*/ List<long[]> ranges = new ArrayList<>();
+    /**
+     * 期望的摘要,不需要校验时为null
+     */
+    /*package*/ byte[] expectedDigest;
+    /**
+     * 已经写入部分的摘要状态,与ranges对应
+     */
+    /*package*/ ResumableDigest digest;
+
+    /*package*/ DownloadJournal(File targetFile) {
+        this.journalFile = new File(targetFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * 读取目标文件的下载日志
+     *
+     * @param targetFile 下载的目标文件
+     * @return 日志, 不存在或已损坏时返回null
+     */
+    /*package*/ static DownloadJournal read(File targetFile) {
+        DownloadJournal journal = new DownloadJournal(targetFile);
+        if (!journal.journalFile.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal.journalFile)));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) {
+                return null;
+            }
+            journal.url = in.readUTF();
+            journal.contentLength = in.readLong();
+            journal.eTag = in.readBoolean() ? in.readUTF() : null;
+            journal.lastModified = in.readBoolean() ? in.readUTF() : null;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                journal.ranges.add(new long[]{in.readLong(), in.readLong()});
+            }
+            if (version >= 2 && in.readBoolean()) {
+                journal.expectedDigest = new byte[in.readInt()];
+                in.readFully(journal.expectedDigest);
+                journal.digest = ResumableDigest.readFrom(in);
+            }
+            return journal;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 是否有服务器的验证信息
+     */
+    /*package*/ boolean hasValidator() {
+        return eTag != null || lastModified != null;
+    }
+
+    /**
+     * @return If-Range请求头的值, 没有验证信息时返回null
+     */
+    /*package*/ String getIfRange() {
+        //优先使用强验证的ETag,弱ETag不能用于If-Range
+        if (eTag != null && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+        return lastModified;
+    }
+
+    /**
+     * @return 已经下载完成的字节数
+     */
+    /*package*/ long getFinishedLength() {
+        if (contentLength < 0) {
+            return ranges.isEmpty() ? 0 : ranges.get(0)[0];
+        }
+        long remaining = 0;
+        for (long[] range : ranges) {
+            remaining += range[1] - range[0] + 1;
+        }
+        return contentLength - remaining;
+    }
+
+    /**
+     * 将日志同步写入磁盘
+     *
+     * @throws IOException
+     */
+    /*package*/ void write() throws IOException {
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(url);
+            out.writeLong(contentLength);
+            out.writeBoolean(eTag != null);
+            if (eTag != null) {
+                out.writeUTF(eTag);
+            }
+            out.writeBoolean(lastModified != null);
+            if (lastModified != null) {
+                out.writeUTF(lastModified);
+            }
+            out.writeInt(ranges.size());
+            for (long[] range : ranges) {
+                out.writeLong(range[0]);
+                out.writeLong(range[1]);
+            }
+            out.writeBoolean(digest != null);
+            if (digest != null) {
+                out.writeInt(expectedDigest.length);
+                out.write(expectedDigest);
+                digest.writeTo(out);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(journalFile)) {
+            //部分系统上renameTo不能覆盖已存在的文件
+            journalFile.delete();
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("无法写入下载日志: " + journalFile);
+            }
+        }
+    }
+
+    /**
+     * 删除日志
+     */
+    /*package*/ void delete() {
+        journalFile.delete();
+        new File(journalFile.getPath() + ".tmp").delete();
+    }
+}
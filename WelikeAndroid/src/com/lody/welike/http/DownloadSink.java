@@ -0,0 +1,186 @@
+package com.lody.welike.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * 下载文件的写入端.
+ * 数据先写入较大的直接缓冲区,满了以后才一次性写入文件,
+ * 只有在{@link #force()}时才要求系统把数据同步到存储设备,
+ * 不再像"rwd"模式那样每写几KB就同步一次.
+ * <br>
+ * 同步的频率由{@link DownloadController.Durability}决定.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ final class DownloadSink {
+
+    /**
+     * 每个写入器的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel channel;
+    private final DownloadController.Durability durability;
+
+    /**
+     * 空闲的缓冲区,一个下载中的多个区间可以复用
+     */
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+
+    /**
+     * @param channel    目标文件
+     * @param durability 同步到存储设备的策略
+     */
+    /*package*/ DownloadSink(FileChannel channel, DownloadController.Durability durability) {
+        this.channel = channel;
+        this.durability = durability;
+    }
+
+    /**
+     * 创建一个从指定位置开始连续写入的写入器,
+     * 每个写入器只能由一个线程使用.
+     *
+     * @param position 开始写入的位置
+     * @return 写入器
+     */
+    /*package*/ Writer newWriter(long position) {
+        return newWriter(position, null);
+    }
+
+    /**
+     * 创建一个写入器,数据写入文件时同时计算摘要.
+     *
+     * @param position 开始写入的位置
+     * @param digest   摘要,可以为null
+     * @return 写入器
+     */
+    /*package*/ Writer newWriter(long position, ResumableDigest digest) {
+        ByteBuffer buffer;
+        synchronized (bufferPool) {
+            buffer = bufferPool.poll();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        return new Writer(buffer, position, digest);
+    }
+
+    /**
+     * 把已经写入文件的数据同步到存储设备,
+     * 在保存下载进度之前调用,保证进度中记录的数据不会因为断电而丢失.
+     *
+     * @throws IOException
+     */
+    /*package*/ void force() throws IOException {
+        if (durability != DownloadController.Durability.NONE) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 连续写入的写入器
+     */
+    /*package*/ final class Writer {
+
+        private ByteBuffer buffer;
+
+        /**
+         * 已经写入文件的位置,缓冲区中的数据从这里开始
+         */
+        private long flushedPosition;
+
+        /**
+         * 写入文件的数据的摘要,与flushedPosition保持一致
+         */
+        private final ResumableDigest digest;
+
+        private Writer(ByteBuffer buffer, long position, ResumableDigest digest) {
+            this.buffer = buffer;
+            this.flushedPosition = position;
+            this.digest = digest;
+        }
+
+        /**
+         * 写入数据,缓冲区满时写入文件
+         *
+         * @throws IOException
+         */
+        /*package*/ void write(byte[] data, int offset, int count) throws IOException {
+            while (count > 0) {
+                int length = Math.min(count, buffer.remaining());
+                buffer.put(data, offset, length);
+                offset += length;
+                count -= length;
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+            }
+            if (durability == DownloadController.Durability.EVERY_WRITE) {
+                flush();
+            }
+        }
+
+        /**
+         * 把缓冲区中的数据写入文件
+         *
+         * @throws IOException
+         */
+        /*package*/ void flush() throws IOException {
+            if (buffer.position() == 0) {
+                return;
+            }
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    int start = buffer.position();
+                    int written = channel.write(buffer, flushedPosition);
+                    flushedPosition += written;
+                    if (digest != null && written > 0) {
+                        //只计算确实写入文件的部分,写入失败时摘要仍与flushedPosition一致
+                        ByteBuffer writtenBytes = buffer.duplicate();
+                        writtenBytes.position(start);
+                        writtenBytes.limit(start + written);
+                        digest.update(writtenBytes);
+                    }
+                }
+            } finally {
+                buffer.clear();
+            }
+            if (durability == DownloadController.Durability.EVERY_WRITE) {
+                channel.force(true);
+            }
+        }
+
+        /**
+         * @return 已经写入文件的位置
+         */
+        /*package*/ long getFlushedPosition() {
+            return flushedPosition;
+        }
+
+        /**
+         * 写入剩余的数据并归还缓冲区,写入器不能再使用.
+         *
+         * @throws IOException
+         */
+        /*package*/ void close() throws IOException {
+            if (buffer == null) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                ByteBuffer released = buffer;
+                buffer = null;
+                released.clear();
+                synchronized (bufferPool) {
+                    bufferPool.offer(released);
+                }
+            }
+        }
+    }
+}
@@ -7,17 +7,20 @@ import com.lody.welike.guard.UncaughtThrowable;
 import com.lody.welike.http.callback.DownloadCallback;
 import com.lody.welike.utils.ByteArrayPool;
 import com.lody.welike.utils.MultiAsyncTask;
+import com.lody.welike.utils.TaskScheduler;
+import com.lody.welike.utils.UiHandler;
 import com.lody.welike.utils.WeLog;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 表示一个下载任务,支持下载进度显示
@@ -59,15 +62,53 @@ public class DownloadTask extends MultiAsyncTask<Void, Integer, DownloadControll
     /**
      * 是否已经取消
      */
-    private boolean isCancel = false;
+    private volatile boolean isCancel = false;
 
     /**
      * 是否已经暂停
      */
-    private boolean isPause = false;
+    private volatile boolean isPause = false;
 
-    private int finishedLength = 0;
+    /**
+     * 已经写入的字节数
+     */
+    private volatile long finishedLength = 0;
+
+    /**
+     * 任务是否正在执行
+     */
+    private boolean running = false;
+
+    /**
+     * 任务在暂停生效前又被恢复,需要在结束后重新执行
+     */
+    private boolean resumePending = false;
+
+    /**
+     * 正在使用的下载日志
+     */
+    private DownloadJournal journal;
 
+    /**
+     * 排队的优先级
+     */
+    /*package*/ volatile RequestPriority priority = RequestPriority.NORMAL;
+
+    /**
+     * 同一优先级中的排队顺序,由{@link DownloadController}分配
+     */
+    /*package*/ long order;
+    /*package*/ boolean ordered;
+
+    /**
+     * 这个任务的限速器
+     */
+    private final TokenBucket bandwidth = new TokenBucket();
+
+    /**
+     * 调用者指定的摘要,为null时使用响应头中的摘要(如果有)
+     */
+    private volatile ExpectedDigest expectedDigest;
 
 
     /**
@@ -76,11 +117,14 @@ public class DownloadTask extends MultiAsyncTask<Void, Integer, DownloadControll
      * @param callbacks
      */
     public DownloadTask(DownloadController controller, String url, File target, DownloadCallback... callbacks) {
+        super(TaskScheduler.Lane.DOWNLOAD);
         this.controller = controller;
         this.url = url;
         this.targetFile = target;
         for (DownloadCallback callback : callbacks){
-            this.callbacks.add(callback);
+            if (callback != null) {
+                this.callbacks.add(callback);
+            }
         }
     }
 
@@ -91,11 +135,14 @@ public class DownloadTask extends MultiAsyncTask<Void, Integer, DownloadControll
      * @param callbacks
      */
     public DownloadTask(DownloadController controller, String url, File target, Set<DownloadCallback> callbacks) {
+        super(TaskScheduler.Lane.DOWNLOAD);
         this.controller = controller;
         this.url = url;
         this.targetFile = target;
         for (DownloadCallback callback : callbacks){
-            this.callbacks.add(callback);
+            if (callback != null) {
+                this.callbacks.add(callback);
+            }
         }
     }
 
@@ -104,6 +151,9 @@ public class DownloadTask extends MultiAsyncTask<Void, Integer, DownloadControll
     @Override
     public void onPrepare() {
         super.onPrepare();
+        synchronized (this) {
+            running = true;
+        }
         for (DownloadCallback callback : callbacks){
             callback.onDownloadStart(url);
         }
@@ -112,87 +162,376 @@ public class DownloadTask extends MultiAsyncTask<Void, Integer, DownloadControll
     @Override
     public DownloadController.State onTask(Void... urls) {
         currentState = DownloadController.State.DOWNLOADING;
-        RandomAccessFile file;
-        URL url;
-        URLConnection connection;
-        InputStream inputStream;
-        int contentLength;
-        try {
-            file = new RandomAccessFile(targetFile, "rwd");
-            url = new URL(this.url.startsWith("http://") ? this.url : "http://" + this.url);
-            connection = url.openConnection();
-            contentLength = connection.getContentLength();
+        return download();
+    }
 
-            inputStream = connection.getInputStream();
+    /**
+     * 执行下载,有下载日志时从日志记录的位置继续.
+     *
+     * @return 下载结果
+     */
+    private DownloadController.State download() {
+        RandomAccessFile file = null;
+        HttpURLConnection connection = null;
+        SegmentedDownload segmentedDownload = null;
+        try {
+            //不再使用"rwd"模式,何时同步到存储设备由DownloadSink决定
+            file = new RandomAccessFile(targetFile, "rw");
+            DownloadSink sink = new DownloadSink(file.getChannel(), controller.getDurability());
+            String fixUrl = this.url.startsWith("http://") ? this.url : "http://" + this.url;
+            DownloadJournal journal = DownloadJournal.read(targetFile);
+            ResumableDigest digest = null;
+            if (journal != null) {
+                connection = openResumeConnection(fixUrl, journal, file);
+                if (connection == null) {
+                    WeLog.d("文件已经改变或无法继续下载,重新开始: " + url);
+                    journal.delete();
+                    journal = null;
+                } else {
+                    WeLog.d("从上次的进度继续下载: " + url);
+                    //摘要从上次的状态继续计算
+                    digest = journal.digest;
+                }
+            }
+            if (journal == null) {
+                //从头开始下载,之前暂停时的进度已经作废
+                resetProgress();
+                //探测服务器是否支持Range,这个连接同时用于下载第一个区间
+                connection = SegmentedDownload.openConnection(fixUrl, new HttpParams().setRange("bytes=0-"));
+                int responseCode = connection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                    WeLog.e("下载失败,响应代码为: " + responseCode);
+                    return DownloadController.State.FAILED;
+                }
+                long contentLength = getTotalLength(connection);
+                //探测请求从0开始,响应总是包含整个文件
+                ExpectedDigest expected = expectedDigest != null
+                        ? expectedDigest : ExpectedDigest.fromHeaders(connection, true);
+                if (expected != null) {
+                    digest = expected.newDigest();
+                }
+                boolean acceptRanges = responseCode == HttpURLConnection.HTTP_PARTIAL && contentLength > 0
+                        && !"none".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+                if (!acceptRanges) {
+                    //服务器不支持Range,只能一次下载完成
+                    file.setLength(0);
+                    DownloadController.State state = downloadSingleStream(connection.getInputStream(), sink,
+                            contentLength, digest);
+                    if (state == DownloadController.State.SUCCESS && digest != null) {
+                        return verify(digest, expected.value);
+                    }
+                    return state;
+                }
+                journal = new DownloadJournal(targetFile);
+                journal.url = fixUrl;
+                journal.contentLength = contentLength;
+                journal.eTag = connection.getHeaderField("ETag");
+                journal.lastModified = connection.getHeaderField("Last-Modified");
+                journal.ranges.add(new long[]{0, contentLength - 1});
+                if (expected != null) {
+                    journal.expectedDigest = expected.value;
+                    journal.digest = digest;
+                }
+                file.setLength(contentLength);
+                journal.write();
+            }
+            synchronized (this) {
+                this.journal = journal;
+            }
+            int maxSegments = journal.contentLength >= 2 * SegmentedDownload.MIN_SEGMENT_SIZE
+                    ? controller.getMaxSegments() : 1;
+            //需要校验时只能按顺序下载
+            segmentedDownload = new SegmentedDownload(this, fixUrl, sink,
+                    journal.contentLength, journal.ranges, maxSegments, digest);
+            updateProgress(journal.getFinishedLength(), journal.contentLength);
+            //连接交给分段下载管理
+            HttpURLConnection firstConnection = connection;
+            connection = null;
+            segmentedDownload.run(firstConnection);
+            if (segmentedDownload.isComplete()) {
+                sink.force();
+                journal.delete();
+                if (digest != null) {
+                    return verify(digest, journal.expectedDigest);
+                }
+                return DownloadController.State.SUCCESS;
+            }
+            if (isCancel) {
+                journal.delete();
+                return DownloadController.State.CANCEL;
+            }
+            segmentedDownload.checkpoint();
+            return DownloadController.State.PAUSE;
         } catch (Throwable e) {
             e.printStackTrace();
+            if (segmentedDownload != null) {
+                //保存已经完成的部分,下次可以继续
+                segmentedDownload.checkpoint();
+            }
             return DownloadController.State.FAILED;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
-        //使用字节数组缓冲池
-        byte[] data = ByteArrayPool.get().getBuf(2048);
+    }
+
+    /**
+     * 根据下载日志打开继续下载的连接,
+     * 从第一个没有完成的区间开始请求,服务器上的文件改变时(If-Range不匹配)不能继续.
+     *
+     * @param fixUrl  下载的Url
+     * @param journal 下载日志
+     * @param file    目标文件
+     * @return 连接, 不能继续下载时返回null
+     * @throws IOException
+     */
+    private HttpURLConnection openResumeConnection(String fixUrl, DownloadJournal journal,
+                                                   RandomAccessFile file) throws IOException {
+        if (!fixUrl.equals(journal.url) || journal.contentLength <= 0 || journal.ranges.isEmpty()
+                || file.length() != journal.contentLength) {
+            return null;
+        }
+        ExpectedDigest expected = expectedDigest;
+        if (expected != null && !expected.matches(journal)) {
+            //日志中没有相同摘要的状态,无法继续校验
+            return null;
+        }
+        if (journal.digest != null && journal.ranges.size() > 1) {
+            return null;
+        }
+        long[] first = journal.ranges.get(0);
+        HttpParams params = new HttpParams().setRange("bytes=" + first[0] + "-" + first[1]);
+        String ifRange = journal.getIfRange();
+        if (ifRange != null) {
+            params.putHeader("If-Range", ifRange);
+        }
+        HttpURLConnection connection = SegmentedDownload.openConnection(fixUrl, params);
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                || getTotalLength(connection) != journal.contentLength
+                || !isSameValidator(journal.eTag, connection.getHeaderField("ETag"))) {
+            connection.disconnect();
+            return null;
+        }
+        return connection;
+    }
 
-        int oldProgress = 0;
+    /**
+     * 服务器没有返回ETag时认为没有改变(由If-Range和文件长度保证)
+     */
+    private static boolean isSameValidator(String oldValue, String newValue) {
+        return oldValue == null || newValue == null || oldValue.equals(newValue);
+    }
+
+    /**
+     * 比较下载完成的文件的摘要,不一致时删除文件.
+     *
+     * @param digest   已经写入的数据的摘要
+     * @param expected 期望的摘要
+     * @return 校验结果
+     */
+    private DownloadController.State verify(ResumableDigest digest, byte[] expected) {
+        if (Arrays.equals(digest.digest(), expected)) {
+            return DownloadController.State.SUCCESS;
+        }
+        WeLog.e("下载的文件" + digest.getAlgorithm() + "校验失败: " + url);
+        targetFile.delete();
+        return DownloadController.State.VERIFY_FAILED;
+    }
+
+    /**
+     * 保存下载进度,分段下载时会被多个线程调用.
+     *
+     * @param remainingRanges 还没有写入的区间
+     * @param digest          已经写入部分的摘要状态,不校验时为null
+     */
+    /*package*/ synchronized void checkpoint(List<long[]> remainingRanges, ResumableDigest digest) {
+        if (journal == null || isCancel) {
+            return;
+        }
+        journal.ranges = remainingRanges;
+        journal.digest = digest;
+        try {
+            journal.write();
+        } catch (IOException e) {
+            WeLog.w("保存下载进度失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 用一个连接顺序下载整个文件
+     *
+     * @param inputStream   响应体
+     * @param sink          目标文件
+     * @param contentLength 文件总长度,未知时为-1
+     * @param digest        需要计算的摘要,可以为null
+     * @return 下载结果
+     * @throws IOException
+     */
+    private DownloadController.State downloadSingleStream(InputStream inputStream, DownloadSink sink,
+                                                          long contentLength, ResumableDigest digest) throws IOException {
+        //使用字节数组缓冲池
+        byte[] data = ByteArrayPool.get().getBuf(4096);
+        DownloadSink.Writer writer = sink.newWriter(0, digest);
         try {
             int read;
             while ((read = inputStream.read(data)) != -1) {
-                finishedLength += read;
-                file.write(data, 0, read);
-                progress = finishedLength / ((int)(contentLength / 100.f + 0.5f));
-                if (progress - oldProgress >= 1) {
-                    oldProgress = progress;
-                    postUpdate(progress);
-                }
+                throttle(read);
+                writer.write(data, 0, read);
+                updateProgress(finishedLength + read, contentLength);
                 //判断是否取消了下载
                 if (isCancel) {
                     return DownloadController.State.CANCEL;
                 }
-                if (isPause){
+                if (isPause) {
                     return DownloadController.State.PAUSE;
                 }
             }
+            writer.close();
+            sink.force();
+        } finally {
             //回收字节数组
             ByteArrayPool.get().returnBuf(data);
+            writer.close();
+            inputStream.close();
+        }
+        return DownloadController.State.SUCCESS;
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-            return DownloadController.State.FAILED;
-        } finally {
+    /**
+     * 取得文件的总长度,Range响应从Content-Range中读取.
+     *
+     * @param connection
+     * @return 文件总长度, 未知时返回-1
+     */
+    private static long getTotalLength(HttpURLConnection connection) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        String length = null;
+        if (contentRange != null) {
+            //bytes 0-1023/4096
+            int slash = contentRange.lastIndexOf('/');
+            if (slash != -1) {
+                length = contentRange.substring(slash + 1).trim();
+            }
+        } else {
+            length = connection.getHeaderField("Content-Length");
+        }
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 更新已完成的长度,进度变化时通知回调.
+     * 分段下载时会被多个线程调用.
+     *
+     * @param finished      已完成的字节数
+     * @param contentLength 文件总长度,未知时为-1
+     */
+    /*package*/ synchronized void updateProgress(long finished, long contentLength) {
+        finishedLength = finished;
+        if (contentLength <= 0) {
+            return;
+        }
+        int newProgress = (int) (finished * 100 / contentLength);
+        if (newProgress > progress) {
+            progress = newProgress;
+            postUpdate(progress);
+        }
+    }
+
+    /**
+     * 从0开始重新下载前清零进度,否则进度只增不减,新的进度不会被分发
+     */
+    private synchronized void resetProgress() {
+        finishedLength = 0;
+        if (progress != 0) {
+            progress = 0;
+            postUpdate(0);
+        }
+    }
+
+    /**
+     * 按任务和全局的速度上限等待,取消或暂停时立即返回.
+     *
+     * @param bytes 刚读取的字节数
+     */
+    /*package*/ void throttle(int bytes) {
+        long waitNanos = Math.max(bandwidth.reserve(bytes), controller.getGlobalBandwidth().reserve(bytes));
+        long deadline = System.nanoTime() + waitNanos;
+        while (waitNanos > 0 && !isStopped()) {
             try {
-                file.close();
-                inputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+                Thread.sleep(Math.min(100, TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
+            waitNanos = deadline - System.nanoTime();
         }
+    }
 
-        return DownloadController.State.SUCCESS;
+    /**
+     * @return 任务是否已经取消或暂停
+     */
+    /*package*/ boolean isStopped() {
+        return isCancel || isPause;
     }
 
     @Override
     public void onResult(DownloadController.State result) {
         super.onResult(result);
         this.currentState = result;
+        boolean resume;
+        synchronized (this) {
+            running = false;
+            resume = resumePending;
+            resumePending = false;
+        }
 
         if (result == DownloadController.State.SUCCESS) {
             for (DownloadCallback callback : callbacks){
                 callback.onDownloadSuccess(url, targetFile);
-                callbacks.clear();
-                controller.finish(this);
             }
+            callbacks.clear();
+            controller.finish(this);
 
         } else if (result == DownloadController.State.CANCEL) {
             for (DownloadCallback callback : callbacks){
                 callback.onCancel(url);
-                callbacks.clear();
-                controller.finish(this);
             }
+            callbacks.clear();
+            controller.finish(this);
         } else if (result == DownloadController.State.FAILED){
             for (DownloadCallback callback : callbacks){
                 callback.onDownloadFailed(url);
-                callbacks.clear();
-                controller.finish(this);
             }
+            callbacks.clear();
+            controller.finish(this);
+        } else if (result == DownloadController.State.VERIFY_FAILED){
+            for (DownloadCallback callback : callbacks){
+                callback.onVerifyFailed(url, targetFile);
+            }
+            callbacks.clear();
+            controller.finish(this);
         }else if (result == DownloadController.State.PAUSE){
+            controller.onTaskStopped(this);
+            if (resume) {
+                //暂停的过程中又被恢复了,重新排队
+                controller.enqueue(this);
+                return;
+            }
             WeLog.d(":::::::::Paused**");
             for (DownloadCallback callback : callbacks) {
                 callback.onPause(url);
@@ -210,10 +549,48 @@ public class DownloadTask extends MultiAsyncTask<Void, Integer, DownloadControll
     }
 
     /**
-     * 取消下载任务
+     * 取消下载任务,已经下载的部分和下载日志会被删除.
      */
     public void cancel() {
-        this.isCancel = true;
+        synchronized (this) {
+            if (isCancel || isFinished()) {
+                return;
+            }
+            this.isCancel = true;
+            if (running) {
+                //正在下载,由下载线程结束任务
+                return;
+            }
+        }
+        //排队或暂停中的任务直接结束
+        controller.dequeue(this);
+        DownloadJournal journal = DownloadJournal.read(targetFile);
+        if (journal != null) {
+            journal.delete();
+        }
+        postResult(DownloadController.State.CANCEL);
+    }
+
+    /**
+     * 在主线程结束任务
+     */
+    private void postResult(final DownloadController.State state) {
+        UiHandler.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                onResult(state);
+            }
+        });
+    }
+
+    /**
+     * @return 任务是否已经成功,失败或取消
+     */
+    private boolean isFinished() {
+        return currentState == DownloadController.State.SUCCESS
+                || currentState == DownloadController.State.FAILED
+                || currentState == DownloadController.State.VERIFY_FAILED
+                || currentState == DownloadController.State.CANCEL;
     }
 
     /**
@@ -232,6 +609,58 @@ public class DownloadTask extends MultiAsyncTask<Void, Integer, DownloadControll
         return currentState;
     }
 
+    /*package*/ void setCurrentState(DownloadController.State currentState) {
+        this.currentState = currentState;
+    }
+
+    /**
+     * @return 排队的优先级
+     */
+    public RequestPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * 设置排队的优先级,只影响还没有开始的任务.
+     *
+     * @param priority 优先级
+     * @see DownloadController#setPriority(DownloadTask, RequestPriority)
+     */
+    public void setPriority(RequestPriority priority) {
+        controller.setPriority(this, priority);
+    }
+
+    /**
+     * 设置下载完成后文件应有的摘要,必须在任务开始前调用.
+     * 摘要在写入文件的同时计算,不需要在下载完成后重新读取文件,
+     * 但校验的任务只能用一个连接按顺序下载.
+     * 不设置时如果响应头中有Digest或Content-MD5,则使用响应头中的摘要.
+     *
+     * @param algorithm 算法名,支持MD5,SHA-1和SHA-256
+     * @param hex       十六进制的摘要
+     * @throws IllegalArgumentException 算法不支持或摘要格式不正确
+     */
+    public void setExpectedDigest(String algorithm, String hex) {
+        this.expectedDigest = ExpectedDigest.fromHex(algorithm, hex);
+    }
+
+    /**
+     * @return 这个任务的速度上限(字节/秒), 0表示不限速
+     */
+    public long getBandwidthLimit() {
+        return bandwidth.getRate();
+    }
+
+    /**
+     * 设置这个任务的速度上限,下载中也可以修改.
+     * 同时受{@link DownloadController#setGlobalBandwidthLimit(long)}的限制.
+     *
+     * @param bytesPerSecond 字节/秒, 0表示不限速
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        bandwidth.setRate(bytesPerSecond);
+    }
+
 
     /**
      * 取得下载的完成进度
@@ -258,33 +687,60 @@ public class DownloadTask extends MultiAsyncTask<Void, Integer, DownloadControll
      * @param callback
      */
     public void addCallback(DownloadCallback callback){
-        if (!callbacks.contains(callback)) {
+        if (callback != null && !callbacks.contains(callback)) {
             callbacks.add(callback);
         }
     }
 
 
-    public int getFinishedLength() {
+    /**
+     * @return 已经写入的字节数
+     */
+    public long getFinishedLength() {
         return finishedLength;
     }
 
-    public void setFinishedLength(int finishedLength) {
+    public void setFinishedLength(long finishedLength) {
         this.finishedLength = finishedLength;
     }
 
 
     /**
-     * 暂停
+     * 暂停,已经下载的进度会保存到下载日志中,
+     * 排队中的任务会离开队列,直到{@link #resume()}.
      */
     public void pause(){
-        isPause = true;
-
+        synchronized (this) {
+            if (isPause || isCancel || isFinished()) {
+                return;
+            }
+            isPause = true;
+            resumePending = false;
+            if (running) {
+                return;
+            }
+        }
+        if (controller.dequeue(this)) {
+            postResult(DownloadController.State.PAUSE);
+        }
     }
 
+    /**
+     * 恢复暂停的任务,任务重新排队,开始后从暂停时的进度继续下载.
+     */
     public void resume(){
-        if (isPause){
-            execute();
+        synchronized (this) {
+            if (!isPause) {
+                return;
+            }
+            isPause = false;
+            if (running) {
+                //上一次执行还没有结束,等它结束后再继续
+                resumePending = true;
+                return;
+            }
         }
+        controller.enqueue(this);
     }
 
     public Set<DownloadCallback> getCallbacks() {
@@ -0,0 +1,117 @@
+package com.lody.welike.http;
+
+import android.util.Base64;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+
+/**
+ * 下载文件期望的摘要,
+ * 可以由调用者指定,也可以从响应头中的Digest或Content-MD5读取.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ final class ExpectedDigest {
+
+    /**
+     * 从响应头中选择摘要时的优先顺序
+     */
+    private static final String[] PREFERRED_ALGORITHMS = {
+            ResumableDigest.SHA256, ResumableDigest.SHA1, ResumableDigest.MD5
+    };
+
+    /*package*/ final String algorithm;
+    /*package*/ final byte[] value;
+
+    /*package*/ ExpectedDigest(String algorithm, byte[] value) {
+        this.algorithm = algorithm;
+        this.value = value;
+    }
+
+    /**
+     * @param algorithm 算法名,支持MD5,SHA-1和SHA-256
+     * @param hex       十六进制的摘要
+     * @return 期望的摘要
+     * @throws IllegalArgumentException 算法不支持或摘要格式不正确
+     */
+    /*package*/ static ExpectedDigest fromHex(String algorithm, String hex) {
+        String name = ResumableDigest.normalize(algorithm);
+        if (name == null) {
+            throw new IllegalArgumentException("不支持的摘要算法: " + algorithm);
+        }
+        if (hex == null || hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("摘要格式不正确: " + hex);
+        }
+        byte[] value = new byte[hex.length() / 2];
+        for (int i = 0; i < value.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high == -1 || low == -1) {
+                throw new IllegalArgumentException("摘要格式不正确: " + hex);
+            }
+            value[i] = (byte) ((high << 4) | low);
+        }
+        return new ExpectedDigest(name, value);
+    }
+
+    /**
+     * 从响应头中读取摘要.
+     * Digest(RFC 3230)描述的是整个文件,Content-MD5描述的是响应体,
+     * 所以只有响应包含整个文件时才使用Content-MD5.
+     *
+     * @param connection 连接
+     * @param wholeFile  响应体是否是整个文件
+     * @return 期望的摘要, 没有可用的摘要时返回null
+     */
+    /*package*/ static ExpectedDigest fromHeaders(HttpURLConnection connection, boolean wholeFile) {
+        String digest = connection.getHeaderField("Digest");
+        if (digest != null) {
+            //Digest: SHA-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=,MD5=...
+            String[] entries = digest.split(",");
+            for (String algorithm : PREFERRED_ALGORITHMS) {
+                for (String entry : entries) {
+                    int equals = entry.indexOf('=');
+                    if (equals == -1 || !algorithm.equals(ResumableDigest.normalize(entry.substring(0, equals)))) {
+                        continue;
+                    }
+                    byte[] value = decodeBase64(entry.substring(equals + 1).trim());
+                    if (value != null) {
+                        return new ExpectedDigest(algorithm, value);
+                    }
+                }
+            }
+        }
+        String contentMd5 = connection.getHeaderField("Content-MD5");
+        if (contentMd5 != null && wholeFile) {
+            byte[] value = decodeBase64(contentMd5.trim());
+            if (value != null) {
+                return new ExpectedDigest(ResumableDigest.MD5, value);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] decodeBase64(String value) {
+        try {
+            return Base64.decode(value, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return 开始计算摘要的对象
+     */
+    /*package*/ ResumableDigest newDigest() {
+        return ResumableDigest.create(algorithm);
+    }
+
+    /**
+     * @return 下载日志中记录的摘要是否与这个摘要相同
+     */
+    /*package*/ boolean matches(DownloadJournal journal) {
+        return journal.digest != null && algorithm.equals(journal.digest.getAlgorithm())
+                && Arrays.equals(value, journal.expectedDigest);
+    }
+}
@@ -0,0 +1,152 @@
+package com.lody.welike.http;
+
+/**
+ * 对冲请求(hedged request)的策略.
+ * 开启对冲的GET请求如果在一段时间内还没有收到响应头,就再发出一个相同的请求,
+ * 先收到响应头的请求胜出,另一个被取消.
+ * <br>
+ * 等待时间取最近请求的响应头耗时的百分位数(默认第95百分位),
+ * 只有慢于绝大多数请求的请求才会被对冲.
+ * 对冲请求的数量不超过普通请求的{@link #getBudgetPercent()}%,
+ * 服务器整体变慢时不会因为对冲而负载加倍.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class HedgePolicy {
+
+    /**
+     * 默认的百分位
+     */
+    public static final int DEFAULT_PERCENTILE = 95;
+    /**
+     * 默认的对冲预算(占普通请求的百分比)
+     */
+    public static final int DEFAULT_BUDGET_PERCENT = 5;
+    /**
+     * 计算百分位至少需要的样本数,样本不够时不对冲
+     */
+    public static final int MIN_SAMPLES = 20;
+
+    /**
+     * 统计数达到该值时减半,让预算跟随最近的流量
+     */
+    private static final long DECAY_THRESHOLD = 10000;
+
+    private int percentile = DEFAULT_PERCENTILE;
+    private int budgetPercent = DEFAULT_BUDGET_PERCENT;
+    private long minDelay = 10;
+    private long maxDelay = 5 * 1000;
+
+    /**
+     * 可以对冲的请求数
+     */
+    private long requestCount;
+    /**
+     * 已经发出的对冲请求数
+     */
+    private long hedgeCount;
+
+    /**
+     * @return 发出对冲请求前的等待时间(毫秒), 样本不足时返回-1
+     */
+    public long getHedgeDelayMillis() {
+        long nanos = HttpMetrics.get().getTimeToHeadersPercentile(getPercentile(), MIN_SAMPLES);
+        if (nanos < 0) {
+            return -1;
+        }
+        long millis = nanos / (1000 * 1000);
+        synchronized (this) {
+            return Math.max(minDelay, Math.min(maxDelay, millis));
+        }
+    }
+
+    /**
+     * 记录一个可以对冲的请求
+     */
+    /*package*/ synchronized void onRequest() {
+        requestCount++;
+        if (requestCount >= DECAY_THRESHOLD) {
+            requestCount /= 2;
+            hedgeCount /= 2;
+        }
+    }
+
+    /**
+     * 申请发出一个对冲请求
+     *
+     * @return 预算是否允许
+     */
+    /*package*/ synchronized boolean tryAcquireHedge() {
+        if ((hedgeCount + 1) * 100 > requestCount * budgetPercent) {
+            return false;
+        }
+        hedgeCount++;
+        return true;
+    }
+
+    /**
+     * @return 已经发出的对冲请求数
+     */
+    public synchronized long getHedgeCount() {
+        return hedgeCount;
+    }
+
+    public synchronized int getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * @param percentile 用响应头耗时的第几百分位作为等待时间(1-99)
+     * @return 对冲策略
+     */
+    public synchronized HedgePolicy setPercentile(int percentile) {
+        if (percentile < 1 || percentile > 99) {
+            throw new IllegalArgumentException("percentile必须在1-99之间");
+        }
+        this.percentile = percentile;
+        return this;
+    }
+
+    public synchronized int getBudgetPercent() {
+        return budgetPercent;
+    }
+
+    /**
+     * @param budgetPercent 对冲请求最多占普通请求的百分比
+     * @return 对冲策略
+     */
+    public synchronized HedgePolicy setBudgetPercent(int budgetPercent) {
+        if (budgetPercent < 0 || budgetPercent > 100) {
+            throw new IllegalArgumentException("budgetPercent必须在0-100之间");
+        }
+        this.budgetPercent = budgetPercent;
+        return this;
+    }
+
+    public synchronized long getMinDelay() {
+        return minDelay;
+    }
+
+    /**
+     * @param minDelay 最短等待时间(毫秒)
+     * @return 对冲策略
+     */
+    public synchronized HedgePolicy setMinDelay(long minDelay) {
+        this.minDelay = Math.max(0, minDelay);
+        return this;
+    }
+
+    public synchronized long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @param maxDelay 最长等待时间(毫秒)
+     * @return 对冲策略
+     */
+    public synchronized HedgePolicy setMaxDelay(long maxDelay) {
+        this.maxDelay = Math.max(0, maxDelay);
+        return this;
+    }
+}
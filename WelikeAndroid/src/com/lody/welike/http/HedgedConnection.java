@@ -0,0 +1,177 @@
+package com.lody.welike.http;
+
+import com.lody.welike.utils.TaskScheduler;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Future;
+
+/**
+ * 对冲连接:第一个连接在等待时间内没有收到响应头时,再打开一个相同的连接,
+ * 先收到响应头的连接胜出,另一个被断开.
+ * <br>
+ * 第一个连接在调用者的线程等待.等待时间在后台计时,第一个连接先有结果时取消计时;
+ * 对冲连接在不排队的{@link TaskScheduler.Lane#LOOP}通道立即开始,
+ * 并且和普通请求一样占用主机的名额,主机的名额已满时不发出对冲请求.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ final class HedgedConnection {
+
+    /**
+     * 打开一个尚未连接的Http连接
+     */
+    /*package*/ interface Opener {
+        HttpURLConnection open() throws IOException;
+    }
+
+    private final Opener opener;
+    private final HedgePolicy policy;
+    /**
+     * 请求的主机,用于占用主机的名额
+     */
+    private final String host;
+
+    private HttpURLConnection primary;
+    private HttpURLConnection hedge;
+    private HttpURLConnection winner;
+    /**
+     * 不再需要对冲连接
+     */
+    private boolean finished;
+    private boolean hedgeRunning;
+
+    private HedgedConnection(Opener opener, HedgePolicy policy, String host) {
+        this.opener = opener;
+        this.policy = policy;
+        this.host = host;
+    }
+
+    /**
+     * 打开连接并等待响应头
+     *
+     * @param opener      打开连接
+     * @param policy      对冲策略
+     * @param host        请求的主机,可以为null
+     * @param delayMillis 发出对冲请求前的等待时间
+     * @return 先收到响应头的连接
+     * @throws IOException 两个连接都失败
+     */
+    /*package*/ static HttpURLConnection connect(Opener opener, HedgePolicy policy, String host, long delayMillis)
+            throws IOException {
+        return new HedgedConnection(opener, policy, host).run(delayMillis);
+    }
+
+    private HttpURLConnection run(long delayMillis) throws IOException {
+        HttpURLConnection connection = opener.open();
+        synchronized (this) {
+            primary = connection;
+        }
+        Future<?> hedgeTimer = TaskScheduler.get().schedule(TaskScheduler.Lane.LOOP, new Runnable() {
+            @Override
+            public void run() {
+                runHedge();
+            }
+        }, delayMillis);
+        try {
+            return awaitPrimary(connection);
+        } finally {
+            //已经有结果了,还没有发出的对冲请求不再需要
+            hedgeTimer.cancel(false);
+        }
+    }
+
+    /**
+     * 等待第一个连接的响应头,失败时等待正在进行的对冲连接
+     */
+    private HttpURLConnection awaitPrimary(HttpURLConnection connection) throws IOException {
+        IOException primaryError = null;
+        try {
+            connection.getResponseCode();
+        } catch (IOException e) {
+            primaryError = e;
+        } catch (RuntimeException e) {
+            //被另一个线程断开时,部分实现会抛出运行时异常
+            primaryError = new IOException(e);
+        }
+        synchronized (this) {
+            if (winner == null && primaryError == null) {
+                winner = connection;
+                finished = true;
+                if (hedge != null) {
+                    hedge.disconnect();
+                }
+                return connection;
+            }
+            if (winner == null) {
+                //第一个连接失败了,如果对冲连接正在进行就等待它的结果
+                while (hedgeRunning && winner == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                finished = true;
+            }
+            if (winner != null && winner != connection) {
+                connection.disconnect();
+                return winner;
+            }
+            throw primaryError;
+        }
+    }
+
+    /**
+     * 在工作线程发出对冲请求
+     */
+    private void runHedge() {
+        synchronized (this) {
+            if (finished || winner != null) {
+                return;
+            }
+            //主机已经满载时,再多一个连接只会更慢
+            if (!HttpSessionManager.getManager().tryAcquireExtra(host)) {
+                return;
+            }
+            if (!policy.tryAcquireHedge()) {
+                HttpSessionManager.getManager().releaseExtra(host);
+                return;
+            }
+            hedgeRunning = true;
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = opener.open();
+            synchronized (this) {
+                if (finished || winner != null) {
+                    return;
+                }
+                hedge = connection;
+            }
+            connection.getResponseCode();
+            synchronized (this) {
+                if (winner == null) {
+                    winner = connection;
+                    //让等待第一个连接的线程立即返回
+                    primary.disconnect();
+                    connection = null;
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+            //对冲请求失败(或被断开)不影响第一个连接
+        } finally {
+            synchronized (this) {
+                hedgeRunning = false;
+                notifyAll();
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+            //胜出的连接继续使用请求本身的名额
+            HttpSessionManager.getManager().releaseExtra(host);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.lody.welike.http;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按主机划分的熔断器.
+ * 一个主机连续失败{@link #getFailureThreshold()}次后进入熔断状态,
+ * 熔断期间发往该主机的请求立即失败,不再占用网络;
+ * 冷却时间过后只放行一个探测请求,成功则恢复,失败则重新熔断.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class HostCircuitBreaker {
+
+    /**
+     * 默认的连续失败次数
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    /**
+     * 默认的冷却时间
+     */
+    public static final long DEFAULT_COOLDOWN = 10 * 1000;
+
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long cooldown = DEFAULT_COOLDOWN;
+
+    private final Map<String, HostState> hostToState = new HashMap<>();
+
+    /**
+     * 请求开始前调用
+     *
+     * @param host 主机
+     * @return 是否允许请求, 返回true时必须在请求结束后调用{@link #onSuccess(String)}
+     * 或{@link #onFailure(String)}
+     */
+    public synchronized boolean allowRequest(String host) {
+        HostState state = hostToState.get(host);
+        if (state == null || state.openUntil == 0) {
+            return true;
+        }
+        if (state.probing || System.currentTimeMillis() < state.openUntil) {
+            return false;
+        }
+        //冷却结束,放行一个探测请求
+        state.probing = true;
+        return true;
+    }
+
+    /**
+     * 请求成功,或服务器正常返回了响应
+     *
+     * @param host 主机
+     */
+    public synchronized void onSuccess(String host) {
+        hostToState.remove(host);
+    }
+
+    /**
+     * 请求因为网络错误或服务器错误失败
+     *
+     * @param host 主机
+     */
+    public synchronized void onFailure(String host) {
+        HostState state = hostToState.get(host);
+        if (state == null) {
+            state = new HostState();
+            hostToState.put(host, state);
+        }
+        state.failures++;
+        if (state.probing || state.failures >= failureThreshold) {
+            state.openUntil = System.currentTimeMillis() + cooldown;
+        }
+        state.probing = false;
+    }
+
+    /**
+     * 请求没有结果就结束了(例如被取消),释放占用的探测名额
+     *
+     * @param host 主机
+     */
+    public synchronized void onAbandoned(String host) {
+        HostState state = hostToState.get(host);
+        if (state != null) {
+            state.probing = false;
+        }
+    }
+
+    /**
+     * @param host 主机
+     * @return 主机是否处于熔断状态
+     */
+    public synchronized boolean isOpen(String host) {
+        HostState state = hostToState.get(host);
+        return state != null && state.openUntil != 0;
+    }
+
+    public synchronized int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * @param failureThreshold 进入熔断状态的连续失败次数
+     */
+    public synchronized void setFailureThreshold(int failureThreshold) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold < 1");
+        }
+        this.failureThreshold = failureThreshold;
+    }
+
+    public synchronized long getCooldown() {
+        return cooldown;
+    }
+
+    /**
+     * @param cooldown 熔断后放行探测请求前的冷却时间(毫秒)
+     */
+    public synchronized void setCooldown(long cooldown) {
+        this.cooldown = Math.max(0, cooldown);
+    }
+
+    /**
+     * 清除所有主机的状态
+     */
+    public synchronized void reset() {
+        hostToState.clear();
+    }
+
+    private static final class HostState {
+        /**
+         * 连续失败的次数
+         */
+        int failures;
+        /**
+         * 熔断结束的时刻,0表示没有熔断
+         */
+        long openUntil;
+        /**
+         * 是否有探测请求正在执行
+         */
+        boolean probing;
+    }
+}
@@ -0,0 +1,289 @@
+package com.lody.welike.http;
+
+import com.lody.welike.utils.DiskLruCache;
+import com.lody.welike.utils.TaskScheduler;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 响应缓存的后台写入器(write-behind).
+ * <br>
+ * 响应体已经在内存中的缓存项先进入有界的写入队列,由{@link TaskScheduler.Lane#DISK}通道逐个提交,
+ * 网络线程不再等待磁盘.队列已满时放弃写入,而不是阻塞网络请求.
+ * 同一个Key在队列中只保留最新的一项,写入前的读取直接使用队列中的数据.
+ * <br>
+ * 所有缓存提交后的journal刷新也由这里合并:
+ * 每提交{@link HttpConfig#cacheFlushBatchSize}项,或距第一次未刷新的提交{@link HttpConfig#cacheFlushInterval}毫秒,
+ * 刷新一次journal.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ final class HttpCacheWriter {
+
+    /**
+     * 队列中的响应体最多占用的字节数
+     */
+    private static final long MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 等待写入的缓存项
+     */
+    /*package*/ static final class PendingWrite {
+        final String cacheKey;
+        final String hashKey;
+        /**
+         * 元数据,响应体为解压后的数据,用于写入前的读取
+         */
+        volatile HttpResponseCache.Entry entry;
+        volatile CacheFreshness freshness;
+        /**
+         * 要写入磁盘的响应体
+         */
+        final byte[] body;
+        final String bodyEncoding;
+        final long size;
+        /**
+         * 写入过程中被移除,写入后需要删除
+         */
+        boolean cancelled;
+
+        PendingWrite(String cacheKey, String hashKey, HttpResponseCache.Entry entry, CacheFreshness freshness,
+                     byte[] body, String bodyEncoding, byte[] decodedBody) {
+            this.cacheKey = cacheKey;
+            this.hashKey = hashKey;
+            this.entry = entry;
+            this.freshness = freshness;
+            this.body = body;
+            this.bodyEncoding = bodyEncoding;
+            long bodySize = body == null ? 0 : body.length;
+            this.size = decodedBody == body ? bodySize : bodySize + decodedBody.length;
+        }
+    }
+
+    private final HttpConfig config;
+    private final HttpResponseCache responseCache;
+
+    //=============================================
+    //                 写入队列
+    //=============================================
+    private final Map<String, PendingWrite> pending = new LinkedHashMap<>();
+    private long pendingBytes;
+    private PendingWrite inFlight;
+    private boolean draining;
+    private long droppedCount;
+
+    //=============================================
+    //                 journal刷新
+    //=============================================
+    private DiskLruCache unflushedCache;
+    private int unflushedCount;
+    private boolean flushScheduled;
+    private long flushCount;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /*package*/ HttpCacheWriter(HttpConfig config, HttpResponseCache responseCache) {
+        this.config = config;
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * 把缓存项放入写入队列
+     *
+     * @param write 缓存项
+     * @return 是否放入, 队列已满时返回false
+     */
+    /*package*/ boolean enqueue(PendingWrite write) {
+        boolean start = false;
+        synchronized (this) {
+            PendingWrite previous = pending.remove(write.hashKey);
+            if (previous != null) {
+                pendingBytes -= previous.size;
+            }
+            if (pending.size() >= config.cacheWriteQueueSize || pendingBytes + write.size > MAX_PENDING_BYTES) {
+                //旧的一项也不能再写入了,否则会覆盖更新的数据
+                if (previous != null && previous == inFlight) {
+                    previous.cancelled = true;
+                }
+                droppedCount++;
+                return false;
+            }
+            pending.put(write.hashKey, write);
+            pendingBytes += write.size;
+            if (!draining) {
+                draining = true;
+                start = true;
+            }
+        }
+        if (start) {
+            TaskScheduler.get().execute(TaskScheduler.Lane.DISK, drainTask);
+        }
+        return true;
+    }
+
+    /**
+     * @param hashKey 缓存项的Key
+     * @return 还没有写入的缓存项, 没有时返回null
+     */
+    /*package*/ synchronized PendingWrite getPending(String hashKey) {
+        return pending.get(hashKey);
+    }
+
+    /**
+     * 放弃一个缓存项的写入,正在写入时写入后会被删除
+     *
+     * @param hashKey 缓存项的Key
+     */
+    /*package*/ synchronized void cancel(String hashKey) {
+        PendingWrite write = pending.remove(hashKey);
+        if (write != null) {
+            pendingBytes -= write.size;
+        }
+        if (inFlight != null && inFlight.hashKey.equals(hashKey)) {
+            inFlight.cancelled = true;
+        }
+    }
+
+    /**
+     * 更新还没有写入的缓存项的有效期
+     *
+     * @param hashKey   缓存项的Key
+     * @param freshness 新的有效期
+     * @return 是否有这样的缓存项
+     */
+    /*package*/ synchronized boolean updateFreshness(String hashKey, CacheFreshness freshness) {
+        PendingWrite write = pending.get(hashKey);
+        if (write == null || write == inFlight) {
+            //正在写入的缓存项由调用者更新磁盘
+            return false;
+        }
+        write.entry = write.entry.withFreshness(freshness);
+        write.freshness = freshness;
+        return true;
+    }
+
+    /**
+     * 在磁盘通道逐个写入队列中的缓存项
+     */
+    private void drain() {
+        for (; ; ) {
+            PendingWrite write;
+            synchronized (this) {
+                Iterator<PendingWrite> iterator = pending.values().iterator();
+                if (!iterator.hasNext()) {
+                    draining = false;
+                    return;
+                }
+                write = iterator.next();
+                //写入完成前仍留在队列中,读取时可以使用
+                inFlight = write;
+            }
+            try {
+                responseCache.write(write);
+            } finally {
+                synchronized (this) {
+                    inFlight = null;
+                    //写入期间有了更新的数据时,更新的一项留在队列中,稍后覆盖这次写入
+                    if (pending.get(write.hashKey) == write) {
+                        pending.remove(write.hashKey);
+                        pendingBytes -= write.size;
+                    }
+                }
+            }
+            if (write.cancelled) {
+                //写入期间被移除了
+                responseCache.removeFromDisk(write.hashKey);
+            }
+        }
+    }
+
+    /**
+     * 记录一次缓存提交,按批次或时间刷新journal
+     *
+     * @param cache 提交的DiskLruCache
+     */
+    /*package*/ void onCommitted(DiskLruCache cache) {
+        boolean flushNow;
+        boolean schedule = false;
+        synchronized (this) {
+            if (unflushedCache != null && unflushedCache != cache) {
+                //DiskLruCache被重新创建了,旧的不再需要刷新
+                unflushedCount = 0;
+            }
+            unflushedCache = cache;
+            unflushedCount++;
+            flushNow = unflushedCount >= config.cacheFlushBatchSize || config.cacheFlushInterval <= 0;
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+        if (flushNow) {
+            TaskScheduler.get().execute(TaskScheduler.Lane.DISK, flushTask);
+        } else if (schedule) {
+            //在后台计时,刷新journal不会唤醒主线程
+            TaskScheduler.get().schedule(TaskScheduler.Lane.DISK, flushTask, config.cacheFlushInterval);
+        }
+    }
+
+    /**
+     * 刷新journal
+     */
+    private void flush() {
+        DiskLruCache cache;
+        synchronized (this) {
+            flushScheduled = false;
+            if (unflushedCount == 0) {
+                return;
+            }
+            cache = unflushedCache;
+            unflushedCount = 0;
+            unflushedCache = null;
+        }
+        try {
+            cache.flush();
+            synchronized (this) {
+                flushCount++;
+            }
+        } catch (IOException | IllegalStateException ignored) {
+            //缓存已经关闭
+        }
+    }
+
+    /**
+     * @return 等待写入的缓存项数
+     */
+    /*package*/ synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return 因队列已满而放弃的写入数
+     */
+    /*package*/ synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return journal刷新的次数
+     */
+    /*package*/ synchronized long getFlushCount() {
+        return flushCount;
+    }
+}
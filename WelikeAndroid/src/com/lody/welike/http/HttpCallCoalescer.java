@@ -0,0 +1,162 @@
+package com.lody.welike.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 合并正在执行的相同请求.
+ * 当多个可缓存的请求拥有相同的{@link HttpRequest#getCacheKey()}时,
+ * 只有第一个请求(leader)真正访问网络和写入缓存,其余请求附加到它上面,
+ * 结果会分发给所有附加的请求.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ final class HttpCallCoalescer {
+
+    private static final HttpCallCoalescer INSTANCE = new HttpCallCoalescer();
+
+    /*package*/ static HttpCallCoalescer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 缓存Key到正在执行的共享请求的映射
+     */
+    private final Map<String, SharedCall> keyToCallMap = new HashMap<>();
+
+    private HttpCallCoalescer() {
+    }
+
+    /**
+     * 加入一个共享请求,如果不存在相同的请求,就以本请求为leader创建一个.
+     * 使用不同{@link HttpConfig}的请求不会被合并;
+     * 已经中断或者所有订阅者都已取消的请求即将失败,不再接受新的订阅者.
+     *
+     * @param request
+     * @param executor 执行request的执行器,成为leader时由它执行网络请求
+     * @return 请求所在的共享请求, 通过{@link SharedCall#isLeader(HttpRequest)}判断是否需要执行
+     */
+    /*package*/ synchronized SharedCall join(HttpRequest request, HttpRequestExecutor executor) {
+        String key = request.getCacheKey();
+        SharedCall call = keyToCallMap.get(key);
+        boolean live = call != null && !call.aborted && !call.isAllCancelledLocked();
+        if (live && call.leader.getHttpConfig() == request.getHttpConfig()) {
+            call.subscribers.add(request);
+            return call;
+        }
+        SharedCall newCall = new SharedCall(key, request, executor);
+        if (!live) {
+            //之后相同的请求附加到新的请求上
+            keyToCallMap.put(key, newCall);
+        }
+        return newCall;
+    }
+
+    /**
+     * 结束一个共享请求,之后到达的相同请求会重新发起.
+     *
+     * @param call
+     * @return 共享请求的所有订阅者, 包括leader
+     */
+    /*package*/ synchronized List<HttpRequest> complete(SharedCall call) {
+        if (keyToCallMap.get(call.key) == call) {
+            keyToCallMap.remove(call.key);
+        }
+        call.completed = true;
+        return new ArrayList<>(call.subscribers);
+    }
+
+    /**
+     * 被合并的一次网络请求
+     */
+    /*package*/ static final class SharedCall {
+
+        /**
+         * 缓存Key
+         */
+        final String key;
+
+        /**
+         * 真正执行网络请求的请求
+         */
+        final HttpRequest leader;
+
+        /**
+         * leader的执行器,任何订阅者取消时都通过它检查是否需要中断
+         */
+        final HttpRequestExecutor executor;
+
+        /**
+         * 等待结果的请求,包括leader
+         */
+        final List<HttpRequest> subscribers = new ArrayList<>(2);
+
+        /**
+         * 结果是否已经分发
+         */
+        boolean completed;
+
+        /**
+         * 网络请求是否已经被中断
+         */
+        boolean aborted;
+
+        SharedCall(String key, HttpRequest leader, HttpRequestExecutor executor) {
+            this.key = key;
+            this.leader = leader;
+            this.executor = executor;
+            subscribers.add(leader);
+        }
+
+        /**
+         * @param request
+         * @return request是否负责执行这次请求
+         */
+        boolean isLeader(HttpRequest request) {
+            return leader == request;
+        }
+
+        /**
+         * @return 是否所有订阅者都已经取消
+         */
+        boolean isAllCancelled() {
+            synchronized (INSTANCE) {
+                return isAllCancelledLocked();
+            }
+        }
+
+        private boolean isAllCancelledLocked() {
+            for (HttpRequest subscriber : subscribers) {
+                if (!subscriber.isCancel()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 所有订阅者都已取消时,标记网络请求已经中断,之后相同的请求会重新发起.
+         * 检查和标记是原子的,不会有新的订阅者在两者之间加入.
+         *
+         * @return 是否可以中断
+         */
+        boolean tryAbort() {
+            synchronized (INSTANCE) {
+                if (!isAllCancelledLocked()) {
+                    return false;
+                }
+                aborted = true;
+                return true;
+            }
+        }
+
+        boolean isCompleted() {
+            synchronized (INSTANCE) {
+                return completed;
+            }
+        }
+    }
+}
@@ -1,12 +1,24 @@
 package com.lody.welike.http;
 
+import android.graphics.Bitmap;
+
 import com.lody.welike.WelikeContext;
+import com.lody.welike.http.callback.HttpConverterCallback;
+import com.lody.welike.http.converter.BitmapConverter;
+import com.lody.welike.http.converter.JsonConverter;
+import com.lody.welike.http.converter.ResponseConverter;
+import com.lody.welike.http.converter.StringConverter;
 import com.lody.welike.utils.AppUtils;
 import com.lody.welike.utils.DiskLruCache;
 import com.lody.welike.utils.WeLog;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Http核心配置器,请根据需要配置本类.
@@ -32,6 +44,16 @@ public final class HttpConfig {
     public static long DEFAULT_EXPIRY_TIME = 8 * 1000 * 60;
 
 
+    /**
+     * 默认的Http请求并发量
+     */
+    public static int DEFAULT_CONCURRENCY = 5;
+
+    /**
+     * 默认的请求优先级老化时间,排队超过该时间的请求会被提升一个优先级,默认为2秒.
+     */
+    public static long DEFAULT_PRIORITY_AGING_TIME = 2 * 1000;
+
     /**
      * 默认缓存上限
      */
@@ -50,11 +72,17 @@ public final class HttpConfig {
     /**
      * DiskLruCache缓存
      * 每一个Key对应两个值,
-     * 第一个值是Http响应的缓存数据,
-     * 第二个值是缓存的到期时间.
+     * 第一个值是Http响应的元数据(包括缓存的到期时间),
+     * 第二个值是Http响应的响应体.
+     * 格式见{@link HttpResponseCache}.
      */
     private DiskLruCache diskLruCache;
 
+    /**
+     * 基于diskLruCache的响应缓存
+     */
+    private final HttpResponseCache responseCache = new HttpResponseCache(this);
+
     /**
      * 编码类型,默认UTF-8
      */
@@ -65,8 +93,31 @@ public final class HttpConfig {
      */
     public boolean enableDiskCache = true;
 
+    /**
+     * 磁盘缓存前面的内存缓存的大小(字节),0表示不使用内存缓存.
+     * 适合频繁请求的小响应(如配置接口),命中时不需要读取缓存文件.
+     */
+    public int memoryCacheSize = 0;
+
+    /**
+     * 缓存后台写入队列的容量,队列已满时放弃写入,不阻塞网络请求.
+     * 设为0则在工作线程同步写入.
+     */
+    public int cacheWriteQueueSize = 32;
+
+    /**
+     * 每提交多少个缓存项刷新一次缓存的journal
+     */
+    public int cacheFlushBatchSize = 16;
+
+    /**
+     * 缓存提交后最迟多久刷新journal(毫秒),设为0则每次提交后都刷新
+     */
+    public long cacheFlushInterval = 1000;
+
     /**
      * 缓存有效时间,(默认的缓存时间为8分钟,如果想要让缓存永久有效,请设为0).
+     * 只有服务器没有返回Cache-Control/Expires时才会使用,见{@link CacheFreshness}.
      */
     public long expiryDate = DEFAULT_EXPIRY_TIME;
 
@@ -81,9 +132,59 @@ public final class HttpConfig {
     private boolean allowUserInteraction = false;
 
     /**
-     * Http请求的并发量
+     * Http请求的并发量,即本实例同时执行的请求数上限.
+     * {@link com.lody.welike.utils.TaskScheduler.Lane#NETWORK}通道是进程级共享的,
+     * 它的线程数取所有{@link com.lody.welike.WelikeHttp}实例中的最大值.
+     */
+    public int concurrency = DEFAULT_CONCURRENCY;
+
+    /**
+     * 请求优先级的老化时间(毫秒),设为0则不做老化.
+     */
+    public long priorityAgingTime = DEFAULT_PRIORITY_AGING_TIME;
+
+    /**
+     * 是否向服务器声明支持gzip/deflate压缩(Accept-Encoding),
+     * 开启后压缩的响应体会在工作线程解压,回调和缓存读到的都是解压后的数据.
+     */
+    public boolean enableCompression = false;
+
+    /**
+     * 开启压缩时,是否在缓存中保存压缩的响应体.
+     * 保存压缩数据可以节省磁盘空间,但每次命中缓存都需要重新解压.
+     */
+    public boolean cacheCompressedBody = false;
+
+    /**
+     * 缓存过期后,在连接失败或服务器返回5xx时仍可使用的最长时间(毫秒).
+     * 服务器的stale-if-error更长时以服务器为准,设为0则只遵循服务器的stale-if-error.
+     */
+    public long maxStale = 0;
+
+    /**
+     * 请求失败时的重试策略,默认重试GET请求,设为{@link RetryPolicy#noRetry()}则不重试.
+     */
+    private RetryPolicy retryPolicy = new RetryPolicy();
+
+    /**
+     * 按主机划分的熔断器
+     */
+    private HostCircuitBreaker circuitBreaker = new HostCircuitBreaker();
+
+    /**
+     * 对冲请求的策略,包括所有请求共享的对冲预算
+     */
+    private HedgePolicy hedgePolicy = new HedgePolicy();
+
+    /**
+     * 请求事件的监听器,为null时不分发事件
+     */
+    private HttpEventListener eventListener;
+
+    /**
+     * 按结果类型注册的响应转换器
      */
-    public int concurrency = 5;
+    private Map<Class<?>, ResponseConverter<?>> converters = createDefaultConverters();
 
     /**
      * Http配置创建工厂
@@ -115,6 +216,120 @@ public final class HttpConfig {
     public void applyConfig(HttpConfig config) {
         this.debugMode = config.debugMode;
         this.encodeType = config.encodeType;
+        this.concurrency = config.concurrency;
+        this.priorityAgingTime = config.priorityAgingTime;
+        this.enableCompression = config.enableCompression;
+        this.cacheCompressedBody = config.cacheCompressedBody;
+        this.maxStale = config.maxStale;
+        this.memoryCacheSize = config.memoryCacheSize;
+        this.cacheWriteQueueSize = config.cacheWriteQueueSize;
+        this.cacheFlushBatchSize = config.cacheFlushBatchSize;
+        this.cacheFlushInterval = config.cacheFlushInterval;
+        this.retryPolicy = config.retryPolicy;
+        this.circuitBreaker = config.circuitBreaker;
+        this.hedgePolicy = config.hedgePolicy;
+        this.eventListener = config.eventListener;
+        this.converters = config.converters;
+    }
+
+    /**
+     * 注册一个响应转换器,{@link HttpConverterCallback}按结果类型找到它.
+     * 已经内置了String,byte[],Bitmap,JSONObject和JSONArray的转换器,注册相同的类型会替换内置的转换器.
+     *
+     * @param type      结果类型
+     * @param converter 响应转换器
+     * @param <T>       结果类型
+     */
+    public <T> void registerConverter(Class<T> type, ResponseConverter<? extends T> converter) {
+        converters.put(type, converter);
+    }
+
+    /**
+     * 取得结果类型对应的转换器
+     *
+     * @param type 结果类型
+     * @param <T>  结果类型
+     * @return 转换器, 没有注册时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ResponseConverter<? extends T> getConverter(Class<T> type) {
+        return (ResponseConverter<? extends T>) converters.get(type);
+    }
+
+    private static Map<Class<?>, ResponseConverter<?>> createDefaultConverters() {
+        Map<Class<?>, ResponseConverter<?>> converters = new ConcurrentHashMap<>();
+        converters.put(String.class, new StringConverter());
+        converters.put(byte[].class, new ResponseConverter<byte[]>() {
+            @Override
+            public byte[] convert(HttpResponse response) {
+                return response.data;
+            }
+        });
+        converters.put(Bitmap.class, new BitmapConverter());
+        converters.put(JSONObject.class, JsonConverter.OBJECT);
+        converters.put(JSONArray.class, JsonConverter.ARRAY);
+        return converters;
+    }
+
+    /**
+     * @return 请求失败时的重试策略
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * 设置请求失败时的重试策略,单个请求可以通过{@link HttpRequest#setRetryPolicy(RetryPolicy)}覆盖.
+     *
+     * @param retryPolicy 重试策略
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("retryPolicy == null");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return 按主机划分的熔断器
+     */
+    public HostCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return 对冲请求的策略
+     */
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * 设置对冲请求的策略
+     *
+     * @param hedgePolicy 对冲策略
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        if (hedgePolicy == null) {
+            throw new IllegalArgumentException("hedgePolicy == null");
+        }
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    /**
+     * @return 请求事件的监听器, 没有设置时返回null
+     */
+    public HttpEventListener getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * 设置请求事件的监听器,可以使用{@link HttpStatsListener}按主机和接口统计各阶段的耗时.
+     *
+     * @param eventListener 监听器,为null时不再分发事件
+     */
+    public void setEventListener(HttpEventListener eventListener) {
+        this.eventListener = eventListener;
     }
 
     /**
@@ -155,6 +370,13 @@ public final class HttpConfig {
         return diskLruCache;
     }
 
+    /**
+     * @return 基于{@link #getDiskLruCache()}的响应缓存
+     */
+    public HttpResponseCache getResponseCache() {
+        return responseCache;
+    }
+
     /**
      * 创建DiskLruCache
      */
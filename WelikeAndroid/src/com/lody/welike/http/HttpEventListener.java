@@ -0,0 +1,102 @@
+package com.lody.welike.http;
+
+/**
+ * 请求生命周期中各个事件的监听器,通过{@link HttpConfig#setEventListener(HttpEventListener)}设置.
+ * 你只需要复写你关心的那部分方法.
+ * <br>
+ * 时间均为{@link System#nanoTime()},同一个请求的完整时间点可以从{@link HttpRequest#getTimings()}取得.
+ * 除{@link #onCallbackDelivered(HttpRequest, long, boolean)}在主线程回调外,
+ * 其余方法在请求队列或工作线程回调,实现需要是线程安全的,并且不能做耗时的操作.
+ *
+ * @author Lody
+ * @version 1.0
+ * @see HttpStatsListener
+ */
+public abstract class HttpEventListener {
+
+    /**
+     * 请求进入请求队列
+     *
+     * @param request  请求
+     * @param nanoTime 时间点
+     */
+    public void onEnqueue(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * 请求从请求队列派发到工作线程
+     *
+     * @param request  请求
+     * @param nanoTime 时间点
+     */
+    public void onDequeue(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * 开始查找缓存
+     *
+     * @param request  请求
+     * @param nanoTime 时间点
+     */
+    public void onCacheLookupStart(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * 查找缓存结束
+     *
+     * @param request  请求
+     * @param nanoTime 时间点
+     * @param hit      是否直接使用了缓存,不需要访问网络
+     */
+    public void onCacheLookupEnd(HttpRequest request, long nanoTime, boolean hit) {
+    }
+
+    /**
+     * 与服务器建立了连接
+     *
+     * @param request  请求
+     * @param nanoTime 时间点
+     */
+    public void onConnect(HttpRequest request, long nanoTime) {
+    }
+
+    /**
+     * 请求体写入完毕(没有请求体时紧接着连接)
+     *
+     * @param request      请求
+     * @param nanoTime     时间点
+     * @param bytesWritten 写入的请求体字节数
+     */
+    public void onRequestWritten(HttpRequest request, long nanoTime, long bytesWritten) {
+    }
+
+    /**
+     * 收到响应头
+     *
+     * @param request      请求
+     * @param nanoTime     时间点
+     * @param responseCode 响应代码
+     */
+    public void onHeadersReceived(HttpRequest request, long nanoTime, int responseCode) {
+    }
+
+    /**
+     * 响应体读取完毕
+     *
+     * @param request       请求
+     * @param nanoTime      时间点
+     * @param bytesReceived 从网络读取的字节数(压缩时为压缩后的大小)
+     */
+    public void onBodyComplete(HttpRequest request, long nanoTime, long bytesReceived) {
+    }
+
+    /**
+     * 请求的onSuccess或onFailure已经在主线程执行完
+     *
+     * @param request  请求
+     * @param nanoTime 时间点
+     * @param success  是否成功
+     */
+    public void onCallbackDelivered(HttpRequest request, long nanoTime, boolean success) {
+    }
+}
@@ -0,0 +1,218 @@
+package com.lody.welike.http;
+
+import java.util.Arrays;
+
+/**
+ * Http模块的运行指标统计,
+ * 用于观察请求在各个阶段的耗时.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public final class HttpMetrics {
+
+    /**
+     * HttpMetrics的单例
+     */
+    private static final HttpMetrics INSTANCE = new HttpMetrics();
+
+    /**
+     * @return HttpMetrics的单例
+     */
+    public static HttpMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 统计的请求数
+     */
+    private long queueToStartCount;
+
+    /**
+     * 从入队到开始执行的总耗时(纳秒)
+     */
+    private long queueToStartTotalNanos;
+
+    /**
+     * 从入队到开始执行的最大耗时(纳秒)
+     */
+    private long queueToStartMaxNanos;
+
+    /**
+     * 保留的响应头耗时样本数
+     */
+    private static final int TIME_TO_HEADERS_SAMPLES = 256;
+
+    /**
+     * 最近的响应头耗时(纳秒),环形存储
+     */
+    private final long[] timeToHeadersNanos = new long[TIME_TO_HEADERS_SAMPLES];
+
+    /**
+     * 记录过的响应头耗时样本总数
+     */
+    private long timeToHeadersCount;
+
+    /**
+     * 响应转换的次数
+     */
+    private long convertCount;
+
+    /**
+     * 在工作线程转换响应的总耗时(纳秒)
+     */
+    private long convertTotalNanos;
+
+    /**
+     * 转换响应的最大耗时(纳秒)
+     */
+    private long convertMaxNanos;
+
+    /**
+     * 在执行中被取消的请求数
+     */
+    private long cancelledCount;
+
+    /**
+     * 被取消的请求已经读取但丢弃的字节数
+     */
+    private long cancelledBytes;
+
+    private HttpMetrics() {
+    }
+
+    /**
+     * 记录一次请求从入队到开始执行的耗时
+     *
+     * @param nanos 耗时(纳秒)
+     */
+    /*package*/ synchronized void recordQueueToStart(long nanos) {
+        queueToStartCount++;
+        queueToStartTotalNanos += nanos;
+        if (nanos > queueToStartMaxNanos) {
+            queueToStartMaxNanos = nanos;
+        }
+    }
+
+    /**
+     * @return 已统计的请求数
+     */
+    public synchronized long getQueueToStartCount() {
+        return queueToStartCount;
+    }
+
+    /**
+     * @return 请求从入队到开始执行的平均耗时(纳秒)
+     */
+    public synchronized long getAverageQueueToStartNanos() {
+        return queueToStartCount == 0 ? 0 : queueToStartTotalNanos / queueToStartCount;
+    }
+
+    /**
+     * @return 请求从入队到开始执行的最大耗时(纳秒)
+     */
+    public synchronized long getMaxQueueToStartNanos() {
+        return queueToStartMaxNanos;
+    }
+
+    /**
+     * 记录一次请求从开始连接到收到响应头的耗时
+     *
+     * @param nanos 耗时(纳秒)
+     */
+    /*package*/ synchronized void recordTimeToHeaders(long nanos) {
+        timeToHeadersNanos[(int) (timeToHeadersCount % TIME_TO_HEADERS_SAMPLES)] = nanos;
+        timeToHeadersCount++;
+    }
+
+    /**
+     * 取得最近请求的响应头耗时的百分位数
+     *
+     * @param percentile 百分位(1-99)
+     * @param minSamples 至少需要的样本数
+     * @return 耗时(纳秒), 样本不足时返回-1
+     */
+    public synchronized long getTimeToHeadersPercentile(int percentile, int minSamples) {
+        int count = (int) Math.min(timeToHeadersCount, TIME_TO_HEADERS_SAMPLES);
+        if (count == 0 || count < minSamples) {
+            return -1;
+        }
+        long[] samples = Arrays.copyOf(timeToHeadersNanos, count);
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return samples[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * 记录一次在工作线程转换响应的耗时,不包含网络和读取缓存的时间
+     *
+     * @param nanos 耗时(纳秒)
+     */
+    /*package*/ synchronized void recordConvert(long nanos) {
+        convertCount++;
+        convertTotalNanos += nanos;
+        if (nanos > convertMaxNanos) {
+            convertMaxNanos = nanos;
+        }
+    }
+
+    /**
+     * @return 响应转换的次数
+     */
+    public synchronized long getConvertCount() {
+        return convertCount;
+    }
+
+    /**
+     * @return 转换响应的平均耗时(纳秒)
+     */
+    public synchronized long getAverageConvertNanos() {
+        return convertCount == 0 ? 0 : convertTotalNanos / convertCount;
+    }
+
+    /**
+     * @return 转换响应的最大耗时(纳秒)
+     */
+    public synchronized long getMaxConvertNanos() {
+        return convertMaxNanos;
+    }
+
+    /**
+     * 记录一次在执行中取消的请求
+     *
+     * @param bytes 已经读取但丢弃的字节数
+     */
+    /*package*/ synchronized void recordCancelled(long bytes) {
+        cancelledCount++;
+        cancelledBytes += bytes;
+    }
+
+    /**
+     * @return 在执行中被取消的请求数
+     */
+    public synchronized long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * @return 被取消的请求已经读取但丢弃的字节数
+     */
+    public synchronized long getCancelledBytes() {
+        return cancelledBytes;
+    }
+
+    /**
+     * 清空统计数据
+     */
+    public synchronized void reset() {
+        queueToStartCount = 0;
+        queueToStartTotalNanos = 0;
+        queueToStartMaxNanos = 0;
+        timeToHeadersCount = 0;
+        convertCount = 0;
+        convertTotalNanos = 0;
+        convertMaxNanos = 0;
+        cancelledCount = 0;
+        cancelledBytes = 0;
+    }
+}
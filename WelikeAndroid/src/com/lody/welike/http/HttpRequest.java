@@ -2,15 +2,11 @@ package com.lody.welike.http;
 
 import com.lody.welike.http.callback.FileUploadCallback;
 import com.lody.welike.http.callback.HttpCallback;
-import com.lody.welike.utils.DiskLruCache;
-import com.lody.welike.utils.HashUtils;
-import com.lody.welike.utils.IOUtils;
 import com.lody.welike.utils.WeLog;
 
 import java.io.DataOutputStream;
-import java.io.File;
 import java.io.IOException;
-import java.net.URLEncoder;
+import java.io.OutputStream;
 
 /**
  * Http请求的封装
@@ -42,7 +38,17 @@ public class HttpRequest {
     /**
      * 请求是否已经取消
      */
-    private boolean isCancel;
+    private volatile boolean isCancel;
+
+    /**
+     * onCancel是否已经分发
+     */
+    private boolean cancelDelivered;
+
+    /**
+     * 正在执行本请求的执行器,没有在执行时为null
+     */
+    /*package*/ volatile HttpRequestExecutor executor;
     /**
      * Http请求的回调
      */
@@ -63,6 +69,61 @@ public class HttpRequest {
      */
     private String cacheKey;
 
+    /**
+     * 请求在各个阶段的时间点
+     */
+    /*package*/ final HttpTimings timings = new HttpTimings();
+
+    /**
+     * 请求的优先级
+     */
+    /*package*/ volatile RequestPriority priority = RequestPriority.NORMAL;
+
+    /**
+     * 请求指定的缓存指令,不为null时覆盖服务器返回的Cache-Control/Expires
+     */
+    private CacheControl cacheControl;
+
+    /**
+     * 请求的重试策略,为null时使用配置中的策略
+     */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * 是否开启对冲请求
+     */
+    private boolean hedged;
+
+    /**
+     * 出错时可以使用过期缓存的最长时间(毫秒),小于0时使用配置中的值
+     */
+    private long maxStale = -1;
+
+    /**
+     * 上传文件时的请求体
+     */
+    private MultipartBody multipartBody;
+
+    /**
+     * 请求所在的队列,请求执行完成后置为null.
+     */
+    /*package*/ volatile HttpRequestQueue requestQueue;
+
+    /**
+     * 请求在优先级队列中当前所处的级别(老化后可能高于priority)
+     */
+    /*package*/ int queueLevel;
+
+    /**
+     * 进入当前级别的时刻(纳秒)
+     */
+    /*package*/ long levelEnterNanos;
+
+    /**
+     * 请求是否占用了主机的名额,由{@link HttpSessionManager}同步
+     */
+    /*package*/ boolean holdsHostSlot;
+
 
     /**
      * @param session
@@ -120,10 +181,33 @@ public class HttpRequest {
     }
 
     /**
-     * 取消当前请求
+     * 取消当前请求.
+     * 还在排队的请求直接移出队列;正在执行的请求会断开连接,
+     * 不再继续读取响应体和写入缓存.无论在哪个阶段取消,onCancel只回调一次.
      */
     public void cancel() {
         isCancel = true;
+        HttpRequestQueue queue = requestQueue;
+        if (queue != null && queue.removeCancelled(this)) {
+            return;
+        }
+        HttpRequestExecutor executor = this.executor;
+        if (executor != null) {
+            executor.abort();
+        }
+    }
+
+    /**
+     * 标记onCancel已经分发
+     *
+     * @return 是否是第一次标记, 只有第一次需要回调onCancel
+     */
+    /*package*/ synchronized boolean markCancelDelivered() {
+        if (cancelDelivered) {
+            return false;
+        }
+        cancelDelivered = true;
+        return true;
     }
 
     /**
@@ -135,6 +219,98 @@ public class HttpRequest {
         return isCancel;
     }
 
+    /**
+     * @return 请求的优先级
+     */
+    public RequestPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * 设置请求的优先级,请求进入队列后仍然可以修改,
+     * 例如图片所在的View变为可见时提升它的优先级.
+     *
+     * @param priority 优先级
+     */
+    public void setPriority(RequestPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority == null");
+        }
+        HttpRequestQueue queue = requestQueue;
+        if (queue != null) {
+            queue.changePriority(this, priority);
+        } else {
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * @return 请求指定的缓存指令, 没有指定时返回null
+     */
+    public CacheControl getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * 指定响应的缓存指令,代替服务器返回的Cache-Control/Expires计算缓存有效期.
+     *
+     * @param cacheControl 缓存指令,为null时使用服务器返回的响应头
+     */
+    public void setCacheControl(CacheControl cacheControl) {
+        this.cacheControl = cacheControl;
+    }
+
+    /**
+     * @return 出错时可以使用过期缓存的最长时间(毫秒), 没有指定时返回{@link HttpConfig#maxStale}
+     */
+    public long getMaxStale() {
+        return maxStale >= 0 ? maxStale : httpConfig.maxStale;
+    }
+
+    /**
+     * 指定缓存过期后,在连接失败或服务器返回5xx时仍可使用的最长时间.
+     * 使用过期缓存时{@link HttpResponse#isStale()}返回true.
+     *
+     * @param maxStale 最长时间(毫秒),小于0时使用配置中的值
+     */
+    public void setMaxStale(long maxStale) {
+        this.maxStale = maxStale;
+    }
+
+    /**
+     * @return 是否开启对冲请求
+     */
+    public boolean isHedged() {
+        return hedged;
+    }
+
+    /**
+     * 开启对冲请求,只对GET请求有效.
+     * 请求在{@link HedgePolicy}计算的时间内没有收到响应头时,会再发出一个相同的请求.
+     *
+     * @param hedged 是否开启
+     * @see HttpConfig#getHedgePolicy()
+     */
+    public void setHedged(boolean hedged) {
+        this.hedged = hedged;
+    }
+
+    /**
+     * @return 请求使用的重试策略, 没有指定时返回{@link HttpConfig#getRetryPolicy()}
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : httpConfig.getRetryPolicy();
+    }
+
+    /**
+     * 指定请求的重试策略
+     *
+     * @param retryPolicy 重试策略,为null时使用配置中的策略
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     /**
      * 设置Http请求的回调
      *
@@ -164,35 +340,12 @@ public class HttpRequest {
      * 让当前请求的缓存过期
      */
     public void outOfCacheDate() {
-
-        DiskLruCache cache = httpConfig.getDiskLruCache();
-        if (cache != null) {
-            String cacheKey = getCacheKey();
-            String hashKey = HashUtils.hashKey(cacheKey);
-            try {
-                synchronized (this) {
-                    DiskLruCache.Snapshot snapshot = cache.get(hashKey);
-                    if (snapshot != null) {
-                        DiskLruCache.Editor editor = snapshot.edit();
-                        if (editor != null) {
-                            //将到期时间改为当前时间,就等于马上过期了
-                            editor.set(1, String.valueOf(System.currentTimeMillis()));
-                            editor.commit();
-                            snapshot.close();
-                            cache.flush();
-                            if (getHttpConfig().debugMode) {
-                                WeLog.d(cacheKey + " 的缓存已强制过期.");
-                            }
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                if (getHttpConfig().debugMode) {
-                    WeLog.e("无法更新缓存过期时间,原因:" + e.getMessage());
-                }
+        //将到期时间改为当前时间,就等于马上过期了
+        if (httpConfig.getResponseCache().updateExpiry(getCacheKey(), System.currentTimeMillis())) {
+            if (getHttpConfig().debugMode) {
+                WeLog.d(getCacheKey() + " 的缓存已强制过期.");
             }
         }
-
     }
 
     /**
@@ -255,6 +408,22 @@ public class HttpRequest {
         return cacheKey;
     }
 
+    /**
+     * 取得请求从进入队列到在工作线程开始执行所经过的时间.
+     *
+     * @return 排队时间(纳秒),请求还未开始执行时返回-1
+     */
+    public long getQueueToStartNanos() {
+        return timings.getQueueToStartNanos();
+    }
+
+    /**
+     * @return 请求在各个阶段的时间点和传输的字节数
+     */
+    public HttpTimings getTimings() {
+        return timings;
+    }
+
     /**
      * 普通模式写入Post参数
      *
@@ -276,85 +445,39 @@ public class HttpRequest {
      * @param outputStream
      */
     private void writeToStreamUploadMode(DataOutputStream outputStream) {
-
-        //遍历需要上传的文件
-        for (String param : params.getUploadFiles().keySet()) {
-            File file = params.getUploadFiles().get(param);
-            FileUploadCallback uploadCallback = null;
-
-            if (httpCallback != null && (httpCallback instanceof FileUploadCallback)) {
-                uploadCallback = (FileUploadCallback) httpCallback;
-            }
-            if (uploadCallback != null) {
-                uploadCallback.onFileStartUpload(this, file);
-            }
-            try {
-                //写入分割线
-                outputStream.writeBytes("--" + params.boundary + "\r\n");
-                //写入文件表单描述
-                outputStream.writeBytes("Content-Disposition: form-data; name=\"" + param + "\"; filename=\"" + URLEncoder.encode(file.getName(), httpConfig.getEncoding()) + "\"\r\n");
-                //写入文件类型
-                String contentType = params.getHeader("Content-Type");
-                if(contentType == null){
-                    contentType = getContentType(file);
-                }
-                outputStream.writeBytes("Content-Type: " + contentType + "\r\n");
-                outputStream.writeBytes("\r\n");
-                //写入文件
-                outputStream.write(IOUtils.getBytes(file));
-                outputStream.writeBytes("\r\n");
-                //写入尾
-                writeEnd(outputStream);
-                //刷新流
-                outputStream.flush();
-                if (uploadCallback != null) {
-                    uploadCallback.onFileUploadSuccess(this, file);
-                }
-            } catch (Throwable e) {
-                if (uploadCallback != null) {
-                    uploadCallback.onFileUploadFailed(e.getMessage(), file);
-                }
-            }
-        }
-
-        for (String param : params.paramKeySet()) {
-            String value = params.getParam(param);
-            try {
-                outputStream.writeBytes("--" + params.boundary + "\r\n");
-                outputStream.writeBytes("Content-Disposition: form-data; name=\"" + param + "\"\r\n");
-                outputStream.writeBytes("\r\n");
-                outputStream.writeBytes(URLEncoder.encode(value, httpConfig.getEncoding()) + "\r\n");
-                outputStream.flush();
-            } catch (IOException e) {
-                if (httpConfig.debugMode) {
-                    WeLog.e("写入参数出错,原因: " + e.getMessage());
-                }
+        try {
+            writeMultipartBody(outputStream);
+        } catch (IOException e) {
+            if (httpConfig.debugMode) {
+                WeLog.e("上传文件出错,原因: " + e.getMessage());
             }
         }
     }
 
     /**
-     * 写入结尾标识.
+     * 取得上传文件时的请求体,同一个请求只会创建一次.
      *
-     * @param outputStream
+     * @return 请求体
+     * @throws IOException 需要上传的文件不存在
      */
-    private void writeEnd(DataOutputStream outputStream) {
-        try {
-            outputStream.writeBytes("--" + params.boundary + "--" + "\r\n");
-            outputStream.writeBytes("\r\n");
-        } catch (IOException e) {
-            WeLog.e("写入结尾表示出错,原因: " + e.getMessage());
+    /*package*/ synchronized MultipartBody getMultipartBody() throws IOException {
+        if (multipartBody == null) {
+            multipartBody = new MultipartBody(params, httpConfig.getEncoding());
         }
+        return multipartBody;
     }
 
     /**
-     * 取得文件的ContentType
+     * 以multipart/form-data格式写入参数和文件,文件按块从磁盘读取.
      *
-     * @param file
-     * @return
+     * @param outputStream
+     * @throws IOException
      */
-    private String getContentType(File file) {
-
-        return "application/octet-stream";
+    /*package*/ void writeMultipartBody(OutputStream outputStream) throws IOException {
+        FileUploadCallback uploadCallback = null;
+        if (httpCallback instanceof FileUploadCallback) {
+            uploadCallback = (FileUploadCallback) httpCallback;
+        }
+        getMultipartBody().writeTo(this, outputStream, uploadCallback);
     }
 }
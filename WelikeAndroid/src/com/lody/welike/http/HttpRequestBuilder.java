@@ -19,6 +19,11 @@ public class HttpRequestBuilder {
     private HttpConfig httpConfig;
     private HttpParams params;
     private HttpCallback callback;
+    private RequestPriority priority = RequestPriority.NORMAL;
+    private CacheControl cacheControl;
+    private RetryPolicy retryPolicy;
+    private boolean hedged;
+    private long maxStale = -1;
 
     public HttpRequestBuilder(String url) {
         this.url = url;
@@ -152,6 +157,64 @@ public class HttpRequestBuilder {
         return this;
     }
 
+    /**
+     * 配置请求的优先级
+     *
+     * @param priority
+     * @return
+     */
+    public HttpRequestBuilder priority(RequestPriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * 配置缓存指令,覆盖服务器返回的Cache-Control/Expires
+     *
+     * @param cacheControl
+     * @return
+     */
+    public HttpRequestBuilder cacheControl(CacheControl cacheControl) {
+        this.cacheControl = cacheControl;
+        return this;
+    }
+
+    /**
+     * 配置重试策略,覆盖{@link HttpConfig#getRetryPolicy()}
+     *
+     * @param retryPolicy
+     * @return
+     */
+    public HttpRequestBuilder retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * 开启对冲请求:GET请求在一段时间内没有收到响应头时,再发出一个相同的请求,
+     * 先收到响应头的请求胜出.
+     *
+     * @param hedged
+     * @return
+     * @see HedgePolicy
+     */
+    public HttpRequestBuilder hedged(boolean hedged) {
+        this.hedged = hedged;
+        return this;
+    }
+
+    /**
+     * 配置出错时可以使用过期缓存的最长时间,覆盖{@link HttpConfig#maxStale}.
+     * 连接失败或服务器返回5xx时,过期不超过这个时间的缓存会作为结果分发.
+     *
+     * @param maxStale 最长时间(毫秒)
+     * @return
+     */
+    public HttpRequestBuilder maxStale(long maxStale) {
+        this.maxStale = maxStale;
+        return this;
+    }
+
     /**
      * 构造一个{@link HttpRequest}实例.
      *
@@ -165,6 +228,12 @@ public class HttpRequestBuilder {
             httpConfig = HttpConfig.newDefaultConfig();
         }
         HttpSession session = HttpSessionManager.getManager().getSession(url, method);
-        return new HttpRequest(session, params, httpConfig, callback);
+        HttpRequest request = new HttpRequest(session, params, httpConfig, callback);
+        request.setPriority(priority);
+        request.setCacheControl(cacheControl);
+        request.setRetryPolicy(retryPolicy);
+        request.setHedged(hedged);
+        request.setMaxStale(maxStale);
+        return request;
     }
 }
@@ -1,43 +1,126 @@
 package com.lody.welike.http;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.Build;
 
 import com.lody.welike.http.callback.HttpBitmapCallback;
 import com.lody.welike.http.callback.HttpCallback;
+import com.lody.welike.http.callback.HttpConverterCallback;
 import com.lody.welike.http.callback.HttpResultCallback;
-import com.lody.welike.utils.DiskLruCache;
-import com.lody.welike.utils.HashUtils;
+import com.lody.welike.http.callback.HttpStreamCallback;
+import com.lody.welike.http.converter.BeanConverter;
+import com.lody.welike.http.converter.BitmapConverter;
+import com.lody.welike.http.converter.ResponseConverter;
+import com.lody.welike.http.converter.StringConverter;
 import com.lody.welike.utils.IOUtils;
 import com.lody.welike.utils.MultiAsyncTask;
+import com.lody.welike.utils.TaskScheduler;
 import com.lody.welike.utils.UiHandler;
 import com.lody.welike.utils.WeLog;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * Http请求的执行器,每一个{@link HttpRequest}对应一个{@link HttpRequestBuilder}.
- * 任务托管于{@link MultiAsyncTask}的线程池.我们会控制并发量.
+ * 任务运行在{@link TaskScheduler.Lane#NETWORK}通道,并发量由{@link HttpConfig#concurrency}控制.
  *
  * @author Lody
  */
 public class HttpRequestExecutor extends MultiAsyncTask<Void, Void, Void> {
 
+    /**
+     * 分块模式下每一块的长度
+     */
+    private static final int CHUNK_LENGTH = 4 * 1024;
+
     private HttpRequest request;
     private HttpCallback callback;
     private HttpResponse response;
     private boolean enableDiskLruCache;
     private boolean debugMode;
 
+    /**
+     * 合并后的共享请求,请求不可合并时为null.
+     */
+    private volatile HttpCallCoalescer.SharedCall sharedCall;
+
+    /**
+     * 结果已经从缓存分发,正在后台验证缓存(stale-while-revalidate),
+     * 之后不再分发任何结果.
+     */
+    private volatile boolean revalidatingInBackground;
+
+    /**
+     * 已经尝试的次数
+     */
+    private int attempt;
+
+    /**
+     * 是否已经安排了重试,此时不能结束共享的请求,也不能释放请求占用的名额
+     */
+    private volatile boolean retryScheduled;
+
+    /**
+     * 等待退避时间的重试,取消请求时用于提前结束等待
+     */
+    private volatile Future<?> retryFuture;
+
+    /**
+     * 退避时间到期后在工作线程执行的重试
+     */
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            retryFuture = null;
+            try {
+                retry();
+            } finally {
+                if (!retryScheduled) {
+                    releaseQueueSlot();
+                }
+            }
+        }
+    };
+
+    /**
+     * 是否重试过,重试在onResult之后执行,不能释放字段
+     */
+    private volatile boolean retrying;
+
+    /**
+     * 响应体是否已经交给了使用者,之后不能再重试
+     */
+    private boolean bodyDelivered;
+
+    /**
+     * 当前打开的连接,取消请求时用于断开
+     */
+    private volatile HttpURLConnection activeConnection;
+
+    /**
+     * 请求在执行中被取消
+     */
+    private volatile boolean aborted;
+
+    /**
+     * 本次尝试从网络读取的响应体字节数
+     */
+    private long bytesReceived;
+
     public HttpRequestExecutor(HttpRequest request) {
-        super(request.getHttpConfig().concurrency);
+        super(TaskScheduler.Lane.NETWORK);
         this.request = request;
 
         debugMode = request.getHttpConfig().debugMode;
@@ -51,103 +134,457 @@ public class HttpRequestExecutor extends MultiAsyncTask<Void, Void, Void> {
     @Override
     public void onPrepare() {
         super.onPrepare();
+        //execute()可能在请求队列的线程调用,回调需要切回主线程
+        final HttpCallback callback = this.callback;
+        final HttpRequest request = this.request;
         if (callback != null) {
-            callback.onPreRequest(request);
+            UiHandler.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onPreRequest(request);
+                }
+            });
         }
     }
 
     @Override
     public Void onTask(Void... params) {
+        try {
+            performRequest();
+        } finally {
+            //安排了重试时,退避期间继续占用名额,由重试结束后释放
+            if (!retryScheduled) {
+                releaseQueueSlot();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 释放请求在队列中占用的并发名额和主机名额
+     */
+    private void releaseQueueSlot() {
+        HttpRequestQueue queue = request.requestQueue;
+        if (queue != null) {
+            queue.onRequestFinished(request);
+        }
+    }
+
+    /**
+     * 在工作线程执行Http请求
+     */
+    private void performRequest() {
+        request.timings.startNanos = System.nanoTime();
+        long queueToStart = request.getQueueToStartNanos();
+        if (queueToStart >= 0) {
+            HttpMetrics.get().recordQueueToStart(queueToStart);
+            if (debugMode) WeLog.d("请求排队耗时: " + (queueToStart / 1000000) + "ms");
+        }
         if (request.isCancel()) {
             //任务已取消
-            synchronized (request) {
-                final HttpCallback callback = request.getHttpCallback();
-                if (callback != null) {
-                    //回调onCancel
-                    UiHandler.runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            callback.onCancel(request);
-                        }
-                    });
+            callCancelOnUiThread(request);
+            return;
+        }
+
+        if (isCoalescable()) {
+            sharedCall = HttpCallCoalescer.get().join(request, this);
+            if (!sharedCall.isLeader(request)) {
+                //相同的请求正在执行,结果会由它分发过来
+                if (debugMode) WeLog.d(request.getCacheKey() + " 已有相同的请求在执行,等待共享结果.");
+                //取消时交给leader的执行器,由它判断是否所有订阅者都已取消
+                request.executor = sharedCall.executor;
+                if (request.isCancel()) {
+                    //cancel()可能在设置executor之前调用
+                    sharedCall.executor.abort();
                 }
+                return;
             }
-            return null;
         }
+        performAttempt();
+    }
+
+    /**
+     * 执行一次请求
+     */
+    private void performAttempt() {
+        attempt++;
+        bytesReceived = 0;
+        request.timings.resetAttempt();
+        request.executor = this;
+        if (request.isCancel()) {
+            //cancel()可能在设置executor之前调用
+            abort();
+        }
+        try {
+            executeRequest();
+        } finally {
+            if (!retryScheduled) {
+                //等待重试期间仍然可以通过cancel()结束请求
+                request.executor = null;
+            }
+            if (sharedCall != null && !sharedCall.isCompleted() && !retryScheduled) {
+                //执行意外中断,不能让附加的请求一直等待
+                callFailureOnUiThread(response);
+            }
+        }
+    }
+
+    /**
+     * 取消正在执行的请求:断开连接,正在进行的读取会立即失败.
+     * 请求被合并执行时,任何订阅者取消都会调用leader的本方法,只有所有等待结果的请求都取消了才会断开;
+     * 后台验证缓存时结果已经分发,验证会继续完成.
+     */
+    /*package*/ void abort() {
+        HttpCallCoalescer.SharedCall call = sharedCall;
+        if (call == null && !request.isCancel()) {
+            //附加的请求取消时leader还没有记录共享请求,leader自己仍在等待结果
+            return;
+        }
+        if (revalidatingInBackground || (call != null && !call.tryAbort())) {
+            return;
+        }
+        aborted = true;
+        HttpURLConnection connection = activeConnection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+        Future<?> pending = retryFuture;
+        if (pending != null && pending.cancel(false)) {
+            //不再等待退避时间,立即分发onCancel并释放名额
+            execute(retryTask);
+        }
+    }
+
+    /**
+     * 请求在执行中被取消,丢弃已经读取的数据并分发onCancel.
+     */
+    private void onAborted() {
+        if (debugMode) WeLog.d(request.getCacheKey() + " 已取消,丢弃了" + bytesReceived + "字节.");
+        HttpMetrics.get().recordCancelled(bytesReceived);
+        response.errorMessage = "请求已取消";
+        //已取消的请求收到onCancel,合并在一起但没有取消的请求收到onFailure
+        callFailureOnUiThread(response);
+    }
+
+    /**
+     * 请求失败,按重试策略决定是否稍后重试.
+     * 等待期间不占用工作线程,但继续占用请求队列的并发名额和主机名额,
+     * 重试仍受{@link HttpConfig#concurrency}和每个主机的请求上限约束.
+     *
+     * @param e 网络错误,服务器返回错误代码时为null
+     * @return 是否已经安排重试
+     */
+    private boolean scheduleRetry(IOException e) {
+        if (revalidatingInBackground || bodyDelivered || isAbandoned()) {
+            return false;
+        }
+        RetryPolicy policy = request.getRetryPolicy();
+        if (!policy.shouldRetry(request, attempt, response, e)) {
+            return false;
+        }
+        long delay = policy.getBackoffMillis(attempt, response);
+        if (debugMode) WeLog.d(request.getCacheKey() + " 第" + attempt + "次请求失败," + delay + "ms后重试.");
+        retryScheduled = true;
+        retrying = true;
+        //在后台计时,不经过主线程
+        retryFuture = TaskScheduler.get().schedule(TaskScheduler.Lane.NETWORK, retryTask, delay);
+        return true;
+    }
+
+    /**
+     * 是否已经没有请求在等待结果.
+     * 合并执行时看所有订阅者,leader取消了但还有订阅者在等待时仍然需要重试;
+     * 所有订阅者都已取消时同时标记共享请求已中断,之后相同的请求会重新发起.
+     *
+     * @return 是否可以放弃请求
+     */
+    private boolean isAbandoned() {
+        HttpCallCoalescer.SharedCall call = sharedCall;
+        if (call == null) {
+            return request.isCancel();
+        }
+        return call.tryAbort();
+    }
+
+    /**
+     * 在工作线程重试请求
+     */
+    private void retry() {
+        retryScheduled = false;
+        if (isAbandoned()) {
+            request.executor = null;
+            onAborted();
+            return;
+        }
+        response = new HttpResponse();
+        response.httpRequest = request;
+        performAttempt();
+    }
+
+    /**
+     * 请求失败:可以使用过期的缓存时使用缓存,否则重试或回调onFailure.
+     *
+     * @param staleEntry 过期的缓存,可以为null
+     * @param e          网络错误,服务器返回错误代码时为null
+     */
+    private void handleFailure(HttpResponseCache.Entry staleEntry, IOException e) {
+        //只有连接出错和服务器错误(5xx)才使用过期缓存,4xx说明请求本身有问题
+        if ((e != null || response.responseCode >= 500) && serveStaleOnError(staleEntry)) {
+            return;
+        }
+        if (!scheduleRetry(e)) {
+            callFailureOnUiThread(response);
+        }
+    }
 
-        //Note:不要保存任何DiskLruCache的引用,因为DiskLruCache可能被重新创建.
+    /**
+     * @param responseCode 响应代码
+     * @return 是否说明服务器不健康
+     */
+    private static boolean isServerFailure(int responseCode) {
+        return responseCode >= 500 || responseCode == 429;
+    }
+
+    /**
+     * @return 请求是否可以与相同的请求合并执行
+     */
+    private boolean isCoalescable() {
+        //流无法被多个使用者共享
+        return enableDiskLruCache
+                && !isStreaming()
+                && request.getSession().getRequestMethod() == RequestMethod.GET
+                && request.getParams().getUploadFiles().size() == 0;
+    }
+
+    /**
+     * @return 请求是否可以对冲, 只有没有请求体的GET请求可以安全地重复发送
+     */
+    private boolean isHedgeable() {
+        return request.isHedged()
+                && !revalidatingInBackground
+                && request.getSession().getRequestMethod() == RequestMethod.GET
+                && request.getParams().getUploadFiles().size() == 0;
+    }
+
+    /**
+     * 打开请求的连接,有可以验证的缓存时加上验证头
+     *
+     * @param staleEntry 过期的缓存,可以为null
+     * @return 尚未连接的Http连接
+     * @throws IOException
+     */
+    private HttpURLConnection openConnection(HttpResponseCache.Entry staleEntry) throws IOException {
+        HttpURLConnection connection = request.getSession().open(request);
+        if (staleEntry != null && staleEntry.hasValidator()) {
+            addValidators(connection, staleEntry);
+        }
+        return connection;
+    }
+
+    /**
+     * @return 响应体是否以流的形式交给回调
+     */
+    private boolean isStreaming() {
+        return callback instanceof HttpStreamCallback;
+    }
+
+    /**
+     * 读取缓存或访问网络
+     */
+    private void executeRequest() {
         String key = request.getCacheKey();
-        String hashUrl = null;
-        if (!(request.getParams().getUploadFiles().size() > 0) && enableDiskLruCache) {
+        HttpEventListener listener = request.getHttpConfig().getEventListener();
+        boolean useCache = enableDiskLruCache && !(request.getParams().getUploadFiles().size() > 0);
+        HttpResponseCache cache = request.getHttpConfig().getResponseCache();
+        //已过期但可以向服务器验证,或出错时仍可使用的缓存
+        HttpResponseCache.Entry staleEntry = null;
+        if (useCache) {
             if (debugMode) WeLog.d("正在处理Http请求: " + key);
-
-            hashUrl = HashUtils.hashKey(key);
-            if (enableDiskLruCache) {
-                if (debugMode) WeLog.d("请求的缓存为开启状态.");
-                try {
-                    DiskLruCache.Snapshot snapshot = request.getHttpConfig().getDiskLruCache().get(hashUrl);
-                    if (snapshot != null) {
-                        if (debugMode) WeLog.d("获取缓存快照成功!");
-                        long timeoutDate = getTimeoutDate(snapshot, hashUrl);
-                        if (timeoutDate != 0) {
-                            long lostTime = (timeoutDate - System.currentTimeMillis());
-                            if (lostTime > 0) {
-                                if (debugMode)
-                                    WeLog.d("距离缓存过期还有 " + (lostTime / 1000 / 60) + "分钟 "
-                                            + (lostTime / 1000 - lostTime / 1000 / 60 * 60) + "秒");
-                            } else {
-                                if (debugMode) WeLog.d(key + "的缓存已过期.");
-                            }
-                        } else {
-                            //缓存永久有效
-                            if (debugMode) WeLog.d("发现一个永久有效的缓存");
-                        }
-                        if (timeoutDate == 0 || timeoutDate > System.currentTimeMillis()) {//没有过期
-                            if (debugMode) WeLog.d("一个缓存命中!");
-
-                            InputStream inputStream = snapshot.getInputStream(0);
-                            if (inputStream != null) {
-                                ObjectInputStream objectInputStream = new ObjectInputStream(inputStream);
-                                HttpResponse oldResponse = (HttpResponse) objectInputStream.readObject();
-                                if (oldResponse != null) {
-                                    response.copyFrom(oldResponse);
-                                }
-                                callSuccessOnUiThread(callback, response);
-                                callFinishOnUiThread(callback, response);
-                                objectInputStream.close();
-                                inputStream.close();
-
-                                //有了缓存我们就不需要继续了.
-                                return null;
-                            }
+            if (debugMode) WeLog.d("请求的缓存为开启状态.");
+            long lookupStartNanos = System.nanoTime();
+            request.timings.cacheLookupStartNanos = lookupStartNanos;
+            if (listener != null) {
+                listener.onCacheLookupStart(request, lookupStartNanos);
+            }
+            HttpResponseCache.Entry entry = cache.get(key);
+            long now = System.currentTimeMillis();
+            boolean hit = entry != null && (!entry.isExpired(now) || entry.canServeWhileRevalidate(now));
+            long lookupEndNanos = System.nanoTime();
+            request.timings.cacheLookupEndNanos = lookupEndNanos;
+            request.timings.cacheHit = hit;
+            if (listener != null) {
+                listener.onCacheLookupEnd(request, lookupEndNanos, hit);
+            }
+            if (entry != null) {
+                if (hit) {
+                    boolean revalidate = entry.isExpired(now);
+                    boolean served = false;
+                    response.stale = revalidate;
+                    try {
+                        served = readFromCache(entry);
+                    } finally {
+                        if (!served || !revalidate) {
+                            entry.close();
                         }
                     }
-                } catch (Throwable e) {
+                    if (!served) {
+                        request.timings.cacheHit = false;
+                        cache.remove(key);
+                    } else if (!revalidate) {
+                        //有了缓存我们就不需要继续了.
+                        return;
+                    } else {
+                        //先使用过期的缓存,再在后台向服务器验证(stale-while-revalidate)
+                        if (debugMode) WeLog.d(key + "的缓存已过期,已使用缓存并在后台验证.");
+                        startBackgroundRevalidation();
+                        staleEntry = entry;
+                    }
+                } else if (entry.hasValidator() || entry.canServeOnError(now, request.getMaxStale())) {
+                    if (debugMode) WeLog.d(key + "的缓存已过期,将向服务器验证缓存.");
+                    staleEntry = entry;
+                } else {
+                    entry.close();
                 }
             }
         }
 
-        HttpCallback callback = request.getHttpCallback();
+        String host = request.getSession().getHost();
+        HostCircuitBreaker breaker = request.getHttpConfig().getCircuitBreaker();
+        boolean breakerPermitted = false;
+        boolean breakerRecorded = false;
+        //边读取边写入的缓存,没有提交时在最后放弃
+        HttpResponseCache.Writer writer = null;
         try {
-            HttpURLConnection connection = request.getSession().open(request);
+            if (host != null) {
+                if (!breaker.allowRequest(host)) {
+                    //主机不健康,直接失败,不重试
+                    if (debugMode) WeLog.w(host + " 处于熔断状态,请求直接失败.");
+                    response.errorMessage = "主机暂时不可用: " + host;
+                    if (!serveStaleOnError(staleEntry)) {
+                        callFailureOnUiThread(response);
+                    }
+                    return;
+                }
+                breakerPermitted = true;
+            }
+            long connectStartNanos = System.nanoTime();
+            request.timings.connectStartNanos = connectStartNanos;
+            final HttpResponseCache.Entry validatorEntry = staleEntry;
+            long hedgeDelay = -1;
+            if (isHedgeable()) {
+                HedgePolicy hedgePolicy = request.getHttpConfig().getHedgePolicy();
+                hedgePolicy.onRequest();
+                hedgeDelay = hedgePolicy.getHedgeDelayMillis();
+            }
+            HttpURLConnection connection;
+            if (hedgeDelay >= 0) {
+                if (debugMode) WeLog.d(key + " 将在" + hedgeDelay + "ms内没有响应时发出对冲请求.");
+                connection = HedgedConnection.connect(new HedgedConnection.Opener() {
+                    @Override
+                    public HttpURLConnection open() throws IOException {
+                        return openConnection(validatorEntry);
+                    }
+                }, request.getHttpConfig().getHedgePolicy(), request.getSession().getHost(), hedgeDelay);
+            } else {
+                connection = openConnection(validatorEntry);
+            }
+            activeConnection = connection;
+            if (aborted) {
+                throw new IOException("请求已取消");
+            }
 
-            if (request.getSession().getRequestMethod() == RequestMethod.POST) {//如果是Post请求
+            boolean post = request.getSession().getRequestMethod() == RequestMethod.POST;
+            MultipartBody body = null;
+            if (post) {//如果是Post请求
                 connection.setDoOutput(true);//Post请求必须打开Output
+                if (request.getParams().getUploadFiles().size() > 0) {
+                    //上传文件,请求体以流的形式写入
+                    body = request.getMultipartBody();
+                    setStreamingMode(connection, body.contentLength());
+                    if (debugMode) WeLog.d("上传文件,请求体长度为: " + body.contentLength());
+                }
+            }
+            //单独连接,以便区分连接和等待响应的耗时(对冲请求此时已经连接)
+            connection.connect();
+            long connectEndNanos = System.nanoTime();
+            request.timings.connectEndNanos = connectEndNanos;
+            if (listener != null) {
+                listener.onConnect(request, connectEndNanos);
+            }
 
-                String paramStatement = request.getParams().makeParams(request.getHttpConfig().getEncoding());
-                if (paramStatement.length() > 1) {//包含参数
+            long bytesWritten = 0;
+            if (post) {
+                if (body != null) {
                     OutputStream outputStream = connection.getOutputStream();
-                    if (outputStream != null) {
-                        if (debugMode) WeLog.d("Post请求的参数为: " + paramStatement);
+                    try {
+                        request.writeMultipartBody(outputStream);
+                    } finally {
+                        outputStream.close();
+                    }
+                    bytesWritten = body.contentLength();
+                } else {
+                    String paramStatement = request.getParams().makeParams(request.getHttpConfig().getEncoding());
+                    if (paramStatement.length() > 1) {//包含参数
+                        OutputStream outputStream = connection.getOutputStream();
+                        if (outputStream != null) {
+                            if (debugMode) WeLog.d("Post请求的参数为: " + paramStatement);
 
-                        DataOutputStream os = new DataOutputStream(outputStream);
-                        //将参数写入进去
-                        request.writeToStream(os);
+                            DataOutputStream os = new DataOutputStream(outputStream);
+                            //将参数写入进去
+                            request.writeToStream(os);
+                            bytesWritten = os.size();
+                        }
                     }
                 }
             }
-            response.contentLength = connection.getContentLength();
+            long writtenNanos = System.nanoTime();
+            request.timings.requestWrittenNanos = writtenNanos;
+            request.timings.bytesWritten = bytesWritten;
+            if (listener != null) {
+                listener.onRequestWritten(request, writtenNanos, bytesWritten);
+            }
             response.responseCode = connection.getResponseCode();
+            long headersNanos = System.nanoTime();
+            request.timings.headersNanos = headersNanos;
+            if (listener != null) {
+                listener.onHeadersReceived(request, headersNanos, response.responseCode);
+            }
+            long timeToHeaders = headersNanos - connectStartNanos;
+            HttpMetrics.get().recordTimeToHeaders(timeToHeaders);
+            if (host != null) {
+                HttpSessionManager.getManager().onResponse(host, timeToHeaders, connection.getHeaderField("Connection"));
+            }
+            if (breakerPermitted) {
+                if (isServerFailure(response.responseCode)) {
+                    breaker.onFailure(host);
+                } else {
+                    breaker.onSuccess(host);
+                }
+                breakerRecorded = true;
+            }
+            if (staleEntry != null && response.responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                //服务器确认缓存仍然有效,只需刷新有效期
+                InputStream emptyBody = connection.getInputStream();
+                if (emptyBody != null) {
+                    emptyBody.close();
+                }
+                onBodyComplete(listener);
+                if (debugMode) WeLog.d(key + "的缓存验证通过(304),继续使用缓存.");
+                CacheFreshness freshness = freshnessForNotModified(connection.getHeaderFields(), staleEntry);
+                cache.updateFreshness(key, freshness);
+                if (revalidatingInBackground) {
+                    return;
+                }
+                staleEntry.expiryDate = freshness.expiryDate;
+                response.notModified = true;
+                if (!readFromCache(staleEntry)) {
+                    cache.remove(key);
+                    response.errorMessage = "无法读取已验证的缓存.";
+                    callFailureOnUiThread(response);
+                }
+                return;
+            }
+            response.contentLength = connection.getContentLength();
             response.responseMessage = connection.getResponseMessage();
             response.copyHeader(connection.getHeaderFields());
             response.contentType = connection.getContentType();
@@ -162,89 +599,342 @@ public class HttpRequestExecutor extends MultiAsyncTask<Void, Void, Void> {
                 }
             }
 
-            is = connection.getInputStream();
+            boolean success = response.responseCode < 300;
+            CacheFreshness freshness = CacheFreshness.compute(response.header, request.getCacheControl(),
+                    request.getHttpConfig(), System.currentTimeMillis());
+            boolean storable = useCache && freshness.storable;
+            if (useCache && success && !storable) {
+                //服务器要求不缓存(no-store),旧的缓存也不能再用了
+                if (debugMode) WeLog.d(key + "的响应不允许缓存.");
+                cache.remove(key);
+            }
+            //后台验证时没有使用者读取响应流
+            boolean streaming = isStreaming() && !revalidatingInBackground;
+            //需要由我们解压的编码
+            String encoding = request.getHttpConfig().enableCompression
+                    ? ContentCodec.decodableEncoding(response.contentEncoding) : null;
+            //缓存中保存压缩的响应体
+            String cacheEncoding = request.getHttpConfig().cacheCompressedBody ? encoding : null;
+            byte[] cacheBody = null;
+            if (encoding != null) {
+                if (debugMode) WeLog.d("响应体以" + encoding + "压缩,将在读取时解压.");
+                //回调拿到的是解压后的数据
+                response.contentEncoding = null;
+                response.contentLength = -1;
+            }
+            //错误响应的内容已经从ErrorStream读取,getInputStream()会抛出异常,
+            //错误代码要按响应代码处理,不能当作连接出错
+            is = response.responseCode >= HttpURLConnection.HTTP_BAD_REQUEST ? null : connection.getInputStream();
             if (is != null) {
-                response.data = IOUtils.toByteArray(is);
-                if (debugMode && response.data != null) {
-                    WeLog.w("响应的data != NULL");
+                is = new CountingInputStream(is);
+                if (streaming) {
+                    if (success) {
+                        if (storable && ((HttpStreamCallback) callback).shouldCacheResponse()) {
+                            writer = cache.edit(key, response, freshness, cacheEncoding);
+                        }
+                        if (writer != null) {
+                            if (debugMode) WeLog.d("响应体将在读取的同时写入缓存...");
+                            is = cacheEncoding != null ? writer.teeEncoded(is, encoding)
+                                    : writer.tee(ContentCodec.decode(is, encoding));
+                        } else {
+                            is = ContentCodec.decode(is, encoding);
+                        }
+                        //响应体直接流向使用者,不在内存中缓冲
+                        streamToCallback(is);
+                    } else {
+                        is.close();
+                    }
+                } else {
+                    if (cacheEncoding != null) {
+                        cacheBody = IOUtils.toByteArray(is);
+                        is = new ByteArrayInputStream(cacheBody);
+                    }
+                    InputStream bodyStream = ContentCodec.decode(is, encoding);
+                    try {
+                        response.data = IOUtils.toByteArray(bodyStream);
+                    } finally {
+                        bodyStream.close();
+                    }
+                    if (encoding != null) {
+                        response.contentLength = response.data.length;
+                    }
+                    if (cacheBody == null) {
+                        cacheBody = response.data;
+                    }
+                    if (debugMode && response.data != null) {
+                        WeLog.w("响应的data != NULL");
+                    }
                 }
             }
-            if (debugMode) WeLog.d("响应代码为:" + connection.getResponseCode());
+            if (debugMode) WeLog.d("响应代码为:" + response.responseCode);
+            onBodyComplete(listener);
 
-            if (connection.getResponseCode() >= 300) {
-                callFailureOnUiThread(callback, response);
+            if (aborted) {
+                //读取的同时被取消,不再写入缓存和分发结果
+                onAborted();
+                return;
+            }
+            if (!success) {
+                handleFailure(staleEntry, null);
             } else {
-                if (enableDiskLruCache && hashUrl != null) {
-                    DiskLruCache.Editor editor = request.getHttpConfig().getDiskLruCache().edit(hashUrl);
-                    if (editor != null) {
-                        if (debugMode) WeLog.d("开始写入缓存...");
-                        //将请求写入LruDiskCache
-                        saveResponse(editor);
-                    }
-
+                if (storable && !streaming) {
+                    if (debugMode) WeLog.d("开始写入缓存...");
+                    //将请求写入LruDiskCache
+                    saveResponse(cache, key, freshness, cacheBody, cacheEncoding);
                 }
-                callSuccessOnUiThread(callback, response);
+                callSuccessOnUiThread(response);
             }
 
         } catch (IOException e) {
+            if (aborted) {
+                onAborted();
+                return;
+            }
             if (response.errorMessage == null) {
                 response.errorMessage = e.getMessage();
             }
-            callFailureOnUiThread(callback, response);
+            if (breakerPermitted && !breakerRecorded) {
+                breaker.onFailure(host);
+                breakerRecorded = true;
+            }
+            handleFailure(staleEntry, e);
+        } catch (RuntimeException e) {
+            if (!aborted) {
+                throw e;
+            }
+            //被其它线程断开时,部分实现会抛出运行时异常
+            onAborted();
+        } finally {
+            activeConnection = null;
+            if (writer != null) {
+                //提交后调用没有作用
+                writer.abort();
+            }
+            if (breakerPermitted && !breakerRecorded) {
+                breaker.onAbandoned(host);
+            }
+            if (staleEntry != null) {
+                staleEntry.close();
+            }
         }
-
-        return null;
     }
 
     /**
-     * 将Http请求写入到缓存
+     * 记录响应体读取完毕
      *
-     * @param editor
+     * @param listener 事件监听器,可以为null
      */
-    private void saveResponse(DiskLruCache.Editor editor) {
-        try {
-            editor.set(1, String.valueOf(request.getHttpConfig().generateTimeoutDate()));
-            OutputStream outputStream = editor.newOutputStream(0);
-            if (outputStream != null) {
-                ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
-                objectOutputStream.writeObject(response);
-            } else {
-                if (debugMode) WeLog.e("无法打开OutputStream T_T.");
+    private void onBodyComplete(HttpEventListener listener) {
+        long nanos = System.nanoTime();
+        request.timings.bodyCompleteNanos = nanos;
+        request.timings.bytesReceived = bytesReceived;
+        if (listener != null) {
+            listener.onBodyComplete(request, nanos, bytesReceived);
+        }
+    }
+
+    /**
+     * 统计从网络读取的字节数
+     */
+    private class CountingInputStream extends FilterInputStream {
 
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                bytesReceived++;
             }
-            editor.commit();
-            request.getHttpConfig().getDiskLruCache().flush();
-            //至此,缓存被成功写入.
-            if (debugMode) WeLog.d("新的缓存已提交!");
+            return b;
+        }
 
-        } catch (IOException e) {
-            if (debugMode) WeLog.e("缓存写入失败,原因: " + e.getMessage());
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                bytesReceived += read;
+            }
+            return read;
+        }
+    }
 
-            try {
-                editor.abort();
-                if (debugMode) WeLog.w("缓存写入已终止");
+    /**
+     * 设置请求体的流模式,HttpURLConnection不再在内存中缓冲整个请求体.
+     * 长度已知时使用固定长度模式,否则使用分块模式.
+     *
+     * @param connection    Http连接
+     * @param contentLength 请求体长度,未知时为-1
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void setStreamingMode(HttpURLConnection connection, long contentLength) {
+        if (contentLength >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            connection.setFixedLengthStreamingMode(contentLength);
+        } else if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            connection.setFixedLengthStreamingMode((int) contentLength);
+        } else {
+            connection.setChunkedStreamingMode(CHUNK_LENGTH);
+        }
+    }
 
-            } catch (IOException io) {
+    /**
+     * 开始后台验证,结果已经分发过了,
+     * 之后的请求只用于更新缓存,使用新的响应对象以免影响已分发的结果.
+     */
+    private void startBackgroundRevalidation() {
+        revalidatingInBackground = true;
+        response = new HttpResponse();
+        response.httpRequest = request;
+    }
+
+    /**
+     * 请求出错时,如果缓存仍在stale-if-error或请求允许的max-stale时长内,就使用缓存.
+     *
+     * @param staleEntry 过期的缓存,可以为null
+     * @return 是否使用了缓存
+     */
+    private boolean serveStaleOnError(HttpResponseCache.Entry staleEntry) {
+        if (revalidatingInBackground) {
+            if (debugMode) WeLog.w("后台验证缓存失败: " + response.errorMessage);
+            return true;
+        }
+        if (staleEntry == null || !staleEntry.canServeOnError(System.currentTimeMillis(), request.getMaxStale())) {
+            return false;
+        }
+        if (debugMode) WeLog.w("请求出错(" + response.errorMessage + "),使用过期的缓存.");
+        response.errorMessage = null;
+        response.stale = staleEntry.isExpired(System.currentTimeMillis());
+        return readFromCache(staleEntry);
+    }
+
+    /**
+     * 计算304响应之后缓存的有效期,
+     * 304响应没有携带有效期相关的响应头时,沿用缓存的响应头.
+     *
+     * @param header 304响应的响应头
+     * @param entry  被验证的缓存
+     * @return 新的有效期
+     */
+    private CacheFreshness freshnessForNotModified(Map<String, List<String>> header,
+                                                   HttpResponseCache.Entry entry) {
+        if (!CacheControl.parse(header).hasFreshnessDirective()
+                && CacheControl.getHeader(header, "Expires") == null) {
+            header = entry.header;
+        }
+        return CacheFreshness.compute(header, request.getCacheControl(),
+                request.getHttpConfig(), System.currentTimeMillis());
+    }
+
+    /**
+     * 为条件请求添加缓存验证头(If-None-Match/If-Modified-Since),
+     * 使用者自己设置的验证头优先.
+     *
+     * @param connection Http连接
+     * @param entry      已过期的缓存
+     */
+    private void addValidators(HttpURLConnection connection, HttpResponseCache.Entry entry) {
+        HttpParams params = request.getParams();
+        String eTag = entry.getHeader("ETag");
+        if (eTag != null && params.getHeader("If-None-Match") == null) {
+            connection.setRequestProperty("If-None-Match", eTag);
+        }
+        if (params.getHeader("If-Modified-Since") == null) {
+            String lastModified = entry.getHeader("Last-Modified");
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            } else if (entry.lastModifiedTime > 0) {
+                connection.setIfModifiedSince(entry.lastModifiedTime);
             }
         }
     }
 
-    private void callFinishOnUiThread(final HttpCallback callback, final HttpResponse response) {
-        UiHandler.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (callback != null) {
-                    callback.onFinish(response);
-                }
+    /**
+     * 从缓存读取响应并分发结果
+     *
+     * @param entry 缓存项,由调用者负责关闭
+     * @return 是否成功(失败时没有分发任何结果)
+     */
+    private boolean readFromCache(HttpResponseCache.Entry entry) {
+        if (debugMode) WeLog.d("获取缓存快照成功!");
+        long timeoutDate = entry.expiryDate;
+        if (timeoutDate != 0) {
+            long lostTime = (timeoutDate - System.currentTimeMillis());
+            if (lostTime > 0) {
+                if (debugMode)
+                    WeLog.d("距离缓存过期还有 " + (lostTime / 1000 / 60) + "分钟 "
+                            + (lostTime / 1000 - lostTime / 1000 / 60 * 60) + "秒");
             }
-        });
+        } else {
+            //缓存永久有效
+            if (debugMode) WeLog.d("发现一个永久有效的缓存");
+        }
+        if (debugMode) WeLog.d("一个缓存命中!");
+
+        entry.applyTo(response);
+        if (isStreaming()) {
+            try {
+                //响应体直接从缓存文件读取
+                streamToCallback(entry.openBody());
+            } catch (IOException e) {
+                response.errorMessage = e.getMessage();
+                callFailureOnUiThread(response);
+                return true;
+            }
+        } else {
+            try {
+                response.data = entry.readBody();
+            } catch (IOException e) {
+                if (debugMode) WeLog.w("读取缓存的响应体失败,原因: " + e.getMessage());
+                return false;
+            }
+        }
+        callSuccessOnUiThread(response);
+        return true;
+    }
+
+    /**
+     * 将响应体的输入流交给{@link HttpStreamCallback},在当前线程回调.
+     *
+     * @param inputStream 响应体的输入流
+     * @throws IOException
+     */
+    private void streamToCallback(InputStream inputStream) throws IOException {
+        bodyDelivered = true;
+        try {
+            ((HttpStreamCallback) callback).onResponseStream(response, inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * 将Http请求交给后台写入缓存,不在网络线程等待磁盘
+     *
+     * @param cache        响应缓存
+     * @param key          缓存Key
+     * @param freshness    响应的有效期
+     * @param body         要保存的响应体
+     * @param bodyEncoding 响应体的编码,null表示未压缩
+     */
+    private void saveResponse(HttpResponseCache cache, String key, CacheFreshness freshness,
+                              byte[] body, String bodyEncoding) {
+        if (cache.putAsync(key, response, freshness, body, bodyEncoding)) {
+            //写入完成前读取缓存会使用写入队列中的数据
+            response.cacheExpiryDate = freshness.expiryDate;
+            if (debugMode) WeLog.d("新的缓存已加入写入队列.");
+        } else {
+            if (debugMode) WeLog.w("缓存写入队列已满或写入失败,放弃缓存.");
+        }
     }
 
     @Override
     public void onResult(Void aVoid) {
         super.onResult(aVoid);
-        if (callback != null) {
-            callback.onFinish(response);
+        if (retrying) {
+            //重试还会用到这些字段
+            return;
         }
         this.request = null;
         this.callback = null;
@@ -252,73 +942,284 @@ public class HttpRequestExecutor extends MultiAsyncTask<Void, Void, Void> {
     }
 
     /**
-     * 在主线程回调onFailure
+     * 取得等待本次结果的所有请求,
+     * 如果请求被合并执行,会同时结束共享请求.
      *
-     * @param callback
+     * @return 等待结果的请求
+     */
+    private List<HttpRequest> takeSubscribers() {
+        if (sharedCall == null) {
+            return Collections.singletonList(request);
+        }
+        List<HttpRequest> subscribers = HttpCallCoalescer.get().complete(sharedCall);
+        for (HttpRequest subscriber : subscribers) {
+            if (subscriber != request && subscriber.executor == this) {
+                //结果已经分发,之后的取消与本执行器无关
+                subscriber.executor = null;
+            }
+        }
+        return subscribers;
+    }
+
+    /**
+     * 为订阅者生成它自己的响应,数据部分是共享的.
+     *
+     * @param subscriber
      * @param response
+     * @return
+     */
+    private static HttpResponse responseFor(HttpRequest subscriber, HttpResponse response) {
+        if (response.httpRequest == subscriber) {
+            return response;
+        }
+        HttpResponse subResponse = new HttpResponse();
+        subResponse.copyFrom(response);
+        subResponse.httpRequest = subscriber;
+        return subResponse;
+    }
+
+    /**
+     * 在主线程回调onCancel
+     *
+     * @param request
      */
-    public void callFailureOnUiThread(final HttpCallback callback, final HttpResponse response) {
+    private void callCancelOnUiThread(final HttpRequest request) {
+        final HttpCallback callback = request.getHttpCallback();
+        if (callback != null && request.markCancelDelivered()) {
+            UiHandler.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onCancel(request);
+                }
+            });
+        }
+    }
 
+    /**
+     * 在主线程回调onFailure和onFinish,结果会分发给所有等待的请求.
+     *
+     * @param response
+     */
+    public void callFailureOnUiThread(final HttpResponse response) {
+        if (revalidatingInBackground) {
+            //结果已经分发过了
+            return;
+        }
+        final List<HttpRequest> subscribers = takeSubscribers();
         UiHandler.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if (callback != null) {
-                    callback.onFailure(response);
+                for (HttpRequest subscriber : subscribers) {
+                    HttpCallback callback = subscriber.getHttpCallback();
+                    if (callback == null) {
+                        continue;
+                    }
+                    if (subscriber.isCancel()) {
+                        if (subscriber.markCancelDelivered()) {
+                            callback.onCancel(subscriber);
+                        }
+                        continue;
+                    }
+                    HttpResponse subResponse = responseFor(subscriber, response);
+                    callback.onFailure(subResponse);
+                    callback.onFinish(subResponse);
+                    onCallbackDelivered(subscriber, false);
                 }
             }
         });
     }
 
     /**
-     * 在主线程回调onSuccess
+     * 在主线程回调onSuccess和onFinish,结果会分发给所有等待的请求.
+     * 回调需要的String,Bitmap等类型在当前(工作)线程转换好,主线程只分发转换结果.
+     * 合并执行的请求中,使用相同转换方式的回调共享同一个转换结果,不会重复解码.
      *
-     * @param callback
      * @param response
      */
-    public void callSuccessOnUiThread(final HttpCallback callback, final HttpResponse response) {
-
+    public void callSuccessOnUiThread(final HttpResponse response) {
+        if (revalidatingInBackground) {
+            //结果已经分发过了
+            return;
+        }
+        final List<HttpRequest> subscribers = takeSubscribers();
+        final int size = subscribers.size();
+        final HttpResponse[] responses = new HttpResponse[size];
+        final Object[] results = new Object[size];
+        final Exception[] errors = new Exception[size];
+        //每种转换方式只转换一次
+        Map<Object, Object> keyToResultMap = null;
+        Map<Object, Exception> keyToErrorMap = null;
+        long convertStartNanos = System.nanoTime();
+        boolean converted = false;
+        for (int i = 0; i < size; i++) {
+            HttpRequest subscriber = subscribers.get(i);
+            HttpCallback callback = subscriber.getHttpCallback();
+            if (callback == null || subscriber.isCancel()) {
+                continue;
+            }
+            responses[i] = responseFor(subscriber, response);
+            if (needsConversion(callback)) {
+                if (keyToResultMap == null) {
+                    keyToResultMap = new HashMap<>();
+                    keyToErrorMap = new HashMap<>();
+                }
+                Object key = conversionKey(callback);
+                if (keyToResultMap.containsKey(key)) {
+                    results[i] = keyToResultMap.get(key);
+                    errors[i] = keyToErrorMap.get(key);
+                    continue;
+                }
+                converted = true;
+                try {
+                    results[i] = convert(callback, responses[i]);
+                } catch (Exception e) {
+                    if (debugMode) WeLog.w("转换响应失败,原因: " + e.getMessage());
+                    errors[i] = e;
+                }
+                keyToResultMap.put(key, results[i]);
+                keyToErrorMap.put(key, errors[i]);
+            }
+        }
+        if (converted) {
+            HttpMetrics.get().recordConvert(System.nanoTime() - convertStartNanos);
+        }
         UiHandler.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if (callback != null) {
-                    callback.onSuccess(response);
-
-                    if (callback instanceof HttpResultCallback) {
-                        try {
-                            ((HttpResultCallback) callback).onSuccess(new String(response.data,
-                                    request.getHttpConfig().getEncoding()));
-                        } catch (UnsupportedEncodingException e) {
-                        }
-                    } else if (callback instanceof HttpBitmapCallback) {
-                        Bitmap bitmap = ((HttpBitmapCallback) callback).onProcessBitmap(response.data);
-                        if (bitmap == null){
-                            BitmapFactory.decodeByteArray(response.data, 0, response.data.length);
+                for (int i = 0; i < size; i++) {
+                    HttpRequest subscriber = subscribers.get(i);
+                    HttpCallback callback = subscriber.getHttpCallback();
+                    if (callback == null) {
+                        continue;
+                    }
+                    if (subscriber.isCancel()) {
+                        if (subscriber.markCancelDelivered()) {
+                            callback.onCancel(subscriber);
                         }
-
-                        ((HttpBitmapCallback) callback).onSuccess(bitmap);
+                        continue;
+                    }
+                    HttpResponse subResponse = responses[i] != null ? responses[i] : responseFor(subscriber, response);
+                    if (errors[i] != null) {
+                        subResponse.errorMessage = "无法转换响应: " + errors[i].getMessage();
+                        callback.onFailure(subResponse);
+                        callback.onFinish(subResponse);
+                        onCallbackDelivered(subscriber, false);
+                        continue;
                     }
+                    callback.onSuccess(subResponse);
+                    deliverResult(callback, results[i]);
+                    callback.onFinish(subResponse);
+                    onCallbackDelivered(subscriber, true);
                 }
             }
         });
     }
 
     /**
-     * 取得缓存的过期时间
+     * 记录请求的回调已经执行完(主线程)
      *
-     * @param snapshot 缓存快照
-     * @param hashUrl  缓存对应的url键
-     * @return
+     * @param request 请求
+     * @param success 是否成功
      */
-    private long getTimeoutDate(DiskLruCache.Snapshot snapshot, String hashUrl) {
-        if (enableDiskLruCache && hashUrl != null) {
-            try {
-                return Long.valueOf(snapshot.getString(1));
-            } catch (Throwable e) {
+    private static void onCallbackDelivered(HttpRequest request, boolean success) {
+        long nanos = System.nanoTime();
+        request.timings.deliveredNanos = nanos;
+        HttpEventListener listener = request.getHttpConfig().getEventListener();
+        if (listener != null) {
+            listener.onCallbackDelivered(request, nanos, success);
+        }
+    }
+
+    /**
+     * @param callback Http回调
+     * @return 回调是否需要转换后的结果
+     */
+    private static boolean needsConversion(HttpCallback callback) {
+        return callback instanceof HttpResultCallback
+                || callback instanceof HttpBitmapCallback
+                || callback instanceof HttpConverterCallback;
+    }
+
+    /**
+     * 取得回调的转换方式,转换方式相同的回调可以共享转换结果:
+     * 字符串和默认的图片解码按类型区分,自定义了{@link HttpBitmapCallback#onProcessBitmap(byte[])}的回调不共享,
+     * 指定了转换器的回调按转换器区分,其余按结果类型区分.
+     *
+     * @param callback Http回调
+     * @return 转换方式
+     */
+    private static Object conversionKey(HttpCallback callback) {
+        if (callback instanceof HttpResultCallback) {
+            return StringConverter.class;
+        }
+        if (callback instanceof HttpBitmapCallback) {
+            return overridesProcessBitmap(callback.getClass()) ? callback : BitmapConverter.class;
+        }
+        HttpConverterCallback<?> converterCallback = (HttpConverterCallback<?>) callback;
+        ResponseConverter<?> converter = converterCallback.getConverter();
+        return converter != null ? converter : converterCallback.getResultType();
+    }
+
+    /**
+     * @param type 图片回调的类型
+     * @return 是否自定义了图片的解码
+     */
+    private static boolean overridesProcessBitmap(Class<?> type) {
+        try {
+            return type.getMethod("onProcessBitmap", byte[].class).getDeclaringClass() != HttpBitmapCallback.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 在工作线程把响应转换为回调需要的类型
+     *
+     * @param callback Http回调
+     * @param response 回调对应的响应
+     * @return 转换结果
+     * @throws Exception 转换失败
+     */
+    private static Object convert(HttpCallback callback, HttpResponse response) throws Exception {
+        if (callback instanceof HttpResultCallback) {
+            return new StringConverter().convert(response);
+        }
+        if (callback instanceof HttpBitmapCallback) {
+            Bitmap bitmap = ((HttpBitmapCallback) callback).onProcessBitmap(response.data);
+            if (bitmap == null) {
+                bitmap = new BitmapConverter().convert(response);
+            }
+            return bitmap;
+        }
+        HttpConverterCallback<?> converterCallback = (HttpConverterCallback<?>) callback;
+        ResponseConverter<?> converter = converterCallback.getConverter();
+        if (converter == null) {
+            Class<?> type = converterCallback.getResultType();
+            converter = response.httpRequest.getHttpConfig().getConverter(type);
+            if (converter == null) {
+                //没有注册转换器的类型当作Json Bean读取
+                converter = new BeanConverter<>(type);
             }
         }
-        return -1;
+        return converter.convert(response);
     }
 
+    /**
+     * 在主线程把转换结果交给回调
+     *
+     * @param callback Http回调
+     * @param result   转换结果
+     */
+    @SuppressWarnings("unchecked")
+    private static void deliverResult(HttpCallback callback, Object result) {
+        if (callback instanceof HttpResultCallback) {
+            ((HttpResultCallback) callback).onSuccess((String) result);
+        } else if (callback instanceof HttpBitmapCallback) {
+            ((HttpBitmapCallback) callback).onSuccess((Bitmap) result);
+        } else if (callback instanceof HttpConverterCallback) {
+            ((HttpConverterCallback<Object>) callback).onSuccess(result);
+        }
+    }
 
     /**
      * 新建一个Http请求执行器
@@ -4,36 +4,77 @@ import com.lody.welike.WelikeHttp;
 import com.lody.welike.http.callback.HttpCallback;
 import com.lody.welike.utils.UiHandler;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.List;
 
 /**
  * Http请求的队列循环,负责Http请求的拉取.<br>
  * 一个{@link WelikeHttp}实例只有一个{@link HttpRequestQueue}.
+ * 请求按{@link RequestPriority}出队,并且只有在执行中的请求数小于并发量时才会派发,
+ * 这样排队中的请求始终保持优先级顺序.
+ * 派发时还需要占用请求所在主机的名额,主机名额已满的请求转到{@link HttpSessionManager}的主机队列中等待,
+ * 名额释放后再回到本队列.
  *
  * @author Lody
  */
 public class HttpRequestQueue implements Runnable {
 
     /**
-     * Http请求的队列,拉去不到会阻塞.
+     * Http请求的优先级队列,拉去不到会阻塞.
      */
-    private BlockingQueue<HttpRequest> requestQueue = new LinkedBlockingDeque<>(/*MAX*/);
+    private final RequestPriorityQueue requestQueue;
+
+    /**
+     * 同时执行的请求上限
+     */
+    private int maxInFlight;
+
+    /**
+     * 正在执行的请求数
+     */
+    private int inFlight;
 
     /**
      * 是否已经退出
      */
     private boolean mQuit = false;
 
+    public HttpRequestQueue() {
+        this(HttpConfig.DEFAULT_CONCURRENCY, HttpConfig.DEFAULT_PRIORITY_AGING_TIME);
+    }
+
+    /**
+     * @param config Http配置,使用其中的并发量和优先级老化时间
+     */
+    public HttpRequestQueue(HttpConfig config) {
+        this(config.concurrency, config.priorityAgingTime);
+    }
+
+    /**
+     * @param maxInFlight 同时执行的请求上限
+     * @param agingMillis 优先级老化时间(毫秒)
+     */
+    public HttpRequestQueue(int maxInFlight, long agingMillis) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.requestQueue = new RequestPriorityQueue(agingMillis);
+    }
+
     /**
      * 向队列中添加一个Http请求
      *
      * @param request
      */
     public synchronized void enqueue(HttpRequest request) {
-        try {
-            requestQueue.put(request);
-        } catch (InterruptedException ignored) {
+        if (mQuit) {
+            return;
+        }
+        long now = System.nanoTime();
+        request.timings.enqueueNanos = now;
+        request.requestQueue = this;
+        requestQueue.offer(request);
+        notifyAll();
+        HttpEventListener listener = request.getHttpConfig().getEventListener();
+        if (listener != null) {
+            listener.onEnqueue(request, now);
         }
     }
 
@@ -42,19 +83,19 @@ public class HttpRequestQueue implements Runnable {
 
         for (; ; ) {//while(true)的效率不如for(;;),话说,优化效率要从娃娃抓起...
             try {
-                //如果队列中没有请求,就会阻塞,直到填充
-                final HttpRequest request = requestQueue.take();
+                //如果队列中没有请求或者并发已满,就会阻塞
+                final HttpRequest request = take();
+                if (request == null) {
+                    break;
+                }
                 //请求已经取消
                 if (request.isCancel()) {
-                    synchronized (request) {
-                        final HttpCallback callback = request.getHttpCallback();
-                        if (callback != null) {
-                            //调用onCancel
-                            runCancelOnUiThread(callback, request);
-                        }
-                        //结束会话
-                        request.getSession().finish();
-                    }
+                    //从主机队列回来的请求已经占用了主机的名额
+                    releaseHostSlot(request);
+                    //调用onCancel
+                    runCancelOnUiThread(request);
+                    //结束会话
+                    request.getSession().finish();
                     continue;
                 }
                 dispatchRequest(request);
@@ -70,13 +111,138 @@ public class HttpRequestQueue implements Runnable {
 
     }
 
+    /**
+     * 取出下一个需要执行的请求,
+     * 取消的请求不占用并发名额.
+     *
+     * @return 请求, 队列退出时返回null
+     * @throws InterruptedException
+     */
+    private synchronized HttpRequest take() throws InterruptedException {
+        for (; ; ) {
+            if (mQuit) {
+                return null;
+            }
+            HttpRequest head = requestQueue.peek();
+            if (head != null && (head.isCancel() || inFlight < maxInFlight)) {
+                requestQueue.poll();
+                if (head.isCancel()) {
+                    head.requestQueue = null;
+                    return head;
+                }
+                if (!head.holdsHostSlot && !HttpSessionManager.getManager().tryAcquire(head)) {
+                    //主机的名额已满,请求进入主机的队列,继续派发其它请求
+                    continue;
+                }
+                inFlight++;
+                return head;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * 一个派发出去的请求执行完成,释放它占用的并发名额.
+     *
+     * @param request
+     */
+    /*package*/ void onRequestFinished(HttpRequest request) {
+        synchronized (this) {
+            if (request.requestQueue == this) {
+                request.requestQueue = null;
+                inFlight--;
+                notifyAll();
+            }
+        }
+        //不持有队列的锁,主机队列中的请求可能属于其它队列
+        releaseHostSlot(request);
+    }
+
+    /**
+     * 释放请求占用的主机名额,并把名额转给主机队列中等待的请求.
+     *
+     * @param request
+     */
+    private static void releaseHostSlot(HttpRequest request) {
+        HttpRequest next = HttpSessionManager.getManager().release(request);
+        if (next != null) {
+            onHostSlotGranted(next);
+        }
+    }
+
+    /**
+     * 主机队列中的请求获得了名额,放回它所在的请求队列的最前面.
+     * 请求队列已经退出时释放名额,交给下一个等待的请求.
+     *
+     * @param request
+     */
+    /*package*/ static void onHostSlotGranted(HttpRequest request) {
+        while (request != null) {
+            HttpRequestQueue queue = request.requestQueue;
+            if (queue != null && queue.offerGranted(request)) {
+                return;
+            }
+            request = HttpSessionManager.getManager().release(request);
+        }
+    }
+
+    private synchronized boolean offerGranted(HttpRequest request) {
+        if (mQuit) {
+            return false;
+        }
+        requestQueue.offerFirst(request);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * 修改请求的优先级,如果请求还在排队,会按新的优先级重新排序.
+     *
+     * @param request
+     * @param priority
+     */
+    /*package*/ synchronized void changePriority(HttpRequest request, RequestPriority priority) {
+        request.priority = priority;
+        requestQueue.reposition(request);
+    }
+
+    /**
+     * 从队列或主机的队列中移除一个取消的请求,并回调onCancel.
+     *
+     * @param request 取消的Http请求
+     * @return 请求是否还在排队
+     */
+    /*package*/ boolean removeCancelled(HttpRequest request) {
+        boolean removed;
+        synchronized (this) {
+            removed = request.requestQueue == this && requestQueue.remove(request);
+        }
+        if (!removed) {
+            removed = HttpSessionManager.getManager().removeWaiting(request);
+        }
+        if (!removed) {
+            return false;
+        }
+        synchronized (this) {
+            request.requestQueue = null;
+            notifyAll();
+        }
+        releaseHostSlot(request);
+        runCancelOnUiThread(request);
+        request.getSession().finish();
+        return true;
+    }
+
     /**
      * 在主线程执行onCancel回调
      *
-     * @param callback Http回调
-     * @param request  取消的Http请求
+     * @param request 取消的Http请求
      */
-    private void runCancelOnUiThread(final HttpCallback callback, final HttpRequest request) {
+    private static void runCancelOnUiThread(final HttpRequest request) {
+        final HttpCallback callback = request.getHttpCallback();
+        if (callback == null || !request.markCancelDelivered()) {
+            return;
+        }
         UiHandler.runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -86,18 +252,19 @@ public class HttpRequestQueue implements Runnable {
     }
 
     /**
-     * 派发Http请求
+     * 派发Http请求,请求直接交给{@link com.lody.welike.utils.TaskScheduler.Lane#NETWORK}通道的工作线程,
+     * 不再经过主线程中转,onPreRequest等回调仍会在主线程执行.
      *
      * @param httpRequest
      */
     private void dispatchRequest(final HttpRequest httpRequest) {
-        UiHandler.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                HttpRequestExecutor.newExecutor(httpRequest).execute();
-            }
-        });
-
+        long now = System.nanoTime();
+        httpRequest.timings.dequeueNanos = now;
+        HttpEventListener listener = httpRequest.getHttpConfig().getEventListener();
+        if (listener != null) {
+            listener.onDequeue(httpRequest, now);
+        }
+        HttpRequestExecutor.newExecutor(httpRequest).execute();
     }
 
     /**
@@ -105,32 +272,77 @@ public class HttpRequestQueue implements Runnable {
      *
      * @return
      */
-    public HttpRequest peekRequest() {
+    public synchronized HttpRequest peekRequest() {
         return requestQueue.peek();
     }
 
+    /**
+     * 设置同时执行的请求上限
+     *
+     * @param maxInFlight
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        notifyAll();
+    }
+
+    /**
+     * 设置优先级老化时间
+     *
+     * @param agingMillis 老化时间(毫秒)
+     */
+    public synchronized void setAgingTime(long agingMillis) {
+        requestQueue.setAgingTime(agingMillis);
+    }
+
+    /**
+     * @return 正在排队的请求数
+     */
+    public synchronized int getQueuedCount() {
+        return requestQueue.size();
+    }
+
+    /**
+     * @return 正在执行的请求数
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
 
     /**
      * 退出,队列不再继续循环.
      */
     public void quit() {
         synchronized (this) {
-            cancelAll();
             mQuit = true;
-            requestQueue.clear();
+            notifyAll();
         }
-        requestQueue = null;
+        //释放主机名额时可能要操作其它队列,不能持有本队列的锁
+        cancelAll();
     }
 
     /**
      * 取消队列中的所有任务
      */
     public void cancelAll() {
+        List<HttpRequest> requests;
         synchronized (this) {
-            for (HttpRequest request : requestQueue) {
-                request.cancel();
+            requests = requestQueue.drain();
+            for (HttpRequest request : requests) {
+                request.requestQueue = null;
             }
-            requestQueue.clear();
+        }
+        List<HttpRequest> waiting = HttpSessionManager.getManager().removeWaiting(this);
+        for (HttpRequest request : waiting) {
+            request.requestQueue = null;
+        }
+        requests.addAll(waiting);
+        for (HttpRequest request : requests) {
+            request.cancel();
+            releaseHostSlot(request);
+            runCancelOnUiThread(request);
+            request.getSession().finish();
         }
     }
 
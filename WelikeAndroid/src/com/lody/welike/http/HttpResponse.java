@@ -50,6 +50,18 @@ public class HttpResponse implements Serializable {
      * 返回的响应头
      */
     public Map<String, List<String>> header;
+    /**
+     * 响应在缓存中的过期时间,0表示永久有效(响应没有被缓存时也为0).
+     */
+    public transient long cacheExpiryDate;
+    /**
+     * 响应是否来自一个经服务器验证(304 Not Modified)仍然有效的缓存
+     */
+    public transient boolean notModified;
+    /**
+     * 响应是否来自一个已经过期的缓存(网络出错时或在后台验证前使用)
+     */
+    public transient boolean stale;
     /**
      * Http响应对应的Http请求
      */
@@ -65,6 +77,16 @@ public class HttpResponse implements Serializable {
         this.responseCode = response.responseCode;
         this.lastModifiedTime = response.lastModifiedTime;
         this.responseMessage = response.responseMessage;
+        this.cacheExpiryDate = response.cacheExpiryDate;
+        this.notModified = response.notModified;
+        this.stale = response.stale;
+    }
+
+    /**
+     * @return 响应是否来自一个已经过期的缓存, 界面可以据此提示数据可能不是最新的
+     */
+    public boolean isStale() {
+        return stale;
     }
 
     /**
@@ -0,0 +1,1304 @@
+package com.lody.welike.http;
+
+import com.lody.welike.utils.DiskLruCache;
+import com.lody.welike.utils.HashUtils;
+import com.lody.welike.utils.IOUtils;
+import com.lody.welike.utils.MemoryLruCache;
+import com.lody.welike.utils.WeLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Http响应的磁盘缓存,基于{@link HttpConfig#getDiskLruCache()}.
+ * <br>
+ * 每个缓存项对应DiskLruCache中的两个值:
+ * 第一个值是带版本号的二进制元数据(过期时间,响应码,响应头等),
+ * 第二个值是原始的响应体.
+ * 读取缓存时不需要反射和反序列化,响应体可以直接从缓存文件流式读取.
+ * 旧版本使用Java序列化写入的缓存会在第一次读取时迁移为新格式.
+ * <br>
+ * 设置了{@link HttpConfig#memoryCacheSize}时,磁盘前面还有一层按字节计算大小的内存缓存,
+ * 较小的响应(不超过内存缓存的{@value #MAX_MEMORY_ENTRY_DIVISOR}分之一)连同响应体保存在内存中,
+ * 命中时不需要打开缓存文件.两层缓存使用相同的有效期,移除和更新有效期时同时生效.
+ * <br>
+ * {@link #putAsync}把写入交给{@link HttpCacheWriter}在磁盘通道完成,journal按批次刷新.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class HttpResponseCache {
+
+    /**
+     * 元数据所在的值索引
+     */
+    /*package*/ static final int META_INDEX = 0;
+    /**
+     * 响应体所在的值索引
+     */
+    /*package*/ static final int BODY_INDEX = 1;
+
+    /**
+     * 元数据的文件头("WLHC")
+     */
+    private static final int MAGIC = 0x574c4843;
+
+    /**
+     * 当前的元数据版本
+     * <ul>
+     * <li>1: 初始版本</li>
+     * <li>2: 增加stale-while-revalidate和stale-if-error的时长</li>
+     * <li>3: 增加响应体的存储编码</li>
+     * </ul>
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Java序列化流的文件头,用于识别旧格式的缓存
+     */
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xaced;
+
+    /**
+     * 单个缓存项最多占内存缓存的几分之一
+     */
+    private static final int MAX_MEMORY_ENTRY_DIVISOR = 8;
+
+    /**
+     * 最多记录多少个Key的代数,超过时清空,之前开始的读取都不再放入内存缓存
+     */
+    private static final int MAX_TRACKED_GENERATIONS = 1024;
+
+    private final HttpConfig config;
+
+    /**
+     * 内存缓存,Key与DiskLruCache的Key相同
+     */
+    private MemoryLruCache<String, Entry> memoryCache;
+    /**
+     * 内存缓存对应的DiskLruCache,DiskLruCache被重新创建时内存缓存随之清空
+     */
+    private DiskLruCache memoryCacheOwner;
+
+    /**
+     * 缓存项最后一次被替换或删除时的代数.
+     * 从磁盘读到的缓存项只有在读取期间没有被替换或删除时才放入内存缓存,
+     * 否则会用旧的数据覆盖新写入的缓存项,或者让已删除的缓存项重新出现.
+     */
+    private final Map<String, Long> keyToGenerationMap = new HashMap<>();
+    private long generation;
+    /**
+     * 早于这一代开始的读取无法判断是否被替换过
+     */
+    private long generationFloor;
+
+    private final AtomicLong memoryHitCount = new AtomicLong();
+    private final AtomicLong memoryMissCount = new AtomicLong();
+    private final AtomicLong diskHitCount = new AtomicLong();
+    private final AtomicLong diskMissCount = new AtomicLong();
+
+    /**
+     * 后台写入器,同时负责合并journal的刷新
+     */
+    private final HttpCacheWriter cacheWriter;
+
+    /*package*/ HttpResponseCache(HttpConfig config) {
+        this.config = config;
+        this.cacheWriter = new HttpCacheWriter(config, this);
+    }
+
+    /**
+     * Note:不要保存DiskLruCache的引用,因为DiskLruCache可能被重新创建.
+     *
+     * @return 当前可用的DiskLruCache, 没有开启缓存时返回null
+     */
+    private DiskLruCache diskCache() {
+        return config.enableDiskCache ? config.getDiskLruCache() : null;
+    }
+
+    /**
+     * 取得内存缓存,大小随{@link HttpConfig#memoryCacheSize}调整
+     *
+     * @param disk 当前的DiskLruCache
+     * @return 内存缓存, 没有开启时返回null
+     */
+    private synchronized MemoryLruCache<String, Entry> memoryCache(DiskLruCache disk) {
+        int maxSize = config.memoryCacheSize;
+        if (maxSize <= 0) {
+            memoryCache = null;
+            memoryCacheOwner = null;
+            return null;
+        }
+        if (memoryCache == null || memoryCacheOwner != disk) {
+            memoryCache = new MemoryLruCache<String, Entry>(maxSize) {
+                @Override
+                protected int sizeOf(String key, Entry value) {
+                    return value.memorySize();
+                }
+            };
+            memoryCacheOwner = disk;
+        } else if (memoryCache.maxSize() != maxSize) {
+            memoryCache.resize(maxSize);
+        }
+        return memoryCache;
+    }
+
+    /**
+     * 读取一个缓存项,使用完毕后必须调用{@link Entry#close()}.
+     * 先查找写入队列和内存缓存,再查找磁盘缓存,从磁盘读到的较小的缓存项会放入内存缓存.
+     *
+     * @param cacheKey 请求的缓存Key,见{@link HttpRequest#getCacheKey()}
+     * @return 缓存项, 不存在或已损坏时返回null
+     */
+    public Entry get(String cacheKey) {
+        DiskLruCache cache = diskCache();
+        if (cache == null) {
+            return null;
+        }
+        String hashKey = HashUtils.hashKey(cacheKey);
+        HttpCacheWriter.PendingWrite write = cacheWriter.getPending(hashKey);
+        if (write != null) {
+            //还没有写入磁盘,算作内存命中
+            memoryHitCount.incrementAndGet();
+            return write.entry.copy();
+        }
+        MemoryLruCache<String, Entry> memory = memoryCache(cache);
+        if (memory != null) {
+            Entry cached = memory.get(hashKey);
+            if (cached != null) {
+                memoryHitCount.incrementAndGet();
+                if (config.debugMode) WeLog.d("内存缓存命中: " + cacheKey);
+                //返回副本,使用者修改有效期不会影响内存中的缓存项
+                return cached.copy();
+            }
+            memoryMissCount.incrementAndGet();
+        }
+        long readGeneration = currentGeneration();
+        Entry entry = getFromDisk(cache, cacheKey, hashKey);
+        if (entry == null) {
+            diskMissCount.incrementAndGet();
+            return null;
+        }
+        diskHitCount.incrementAndGet();
+        if (memory != null && entry.getBodyLength() <= memory.maxSize() / MAX_MEMORY_ENTRY_DIVISOR) {
+            return promote(cache, memory, hashKey, entry, readGeneration);
+        }
+        return entry;
+    }
+
+    /**
+     * 把从磁盘读到的缓存项连同响应体放入内存缓存,
+     * 读取期间缓存项被替换或删除时只返回结果,不放入内存缓存.
+     *
+     * @param readGeneration 开始从磁盘读取时的代数
+     * @return 内存中缓存项的副本, 读取响应体失败时返回null
+     */
+    private Entry promote(DiskLruCache cache, MemoryLruCache<String, Entry> memory, String hashKey, Entry entry,
+                          long readGeneration) {
+        Entry memoryEntry = entry.copy();
+        try {
+            memoryEntry.body = entry.readBody();
+        } catch (IOException e) {
+            if (config.debugMode) WeLog.w("读取缓存失败,原因: " + e.getMessage());
+            try {
+                cache.remove(hashKey);
+            } catch (IOException ignored) {
+            }
+            return null;
+        } finally {
+            entry.close();
+        }
+        //内存中保存解压后的响应体
+        memoryEntry.bodyEncoding = null;
+        putMemoryIfUnchanged(memory, hashKey, memoryEntry, readGeneration);
+        return memoryEntry.copy();
+    }
+
+    /**
+     * 缓存项在startGeneration之后没有被替换或删除时放入内存缓存.
+     * 检查和放入在内存缓存的锁中进行,与{@link #removeMemory(DiskLruCache, String)}互斥.
+     */
+    private void putMemoryIfUnchanged(MemoryLruCache<String, Entry> memory, String hashKey, Entry memoryEntry,
+                                      long startGeneration) {
+        synchronized (memory) {
+            if (isReplacedSince(hashKey, startGeneration)) {
+                if (config.debugMode) WeLog.d("缓存项已被替换,不放入内存缓存: " + hashKey);
+                return;
+            }
+            putMemory(memory, hashKey, memoryEntry);
+        }
+    }
+
+    /**
+     * @return 当前的代数
+     */
+    private long currentGeneration() {
+        synchronized (keyToGenerationMap) {
+            return generation;
+        }
+    }
+
+    /**
+     * 记录缓存项被替换或删除
+     *
+     * @return 新的代数
+     */
+    private long bumpGeneration(String hashKey) {
+        synchronized (keyToGenerationMap) {
+            generation++;
+            if (keyToGenerationMap.size() >= MAX_TRACKED_GENERATIONS) {
+                keyToGenerationMap.clear();
+                generationFloor = generation;
+            }
+            keyToGenerationMap.put(hashKey, generation);
+            return generation;
+        }
+    }
+
+    /**
+     * @return 缓存项在startGeneration之后是否被替换或删除过
+     */
+    private boolean isReplacedSince(String hashKey, long startGeneration) {
+        synchronized (keyToGenerationMap) {
+            if (startGeneration < generationFloor) {
+                return true;
+            }
+            Long changed = keyToGenerationMap.get(hashKey);
+            return changed != null && changed > startGeneration;
+        }
+    }
+
+    private static void putMemory(MemoryLruCache<String, Entry> memory, String hashKey, Entry memoryEntry) {
+        if (memoryEntry.memorySize() <= memory.maxSize() / MAX_MEMORY_ENTRY_DIVISOR) {
+            memory.put(hashKey, memoryEntry);
+        } else {
+            memory.remove(hashKey);
+        }
+    }
+
+    /**
+     * 从内存缓存中删除缓存项,并让正在从磁盘读取的旧数据不再放入内存缓存.
+     * 磁盘上的缓存项改变前后都需要调用,否则改变前开始的读取仍可能放入旧数据.
+     *
+     * @return 新的代数
+     */
+    private long removeMemory(DiskLruCache cache, String hashKey) {
+        MemoryLruCache<String, Entry> memory = memoryCache(cache);
+        if (memory == null) {
+            return bumpGeneration(hashKey);
+        }
+        synchronized (memory) {
+            long newGeneration = bumpGeneration(hashKey);
+            memory.remove(hashKey);
+            return newGeneration;
+        }
+    }
+
+    /**
+     * 从磁盘读取一个缓存项
+     */
+    private Entry getFromDisk(DiskLruCache cache, String cacheKey, String hashKey) {
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = cache.get(hashKey);
+            if (snapshot == null) {
+                return null;
+            }
+            BufferedInputStream metaStream = new BufferedInputStream(snapshot.getInputStream(META_INDEX));
+            metaStream.mark(4);
+            DataInputStream in = new DataInputStream(metaStream);
+            int magic = in.readInt();
+            if (magic == MAGIC) {
+                Entry entry = readEntry(in);
+                if (entry != null) {
+                    entry.snapshot = snapshot;
+                    return entry;
+                }
+            } else if ((magic >>> 16) == JAVA_SERIALIZATION_MAGIC) {
+                metaStream.reset();
+                HttpResponse legacy = readLegacy(metaStream, snapshot);
+                snapshot.close();
+                snapshot = null;
+                if (legacy != null && migrate(cacheKey, legacy)) {
+                    return getFromDisk(cache, cacheKey, hashKey);
+                }
+            }
+        } catch (Throwable e) {
+            if (config.debugMode) WeLog.w("读取缓存失败,原因: " + e.getMessage());
+        }
+        //无法识别的缓存直接丢弃
+        if (snapshot != null) {
+            snapshot.close();
+        }
+        try {
+            cache.remove(hashKey);
+        } catch (IOException ignored) {
+        }
+        return null;
+    }
+
+    /**
+     * 读取元数据
+     *
+     * @param in 已经读过文件头的输入流
+     * @return 缓存项, 版本无法识别时返回null
+     * @throws IOException
+     */
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version > VERSION) {
+            return null;
+        }
+        Entry entry = new Entry();
+        entry.expiryDate = in.readLong();
+        if (version >= 2) {
+            entry.staleWhileRevalidate = in.readLong();
+            entry.staleIfError = in.readLong();
+        }
+        entry.responseCode = in.readInt();
+        entry.responseMessage = readNullableString(in);
+        entry.contentType = readNullableString(in);
+        entry.contentEncoding = readNullableString(in);
+        entry.lastModifiedTime = in.readLong();
+        entry.contentLength = in.readInt();
+        int headerSize = in.readInt();
+        entry.header = new HashMap<>(headerSize);
+        for (int i = 0; i < headerSize; i++) {
+            String key = readNullableString(in);
+            int valueSize = in.readInt();
+            List<String> values = new ArrayList<>(valueSize);
+            for (int j = 0; j < valueSize; j++) {
+                values.add(readNullableString(in));
+            }
+            entry.header.put(key, values);
+        }
+        if (version >= 3) {
+            entry.bodyEncoding = readNullableString(in);
+        }
+        return entry;
+    }
+
+    /**
+     * 读取旧格式(Java序列化)的缓存
+     */
+    private static HttpResponse readLegacy(InputStream metaStream, DiskLruCache.Snapshot snapshot) throws Exception {
+        ObjectInputStream objectInputStream = new ObjectInputStream(metaStream);
+        HttpResponse legacy = (HttpResponse) objectInputStream.readObject();
+        if (legacy != null) {
+            //旧格式的第二个值是过期时间
+            legacy.cacheExpiryDate = Long.valueOf(snapshot.getString(BODY_INDEX));
+        }
+        return legacy;
+    }
+
+    /**
+     * 将旧格式的缓存重写为新格式
+     */
+    private boolean migrate(String cacheKey, HttpResponse legacy) {
+        if (config.debugMode) WeLog.d("迁移旧格式的缓存: " + cacheKey);
+        return put(cacheKey, legacy, new CacheFreshness(legacy.cacheExpiryDate));
+    }
+
+    /**
+     * 写入一个响应体已经在内存中的响应
+     *
+     * @param cacheKey   请求的缓存Key
+     * @param response   响应
+     * @param expiryDate 过期时间,0表示永久有效
+     * @return 是否写入成功
+     */
+    public boolean put(String cacheKey, HttpResponse response, long expiryDate) {
+        return put(cacheKey, response, new CacheFreshness(expiryDate));
+    }
+
+    /**
+     * 写入一个响应体已经在内存中的响应
+     *
+     * @param cacheKey  请求的缓存Key
+     * @param response  响应
+     * @param freshness 响应的有效期
+     * @return 是否写入成功
+     */
+    public boolean put(String cacheKey, HttpResponse response, CacheFreshness freshness) {
+        return put(cacheKey, response, freshness, response.data, null);
+    }
+
+    /**
+     * 写入一个响应,响应体以指定的编码保存
+     *
+     * @param cacheKey     请求的缓存Key
+     * @param response     响应
+     * @param freshness    响应的有效期
+     * @param body         要保存的响应体
+     * @param bodyEncoding 响应体的编码(如{@link ContentCodec#GZIP}),null表示未压缩
+     * @return 是否写入成功
+     */
+    public boolean put(String cacheKey, HttpResponse response, CacheFreshness freshness,
+                       byte[] body, String bodyEncoding) {
+        DiskLruCache cache = diskCache();
+        if (cache == null) {
+            return false;
+        }
+        String hashKey = HashUtils.hashKey(cacheKey);
+        cacheWriter.cancel(hashKey);
+        return putNow(cache, hashKey, response, freshness, body, bodyEncoding,
+                memoryEntryOf(response, freshness, body, bodyEncoding));
+    }
+
+    /**
+     * 在后台写入一个响应体已经在内存中的响应,调用者不需要等待磁盘.
+     * 写入完成前读取这个缓存项会直接使用写入队列中的数据.
+     * {@link HttpConfig#cacheWriteQueueSize}为0时同步写入.
+     *
+     * @param cacheKey     请求的缓存Key
+     * @param response     响应
+     * @param freshness    响应的有效期
+     * @param body         要保存的响应体
+     * @param bodyEncoding 响应体的编码(如{@link ContentCodec#GZIP}),null表示未压缩
+     * @return 是否已经放入写入队列(同步写入时为是否写入成功), 队列已满时返回false
+     */
+    public boolean putAsync(String cacheKey, HttpResponse response, CacheFreshness freshness,
+                            byte[] body, String bodyEncoding) {
+        Entry entry = memoryEntryOf(response, freshness, body, bodyEncoding);
+        if (config.cacheWriteQueueSize <= 0 || entry == null) {
+            return put(cacheKey, response, freshness, body, bodyEncoding);
+        }
+        DiskLruCache cache = diskCache();
+        if (cache == null) {
+            return false;
+        }
+        String hashKey = HashUtils.hashKey(cacheKey);
+        //内存中的旧缓存项即将被替换
+        removeMemory(cache, hashKey);
+        return cacheWriter.enqueue(new HttpCacheWriter.PendingWrite(cacheKey, hashKey, entry, freshness,
+                body, bodyEncoding, entry.body));
+    }
+
+    /**
+     * 在磁盘通道写入队列中的缓存项
+     *
+     * @param write 缓存项
+     * @return 是否写入成功
+     */
+    /*package*/ boolean write(HttpCacheWriter.PendingWrite write) {
+        DiskLruCache cache = diskCache();
+        if (cache == null) {
+            return false;
+        }
+        Entry entry = write.entry;
+        HttpResponse response = new HttpResponse();
+        entry.applyTo(response);
+        return putNow(cache, write.hashKey, response, write.freshness, write.body, write.bodyEncoding, entry.copy());
+    }
+
+    /**
+     * 从内存和磁盘中删除缓存项,不影响写入队列
+     *
+     * @param hashKey 缓存项的Key
+     */
+    /*package*/ void removeFromDisk(String hashKey) {
+        DiskLruCache cache = diskCache();
+        if (cache != null) {
+            removeMemory(cache, hashKey);
+            try {
+                cache.remove(hashKey);
+            } catch (IOException ignored) {
+            }
+            removeMemory(cache, hashKey);
+        }
+    }
+
+    /**
+     * 构造用于内存缓存的缓存项,响应体为解压后的数据
+     *
+     * @return 缓存项, 无法得到解压后的响应体时返回null
+     */
+    private static Entry memoryEntryOf(HttpResponse response, CacheFreshness freshness,
+                                       byte[] body, String bodyEncoding) {
+        byte[] decodedBody = response.data;
+        if (decodedBody == null && bodyEncoding == null) {
+            decodedBody = body != null ? body : new byte[0];
+        }
+        if (decodedBody == null) {
+            return null;
+        }
+        Entry entry = Entry.of(response, freshness);
+        entry.body = decodedBody;
+        return entry;
+    }
+
+    /**
+     * 立即写入磁盘,成功后放入内存缓存
+     */
+    private boolean putNow(DiskLruCache cache, String hashKey, HttpResponse response, CacheFreshness freshness,
+                           byte[] body, String bodyEncoding, Entry memoryEntry) {
+        Writer writer = openWriter(cache, hashKey, response, freshness, bodyEncoding);
+        if (writer == null) {
+            return false;
+        }
+        try {
+            OutputStream bodyStream = writer.bodyStream();
+            if (body != null) {
+                bodyStream.write(body);
+            }
+            bodyStream.close();
+            if (!writer.commit()) {
+                return false;
+            }
+        } catch (IOException e) {
+            writer.abort();
+            return false;
+        }
+        MemoryLruCache<String, Entry> memory = memoryCache(cache);
+        if (memory != null && memoryEntry != null) {
+            //提交后被删除或再次替换时不能放入内存缓存
+            putMemoryIfUnchanged(memory, hashKey, memoryEntry, writer.committedGeneration);
+        }
+        return true;
+    }
+
+    /**
+     * 开始写入一个缓存项,元数据会立即写入,响应体通过{@link Writer#bodyStream()}写入.
+     *
+     * @param cacheKey   请求的缓存Key
+     * @param response   已经填充了响应码和响应头的响应
+     * @param expiryDate 过期时间,0表示永久有效
+     * @return 写入器, 同一个缓存项正在被写入时返回null
+     */
+    public Writer edit(String cacheKey, HttpResponse response, long expiryDate) {
+        return edit(cacheKey, response, new CacheFreshness(expiryDate));
+    }
+
+    /**
+     * 开始写入一个缓存项,元数据会立即写入,响应体通过{@link Writer#bodyStream()}写入.
+     *
+     * @param cacheKey  请求的缓存Key
+     * @param response  已经填充了响应码和响应头的响应
+     * @param freshness 响应的有效期
+     * @return 写入器, 同一个缓存项正在被写入时返回null
+     */
+    public Writer edit(String cacheKey, HttpResponse response, CacheFreshness freshness) {
+        return edit(cacheKey, response, freshness, null);
+    }
+
+    /**
+     * 开始写入一个缓存项,元数据会立即写入,响应体通过{@link Writer#bodyStream()}写入.
+     *
+     * @param cacheKey     请求的缓存Key
+     * @param response     已经填充了响应码和响应头的响应
+     * @param freshness    响应的有效期
+     * @param bodyEncoding 写入的响应体的编码,null表示未压缩
+     * @return 写入器, 同一个缓存项正在被写入时返回null
+     */
+    public Writer edit(String cacheKey, HttpResponse response, CacheFreshness freshness, String bodyEncoding) {
+        DiskLruCache cache = diskCache();
+        if (cache == null) {
+            return null;
+        }
+        String hashKey = HashUtils.hashKey(cacheKey);
+        //写入队列中的旧数据不能再覆盖这次写入
+        cacheWriter.cancel(hashKey);
+        return openWriter(cache, hashKey, response, freshness, bodyEncoding);
+    }
+
+    private Writer openWriter(DiskLruCache cache, String hashKey, HttpResponse response, CacheFreshness freshness,
+                              String bodyEncoding) {
+        //内存中的旧缓存项即将被替换
+        removeMemory(cache, hashKey);
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = cache.edit(hashKey);
+            if (editor == null) {
+                return null;
+            }
+            writeMeta(editor, response, freshness, bodyEncoding);
+            return new Writer(this, cache, hashKey, editor);
+        } catch (IOException e) {
+            if (config.debugMode) WeLog.e("缓存写入失败,原因: " + e.getMessage());
+            abortQuietly(editor);
+            return null;
+        }
+    }
+
+    /**
+     * 更新缓存项的过期时间,只重写元数据,响应体保持不变.
+     *
+     * @param cacheKey   请求的缓存Key
+     * @param expiryDate 新的过期时间
+     * @return 是否更新成功
+     */
+    public boolean updateExpiry(String cacheKey, long expiryDate) {
+        return updateFreshness(cacheKey, null, expiryDate);
+    }
+
+    /**
+     * 更新缓存项的有效期,只重写元数据,响应体保持不变.
+     *
+     * @param cacheKey  请求的缓存Key
+     * @param freshness 新的有效期
+     * @return 是否更新成功
+     */
+    public boolean updateFreshness(String cacheKey, CacheFreshness freshness) {
+        return updateFreshness(cacheKey, freshness, freshness.expiryDate);
+    }
+
+    private boolean updateFreshness(String cacheKey, CacheFreshness freshness, long expiryDate) {
+        DiskLruCache cache = diskCache();
+        if (cache == null) {
+            return false;
+        }
+        String hashKey = HashUtils.hashKey(cacheKey);
+        HttpCacheWriter.PendingWrite write = cacheWriter.getPending(hashKey);
+        if (write != null) {
+            CacheFreshness pendingFreshness = freshness != null ? freshness : new CacheFreshness(true, expiryDate,
+                    write.entry.staleWhileRevalidate, write.entry.staleIfError);
+            if (cacheWriter.updateFreshness(hashKey, pendingFreshness)) {
+                return true;
+            }
+        }
+        Entry entry = getFromDisk(cache, cacheKey, hashKey);
+        if (entry == null) {
+            removeMemory(cache, hashKey);
+            return false;
+        }
+        if (freshness == null) {
+            //只修改过期时间,保留原有的时长
+            freshness = new CacheFreshness(true, expiryDate, entry.staleWhileRevalidate, entry.staleIfError);
+        }
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = entry.snapshot.edit();
+            entry.close();
+            if (editor == null) {
+                return false;
+            }
+            HttpResponse response = new HttpResponse();
+            entry.applyTo(response);
+            writeMeta(editor, response, freshness, entry.bodyEncoding);
+            editor.commit();
+            cacheWriter.onCommitted(cache);
+        } catch (IOException e) {
+            abortQuietly(editor);
+            removeMemory(cache, hashKey);
+            return false;
+        }
+        updateMemoryFreshness(cache, hashKey, freshness);
+        return true;
+    }
+
+    /**
+     * 让内存中的缓存项使用新的有效期
+     */
+    private void updateMemoryFreshness(DiskLruCache cache, String hashKey, CacheFreshness freshness) {
+        MemoryLruCache<String, Entry> memory = memoryCache(cache);
+        if (memory == null) {
+            return;
+        }
+        synchronized (memory) {
+            Entry cached = memory.getMap().get(hashKey);
+            if (cached != null) {
+                memory.put(hashKey, cached.withFreshness(freshness));
+            }
+        }
+    }
+
+    /**
+     * 移除一个缓存项
+     *
+     * @param cacheKey 请求的缓存Key
+     */
+    public void remove(String cacheKey) {
+        DiskLruCache cache = diskCache();
+        if (cache != null) {
+            String hashKey = HashUtils.hashKey(cacheKey);
+            cacheWriter.cancel(hashKey);
+            removeMemory(cache, hashKey);
+            try {
+                cache.remove(hashKey);
+            } catch (IOException ignored) {
+            }
+            //删除前开始的读取不能再把缓存项放回内存
+            removeMemory(cache, hashKey);
+        }
+    }
+
+    /**
+     * 清空内存缓存,磁盘缓存不受影响
+     */
+    public synchronized void evictMemory() {
+        if (memoryCache != null) {
+            memoryCache.evictAll();
+        }
+    }
+
+    /**
+     * @return 内存缓存当前占用的字节数
+     */
+    public synchronized int getMemorySize() {
+        return memoryCache == null ? 0 : memoryCache.size();
+    }
+
+    /**
+     * @return 内存缓存的命中次数
+     */
+    public long getMemoryHitCount() {
+        return memoryHitCount.get();
+    }
+
+    /**
+     * @return 开启内存缓存时, 内存缓存没有命中的次数
+     */
+    public long getMemoryMissCount() {
+        return memoryMissCount.get();
+    }
+
+    /**
+     * @return 磁盘缓存的命中次数
+     */
+    public long getDiskHitCount() {
+        return diskHitCount.get();
+    }
+
+    /**
+     * @return 磁盘缓存没有命中的次数
+     */
+    public long getDiskMissCount() {
+        return diskMissCount.get();
+    }
+
+    /**
+     * @return 写入队列中等待写入磁盘的缓存项数
+     */
+    public int getPendingWriteCount() {
+        return cacheWriter.getPendingCount();
+    }
+
+    /**
+     * @return 因写入队列已满而放弃的写入数
+     */
+    public long getDroppedWriteCount() {
+        return cacheWriter.getDroppedCount();
+    }
+
+    /**
+     * @return journal刷新的次数
+     */
+    public long getJournalFlushCount() {
+        return cacheWriter.getFlushCount();
+    }
+
+    private static void writeMeta(DiskLruCache.Editor editor, HttpResponse response, CacheFreshness freshness,
+                                  String bodyEncoding) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(editor.newOutputStream(META_INDEX)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(freshness.expiryDate);
+            out.writeLong(freshness.staleWhileRevalidate);
+            out.writeLong(freshness.staleIfError);
+            out.writeInt(response.responseCode);
+            writeNullableString(out, response.responseMessage);
+            writeNullableString(out, response.contentType);
+            writeNullableString(out, response.contentEncoding);
+            out.writeLong(response.lastModifiedTime);
+            out.writeInt(response.contentLength);
+            Map<String, List<String>> header = response.header;
+            if (header == null) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(header.size());
+                for (Map.Entry<String, List<String>> field : header.entrySet()) {
+                    writeNullableString(out, field.getKey());
+                    List<String> values = field.getValue();
+                    if (values == null) {
+                        out.writeInt(0);
+                        continue;
+                    }
+                    out.writeInt(values.size());
+                    for (String value : values) {
+                        writeNullableString(out, value);
+                    }
+                }
+            }
+            writeNullableString(out, bodyEncoding);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void abortQuietly(DiskLruCache.Editor editor) {
+        if (editor != null) {
+            try {
+                editor.abort();
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    /**
+     * 一个缓存项,持有缓存文件的快照.
+     */
+    public static class Entry implements Closeable {
+        /**
+         * 过期时间,0表示永久有效
+         */
+        public long expiryDate;
+        /**
+         * 过期后仍可直接使用并在后台验证的时长(毫秒)
+         */
+        public long staleWhileRevalidate;
+        /**
+         * 请求出错时仍可使用过期缓存的时长(毫秒)
+         */
+        public long staleIfError;
+        public int responseCode;
+        public String responseMessage;
+        public String contentType;
+        public String contentEncoding;
+        public long lastModifiedTime;
+        public int contentLength;
+        public Map<String, List<String>> header;
+        /**
+         * 缓存中响应体的编码,null表示未压缩
+         */
+        public String bodyEncoding;
+
+        private DiskLruCache.Snapshot snapshot;
+        /**
+         * 来自内存缓存时的响应体(未压缩),此时没有快照
+         */
+        private byte[] body;
+
+        /**
+         * 由响应的元数据和有效期构造缓存项
+         */
+        private static Entry of(HttpResponse response, CacheFreshness freshness) {
+            Entry entry = new Entry();
+            entry.expiryDate = freshness.expiryDate;
+            entry.staleWhileRevalidate = freshness.staleWhileRevalidate;
+            entry.staleIfError = freshness.staleIfError;
+            entry.responseCode = response.responseCode;
+            entry.responseMessage = response.responseMessage;
+            entry.contentType = response.contentType;
+            entry.contentEncoding = response.contentEncoding;
+            entry.lastModifiedTime = response.lastModifiedTime;
+            entry.contentLength = response.contentLength;
+            entry.header = response.header;
+            return entry;
+        }
+
+        /**
+         * @return 不持有快照的副本, 响应体和响应头是共享的
+         */
+        /*package*/ Entry copy() {
+            Entry entry = new Entry();
+            entry.expiryDate = expiryDate;
+            entry.staleWhileRevalidate = staleWhileRevalidate;
+            entry.staleIfError = staleIfError;
+            entry.responseCode = responseCode;
+            entry.responseMessage = responseMessage;
+            entry.contentType = contentType;
+            entry.contentEncoding = contentEncoding;
+            entry.lastModifiedTime = lastModifiedTime;
+            entry.contentLength = contentLength;
+            entry.header = header;
+            entry.bodyEncoding = bodyEncoding;
+            entry.body = body;
+            return entry;
+        }
+
+        /**
+         * @return 使用新有效期的副本
+         */
+        /*package*/ Entry withFreshness(CacheFreshness freshness) {
+            Entry entry = copy();
+            entry.expiryDate = freshness.expiryDate;
+            entry.staleWhileRevalidate = freshness.staleWhileRevalidate;
+            entry.staleIfError = freshness.staleIfError;
+            return entry;
+        }
+
+        /**
+         * @return 在内存缓存中占用的字节数(估算)
+         */
+        private int memorySize() {
+            int size = 256 + (body == null ? 0 : body.length);
+            if (header != null) {
+                for (Map.Entry<String, List<String>> field : header.entrySet()) {
+                    size += 64 + (field.getKey() == null ? 0 : field.getKey().length() * 2);
+                    if (field.getValue() != null) {
+                        for (String value : field.getValue()) {
+                            size += value == null ? 0 : value.length() * 2;
+                        }
+                    }
+                }
+            }
+            return size;
+        }
+
+        /**
+         * @return 缓存项是否来自内存缓存
+         */
+        public boolean isFromMemory() {
+            return body != null;
+        }
+
+        /**
+         * @param now 当前时间
+         * @return 缓存是否已经过期
+         */
+        public boolean isExpired(long now) {
+            return expiryDate != 0 && expiryDate <= now;
+        }
+
+        /**
+         * @param now 当前时间
+         * @return 缓存是否已过期, 但仍可直接使用并在后台验证(stale-while-revalidate)
+         */
+        public boolean canServeWhileRevalidate(long now) {
+            return isExpired(now) && now < expiryDate + staleWhileRevalidate;
+        }
+
+        /**
+         * @param now 当前时间
+         * @return 请求出错时缓存是否仍可使用(stale-if-error)
+         */
+        public boolean canServeOnError(long now) {
+            return canServeOnError(now, 0);
+        }
+
+        /**
+         * @param now      当前时间
+         * @param maxStale 使用者允许的过期时长(毫秒),与stale-if-error取较大的一个
+         * @return 请求出错时缓存是否仍可使用
+         */
+        public boolean canServeOnError(long now, long maxStale) {
+            return !isExpired(now) || now < expiryDate + Math.max(staleIfError, maxStale);
+        }
+
+        /**
+         * 取得缓存的响应头,响应头名称不区分大小写.
+         *
+         * @param name 响应头名称
+         * @return 第一个值, 不存在时返回null
+         */
+        public String getHeader(String name) {
+            return CacheControl.getHeader(header, name);
+        }
+
+        /**
+         * @return 缓存是否可以通过条件请求(ETag/Last-Modified)向服务器验证
+         */
+        public boolean hasValidator() {
+            return getHeader("ETag") != null || getHeader("Last-Modified") != null || lastModifiedTime > 0;
+        }
+
+        /**
+         * 打开响应体的输入流,数据直接来自缓存文件,压缩保存的响应体会被解压.
+         *
+         * @return 响应体的输入流
+         * @throws IOException
+         */
+        public InputStream openBody() throws IOException {
+            return ContentCodec.decode(openRawBody(), bodyEncoding);
+        }
+
+        /**
+         * 打开响应体的原始输入流,不做解压.
+         *
+         * @return 缓存文件中的响应体
+         */
+        public InputStream openRawBody() {
+            if (body != null) {
+                return new ByteArrayInputStream(body);
+            }
+            return snapshot.getInputStream(BODY_INDEX);
+        }
+
+        /**
+         * @return 缓存文件中响应体的字节数(压缩保存时是压缩后的大小)
+         */
+        public long getBodyLength() {
+            if (body != null) {
+                return body.length;
+            }
+            return snapshot.getLength(BODY_INDEX);
+        }
+
+        /**
+         * 将响应体完整读入内存
+         *
+         * @return 解压后的响应体
+         * @throws IOException
+         */
+        public byte[] readBody() throws IOException {
+            if (body != null) {
+                return body;
+            }
+            if (bodyEncoding == null) {
+                return IOUtils.toByteArray(openRawBody(), (int) getBodyLength());
+            }
+            InputStream in = openBody();
+            try {
+                return IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * 将元数据填充到响应中(不包括响应体)
+         *
+         * @param response
+         */
+        public void applyTo(HttpResponse response) {
+            response.responseCode = responseCode;
+            response.responseMessage = responseMessage;
+            response.contentType = contentType;
+            response.contentEncoding = contentEncoding;
+            response.lastModifiedTime = lastModifiedTime;
+            response.contentLength = contentLength;
+            response.header = header;
+            response.cacheExpiryDate = expiryDate;
+        }
+
+        @Override
+        public void close() {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * 缓存项的写入器,元数据已经写入,
+     * 响应体写完后需要调用{@link #commit()},失败时调用{@link #abort()}.
+     */
+    public static class Writer {
+
+        private final HttpResponseCache owner;
+        private final DiskLruCache cache;
+        private final String hashKey;
+        private final DiskLruCache.Editor editor;
+        private OutputStream bodyStream;
+        private boolean done;
+
+        /**
+         * 提交时的代数,之后没有被替换或删除才能把新的缓存项放入内存缓存
+         */
+        private long committedGeneration;
+
+        private Writer(HttpResponseCache owner, DiskLruCache cache, String hashKey, DiskLruCache.Editor editor) {
+            this.owner = owner;
+            this.cache = cache;
+            this.hashKey = hashKey;
+            this.editor = editor;
+        }
+
+        /**
+         * @return 响应体的输出流
+         * @throws IOException
+         */
+        public OutputStream bodyStream() throws IOException {
+            if (bodyStream == null) {
+                bodyStream = new BufferedOutputStream(editor.newOutputStream(BODY_INDEX));
+            }
+            return bodyStream;
+        }
+
+        /**
+         * 包装一个响应体的输入流,读取的数据会同时写入缓存.
+         * 流被完整读取后关闭会提交缓存,否则缓存被放弃.
+         *
+         * @param source 响应体的输入流
+         * @return 包装后的输入流
+         * @throws IOException
+         */
+        public InputStream tee(InputStream source) throws IOException {
+            final OutputStream out = bodyStream();
+            return new FilterInputStream(source) {
+                private boolean eof;
+                private boolean failed;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b == -1) {
+                        eof = true;
+                    } else {
+                        copy(new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read == -1) {
+                        eof = true;
+                    } else {
+                        copy(buffer, offset, read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    //跳过的数据无法写入缓存
+                    failed = true;
+                    return super.skip(n);
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+
+                private void copy(byte[] buffer, int offset, int count) {
+                    if (failed) {
+                        return;
+                    }
+                    try {
+                        out.write(buffer, offset, count);
+                    } catch (IOException e) {
+                        failed = true;
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (eof && !failed) {
+                            commit();
+                        } else {
+                            abort();
+                        }
+                    }
+                }
+            };
+        }
+
+        /**
+         * 包装一个压缩的响应体输入流,缓存保存压缩的原始数据,返回的流是解压后的数据.
+         * 解压后的流被完整读取后关闭会提交缓存,否则缓存被放弃.
+         *
+         * @param source   响应体的原始输入流
+         * @param encoding 响应体的编码,为null时等同于{@link #tee(InputStream)}
+         * @return 解压后的输入流
+         * @throws IOException
+         */
+        public InputStream teeEncoded(InputStream source, String encoding) throws IOException {
+            final InputStream teed = tee(source);
+            if (ContentCodec.decodableEncoding(encoding) == null) {
+                return teed;
+            }
+            return new FilterInputStream(ContentCodec.decode(teed, encoding)) {
+                private boolean eof;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b == -1) {
+                        eof = true;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read == -1) {
+                        eof = true;
+                    }
+                    return read;
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (eof) {
+                        //解压结束时原始流可能还剩下尾部的几个字节,读完它们缓存才会提交
+                        byte[] buffer = new byte[64];
+                        while (teed.read(buffer) != -1) {
+                        }
+                    }
+                    super.close();
+                }
+            };
+        }
+
+        /**
+         * 提交缓存项
+         *
+         * @return 是否提交成功
+         */
+        public boolean commit() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            try {
+                if (bodyStream == null) {
+                    bodyStream();
+                }
+                bodyStream.close();
+                editor.commit();
+                //写入期间从磁盘读到的旧缓存项不能再放入内存缓存
+                committedGeneration = owner.removeMemory(cache, hashKey);
+                //journal按批次刷新
+                owner.cacheWriter.onCommitted(cache);
+                return true;
+            } catch (IOException e) {
+                abortQuietly(editor);
+                return false;
+            }
+        }
+
+        /**
+         * 放弃写入
+         */
+        public void abort() {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (bodyStream != null) {
+                try {
+                    bodyStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            abortQuietly(editor);
+        }
+    }
+}
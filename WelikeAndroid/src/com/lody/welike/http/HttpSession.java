@@ -3,6 +3,7 @@ package com.lody.welike.http;
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
 
@@ -49,6 +50,20 @@ public class HttpSession {
         return url.startsWith("http://") ? url : "http://" + url;
     }
 
+    /**
+     * 取得请求的主机,用于按主机管理请求.
+     *
+     * @return 主机(包括端口,小写), 无法解析时返回null
+     */
+    public String getHost() {
+        try {
+            String authority = new URL(getFixUrl()).getAuthority();
+            return authority == null ? null : authority.toLowerCase();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
     /**
      * 设置请求的URL
      *
@@ -114,6 +129,10 @@ public class HttpSession {
                 urlConnection.addRequestProperty(key, request.getParams().getHeader(key));
             }
         }
+        //由我们自己解压,这样缓存可以选择保存压缩的数据
+        if (request.getHttpConfig().enableCompression && request.getParams().getHeader("Accept-Encoding") == null) {
+            urlConnection.setRequestProperty("Accept-Encoding", ContentCodec.ACCEPT_ENCODING);
+        }
         //我们有自己的缓存机制,所以那套就不需要了
         urlConnection.setUseCaches(false);
         //设置连接超时
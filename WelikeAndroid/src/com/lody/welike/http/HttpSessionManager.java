@@ -1,16 +1,37 @@
 package com.lody.welike.http;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Http会话的管理器
+ * Http会话的管理器.
+ * <br>
+ * 除了按Url管理会话,还按主机管理经过{@link HttpRequestQueue}的请求:
+ * 每个主机同时执行的请求数有上限,超出的请求在主机的队列中等待,
+ * 避免一个缓慢的主机占满所有的工作线程.
+ * 长时间没有请求的主机信息会被回收.
  *
  * @author lody
- * @version 1.2
+ * @version 1.3
  */
 public class HttpSessionManager {
 
+    /**
+     * 默认每个主机同时执行的请求上限,
+     * 比{@link HttpConfig#DEFAULT_CONCURRENCY}小,这样总有名额留给其它主机.
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+
+    /**
+     * 默认的主机空闲回收时间(毫秒),与系统保持空闲连接的时间一致.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
     /**
      * 内部维护一个Http会话管理器的单例
      */
@@ -29,6 +50,31 @@ public class HttpSessionManager {
 
     /*package*/ Map<String, HttpSession> urlToSessionMap = new ConcurrentHashMap<>(5);
 
+    /**
+     * 主机到主机信息的映射,由this同步
+     */
+    private final Map<String, HostSession> hostSessions = new HashMap<>();
+
+    /**
+     * 每个主机同时执行的请求上限
+     */
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    /**
+     * 单独指定了请求上限的主机
+     */
+    private final Map<String, Integer> hostLimits = new HashMap<>();
+
+    /**
+     * 主机空闲回收时间(毫秒)
+     */
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    /**
+     * 上次回收空闲主机的时刻
+     */
+    private long lastEvictMillis;
+
     /**
      * 取出一个会话,会话不存在,则创建会话.
      *
@@ -76,5 +122,434 @@ public class HttpSessionManager {
         }
     }
 
+    //=============================================
+    //                 主机管理
+    //=============================================
+
+    /**
+     * 设置每个主机同时执行的请求上限.
+     * 同时会提示系统为每个主机保留相同数量的空闲连接,让后续的请求可以复用连接.
+     *
+     * @param maxRequestsPerHost 请求上限
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        synchronized (this) {
+            this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+        }
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(1, maxRequestsPerHost)));
+        promoteAll();
+    }
+
+    /**
+     * @return 每个主机同时执行的请求上限
+     */
+    public synchronized int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * 单独设置一个主机同时执行的请求上限
+     *
+     * @param host               主机(包括端口,如"example.com:8080")
+     * @param maxRequestsPerHost 请求上限,小于等于0时恢复使用全局的上限
+     */
+    public void setMaxRequestsPerHost(String host, int maxRequestsPerHost) {
+        host = host.toLowerCase();
+        synchronized (this) {
+            if (maxRequestsPerHost > 0) {
+                hostLimits.put(host, maxRequestsPerHost);
+            } else {
+                hostLimits.remove(host);
+            }
+        }
+        promote(host);
+    }
+
+    /**
+     * 设置主机的空闲回收时间
+     *
+     * @param idleTimeout 空闲回收时间(毫秒)
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
 
+    /**
+     * @return 主机的空闲回收时间(毫秒)
+     */
+    public synchronized long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * 取得主机的统计信息
+     *
+     * @param host 主机(包括端口)
+     * @return 统计信息, 没有这个主机的记录时返回null
+     */
+    public synchronized HostStats getHostStats(String host) {
+        HostSession hostSession = hostSessions.get(host.toLowerCase());
+        return hostSession == null ? null : new HostStats(hostSession, getLimit(hostSession.host));
+    }
+
+    /**
+     * @return 所有主机的统计信息
+     */
+    public synchronized List<HostStats> getAllHostStats() {
+        List<HostStats> stats = new ArrayList<>(hostSessions.size());
+        for (HostSession hostSession : hostSessions.values()) {
+            stats.add(new HostStats(hostSession, getLimit(hostSession.host)));
+        }
+        return stats;
+    }
+
+    /**
+     * 立即回收空闲超时的主机信息
+     */
+    public synchronized void evictIdleHosts() {
+        evictIdleHosts(System.currentTimeMillis());
+    }
+
+    /**
+     * 请求派发前占用主机的名额,名额已满时请求进入主机的队列等待.
+     *
+     * @param request Http请求
+     * @return 是否可以立即执行
+     */
+    /*package*/ synchronized boolean tryAcquire(HttpRequest request) {
+        String host = request.getSession().getHost();
+        if (host == null) {
+            return true;
+        }
+        HostSession hostSession = obtain(host);
+        if (hostSession.active < getLimit(host)) {
+            hostSession.active++;
+            request.holdsHostSlot = true;
+            return true;
+        }
+        hostSession.enqueue(request);
+        return false;
+    }
+
+    /**
+     * 请求执行完成,释放它占用的主机名额.
+     * 主机的队列中还有请求时,名额直接转给排在最前面的请求.
+     *
+     * @param request Http请求
+     * @return 获得名额的请求, 没有时返回null
+     */
+    /*package*/ synchronized HttpRequest release(HttpRequest request) {
+        if (!request.holdsHostSlot) {
+            return null;
+        }
+        request.holdsHostSlot = false;
+        HostSession hostSession = hostSessions.get(request.getSession().getHost());
+        if (hostSession == null) {
+            return null;
+        }
+        hostSession.active--;
+        hostSession.lastActiveMillis = System.currentTimeMillis();
+        return poll(hostSession);
+    }
+
+    /**
+     * 为不经过请求队列的额外连接(如对冲请求)占用主机的名额,名额已满时不等待.
+     *
+     * @param host 主机,为null时不限制
+     * @return 是否占用成功
+     */
+    /*package*/ synchronized boolean tryAcquireExtra(String host) {
+        if (host == null) {
+            return true;
+        }
+        HostSession hostSession = obtain(host);
+        //排队中的请求优先
+        if (hostSession.active >= getLimit(host) || !hostSession.waiting.isEmpty()) {
+            return false;
+        }
+        hostSession.active++;
+        return true;
+    }
+
+    /**
+     * 释放{@link #tryAcquireExtra(String)}占用的名额,并交给主机队列中等待的请求.
+     *
+     * @param host 主机,为null时不做任何事
+     */
+    /*package*/ void releaseExtra(String host) {
+        if (host == null) {
+            return;
+        }
+        synchronized (this) {
+            HostSession hostSession = hostSessions.get(host);
+            if (hostSession == null) {
+                return;
+            }
+            hostSession.active--;
+            hostSession.lastActiveMillis = System.currentTimeMillis();
+        }
+        promote(host);
+    }
+
+    /**
+     * 从主机的队列中移除一个等待的请求
+     *
+     * @param request Http请求
+     * @return 请求是否在等待
+     */
+    /*package*/ synchronized boolean removeWaiting(HttpRequest request) {
+        String host = request.getSession().getHost();
+        HostSession hostSession = host == null ? null : hostSessions.get(host);
+        return hostSession != null && hostSession.waiting.remove(request);
+    }
+
+    /**
+     * 从所有主机的队列中移除属于一个请求队列的请求
+     *
+     * @param queue 请求队列
+     * @return 移除的请求
+     */
+    /*package*/ synchronized List<HttpRequest> removeWaiting(HttpRequestQueue queue) {
+        List<HttpRequest> removed = new ArrayList<>();
+        for (HostSession hostSession : hostSessions.values()) {
+            Iterator<HttpRequest> iterator = hostSession.waiting.iterator();
+            while (iterator.hasNext()) {
+                HttpRequest request = iterator.next();
+                if (request.requestQueue == queue) {
+                    iterator.remove();
+                    removed.add(request);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 记录主机的一次响应
+     *
+     * @param host            主机
+     * @param latencyNanos    从发出请求到收到响应头的时间(纳秒)
+     * @param connectionValue 响应的Connection头
+     */
+    /*package*/ synchronized void onResponse(String host, long latencyNanos, String connectionValue) {
+        HostSession hostSession = obtain(host);
+        hostSession.completed++;
+        hostSession.totalLatencyNanos += latencyNanos;
+        hostSession.keepAlive = connectionValue == null || !"close".equalsIgnoreCase(connectionValue.trim());
+        hostSession.lastActiveMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 上限提高后,让所有主机队列中的请求尽快获得名额
+     */
+    private void promoteAll() {
+        List<String> hosts;
+        synchronized (this) {
+            hosts = new ArrayList<>(hostSessions.keySet());
+        }
+        for (String host : hosts) {
+            promote(host);
+        }
+    }
+
+    /**
+     * 在名额允许时把主机队列中的请求交还给它们的请求队列
+     *
+     * @param host 主机
+     */
+    private void promote(String host) {
+        for (; ; ) {
+            HttpRequest next;
+            synchronized (this) {
+                HostSession hostSession = hostSessions.get(host);
+                if (hostSession == null) {
+                    return;
+                }
+                next = poll(hostSession);
+            }
+            if (next == null) {
+                return;
+            }
+            HttpRequestQueue.onHostSlotGranted(next);
+        }
+    }
+
+    /**
+     * 名额允许时取出主机队列中排在最前面的请求,并为它占用名额.
+     */
+    private HttpRequest poll(HostSession hostSession) {
+        if (hostSession.active >= getLimit(hostSession.host) || hostSession.waiting.isEmpty()) {
+            return null;
+        }
+        HttpRequest next = hostSession.waiting.pollFirst();
+        hostSession.active++;
+        next.holdsHostSlot = true;
+        return next;
+    }
+
+    private int getLimit(String host) {
+        Integer limit = hostLimits.get(host);
+        return limit != null ? limit : maxRequestsPerHost;
+    }
+
+    private HostSession obtain(String host) {
+        long now = System.currentTimeMillis();
+        if (now - lastEvictMillis >= idleTimeout) {
+            evictIdleHosts(now);
+        }
+        HostSession hostSession = hostSessions.get(host);
+        if (hostSession == null) {
+            hostSession = new HostSession(host);
+            hostSession.lastActiveMillis = now;
+            hostSessions.put(host, hostSession);
+        }
+        return hostSession;
+    }
+
+    private void evictIdleHosts(long now) {
+        lastEvictMillis = now;
+        Iterator<HostSession> iterator = hostSessions.values().iterator();
+        while (iterator.hasNext()) {
+            HostSession hostSession = iterator.next();
+            if (hostSession.active == 0 && hostSession.waiting.isEmpty()
+                    && now - hostSession.lastActiveMillis >= idleTimeout) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 一个主机的请求状态
+     */
+    private static final class HostSession {
+
+        final String host;
+        /**
+         * 正在执行的请求数
+         */
+        int active;
+        /**
+         * 等待名额的请求,按优先级排列,同一优先级先进先出
+         */
+        final ArrayDeque<HttpRequest> waiting = new ArrayDeque<>();
+        /**
+         * 收到响应的次数
+         */
+        long completed;
+        /**
+         * 收到响应所用的总时间(纳秒)
+         */
+        long totalLatencyNanos;
+        /**
+         * 主机是否保持连接
+         */
+        boolean keepAlive = true;
+        /**
+         * 最后一次活动的时刻
+         */
+        long lastActiveMillis;
+
+        HostSession(String host) {
+            this.host = host;
+        }
+
+        void enqueue(HttpRequest request) {
+            if (waiting.isEmpty() || waiting.peekLast().priority.ordinal() <= request.priority.ordinal()) {
+                waiting.addLast(request);
+                return;
+            }
+            //插入到第一个优先级更低的请求前面
+            ArrayDeque<HttpRequest> reordered = new ArrayDeque<>(waiting.size() + 1);
+            boolean inserted = false;
+            for (HttpRequest waitingRequest : waiting) {
+                if (!inserted && waitingRequest.priority.ordinal() > request.priority.ordinal()) {
+                    reordered.addLast(request);
+                    inserted = true;
+                }
+                reordered.addLast(waitingRequest);
+            }
+            waiting.clear();
+            waiting.addAll(reordered);
+        }
+    }
+
+    /**
+     * 一个主机的统计信息快照
+     */
+    public static final class HostStats {
+
+        private final String host;
+        private final int activeCount;
+        private final int queuedCount;
+        private final int maxRequests;
+        private final long completedCount;
+        private final long averageLatencyNanos;
+        private final boolean keepAlive;
+
+        private HostStats(HostSession hostSession, int maxRequests) {
+            this.host = hostSession.host;
+            this.activeCount = hostSession.active;
+            this.queuedCount = hostSession.waiting.size();
+            this.maxRequests = maxRequests;
+            this.completedCount = hostSession.completed;
+            this.averageLatencyNanos = hostSession.completed == 0 ? -1 : hostSession.totalLatencyNanos / hostSession.completed;
+            this.keepAlive = hostSession.keepAlive;
+        }
+
+        /**
+         * @return 主机(包括端口)
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return 正在执行的请求数
+         */
+        public int getActiveCount() {
+            return activeCount;
+        }
+
+        /**
+         * @return 在主机队列中等待的请求数
+         */
+        public int getQueuedCount() {
+            return queuedCount;
+        }
+
+        /**
+         * @return 主机同时执行的请求上限
+         */
+        public int getMaxRequests() {
+            return maxRequests;
+        }
+
+        /**
+         * @return 收到响应的次数
+         */
+        public long getCompletedCount() {
+            return completedCount;
+        }
+
+        /**
+         * @return 从发出请求到收到响应头的平均时间(纳秒), 还没有响应时返回-1
+         */
+        public long getAverageLatencyNanos() {
+            return averageLatencyNanos;
+        }
+
+        /**
+         * @return 主机最近的响应是否允许复用连接
+         */
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        @Override
+        public String toString() {
+            return host + "{active=" + activeCount + ", queued=" + queuedCount + ", max=" + maxRequests
+                    + ", avgLatency=" + (averageLatencyNanos < 0 ? -1 : averageLatencyNanos / 1000000) + "ms"
+                    + ", keepAlive=" + keepAlive + "}";
+        }
+    }
 }
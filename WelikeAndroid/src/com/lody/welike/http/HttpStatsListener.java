@@ -0,0 +1,308 @@
+package com.lody.welike.http;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 默认的{@link HttpEventListener}实现,请求的回调执行完后,
+ * 把{@link HttpTimings}中各个阶段的耗时按主机和接口(主机+路径)汇总为直方图.
+ * <pre>
+ * HttpStatsListener stats = new HttpStatsListener();
+ * config.setEventListener(stats);
+ * ...
+ * stats.getHostStats("api.example.com").getHistogram(Phase.TIME_TO_FIRST_BYTE).getPercentileNanos(95);
+ * </pre>
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class HttpStatsListener extends HttpEventListener {
+
+    /**
+     * 默认最多统计的接口数,超出后新的接口只汇总到主机
+     */
+    public static final int DEFAULT_MAX_ENDPOINTS = 256;
+
+    /**
+     * 请求的阶段
+     */
+    public enum Phase {
+        /**
+         * 在请求队列中等待
+         */
+        QUEUE,
+        /**
+         * 查找缓存
+         */
+        CACHE_LOOKUP,
+        /**
+         * 建立连接
+         */
+        CONNECT,
+        /**
+         * 写入请求体
+         */
+        REQUEST_WRITE,
+        /**
+         * 写完请求到收到响应头
+         */
+        TIME_TO_FIRST_BYTE,
+        /**
+         * 读取响应体
+         */
+        BODY,
+        /**
+         * 转换响应并回调
+         */
+        DELIVER,
+        /**
+         * 整个请求
+         */
+        TOTAL
+    }
+
+    private final int maxEndpoints;
+    private final Map<String, Collector> hostCollectors = new HashMap<>();
+    private final Map<String, Collector> endpointCollectors = new HashMap<>();
+
+    public HttpStatsListener() {
+        this(DEFAULT_MAX_ENDPOINTS);
+    }
+
+    /**
+     * @param maxEndpoints 最多统计的接口数
+     */
+    public HttpStatsListener(int maxEndpoints) {
+        if (maxEndpoints < 0) {
+            throw new IllegalArgumentException("maxEndpoints < 0");
+        }
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    @Override
+    public void onCallbackDelivered(HttpRequest request, long nanoTime, boolean success) {
+        HttpSession session = request.getSession();
+        String host = session.getHost();
+        if (host == null) {
+            return;
+        }
+        String endpoint = host + pathOf(session.getFixUrl());
+        HttpTimings timings = request.getTimings();
+        synchronized (this) {
+            obtain(hostCollectors, host, Integer.MAX_VALUE).record(timings, success);
+            Collector collector = obtain(endpointCollectors, endpoint, maxEndpoints);
+            if (collector != null) {
+                collector.record(timings, success);
+            }
+        }
+    }
+
+    /**
+     * @param host 主机(包括端口)
+     * @return 主机的统计信息, 没有记录时返回null
+     */
+    public synchronized Stats getHostStats(String host) {
+        Collector collector = hostCollectors.get(host.toLowerCase());
+        return collector == null ? null : new Stats(host.toLowerCase(), collector);
+    }
+
+    /**
+     * @param endpoint 主机(包括端口)+路径,不包括参数,例如"api.example.com/user"
+     * @return 接口的统计信息, 没有记录时返回null
+     */
+    public synchronized Stats getEndpointStats(String endpoint) {
+        Collector collector = endpointCollectors.get(endpoint);
+        return collector == null ? null : new Stats(endpoint, collector);
+    }
+
+    /**
+     * @return 所有主机的统计信息
+     */
+    public synchronized List<Stats> getAllHostStats() {
+        return snapshot(hostCollectors);
+    }
+
+    /**
+     * @return 所有接口的统计信息
+     */
+    public synchronized List<Stats> getAllEndpointStats() {
+        return snapshot(endpointCollectors);
+    }
+
+    /**
+     * 清除所有统计信息
+     */
+    public synchronized void reset() {
+        hostCollectors.clear();
+        endpointCollectors.clear();
+    }
+
+    private static Collector obtain(Map<String, Collector> collectors, String key, int max) {
+        Collector collector = collectors.get(key);
+        if (collector == null && collectors.size() < max) {
+            collector = new Collector();
+            collectors.put(key, collector);
+        }
+        return collector;
+    }
+
+    private static List<Stats> snapshot(Map<String, Collector> collectors) {
+        List<Stats> stats = new ArrayList<>(collectors.size());
+        for (Map.Entry<String, Collector> entry : collectors.entrySet()) {
+            stats.add(new Stats(entry.getKey(), entry.getValue()));
+        }
+        return stats;
+    }
+
+    /**
+     * 取得URL的路径部分,不包括参数
+     */
+    private static String pathOf(String url) {
+        int start = url.indexOf("://");
+        start = url.indexOf('/', start < 0 ? 0 : start + 3);
+        if (start < 0) {
+            return "/";
+        }
+        int end = url.length();
+        int query = url.indexOf('?', start);
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#', start);
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        return url.substring(start, end);
+    }
+
+    /**
+     * 一个主机或接口的累计数据,由HttpStatsListener同步
+     */
+    private static final class Collector {
+        final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+        long requestCount;
+        long failureCount;
+        long cacheHitCount;
+        long bytesWritten;
+        long bytesReceived;
+
+        Collector() {
+            for (Phase phase : Phase.values()) {
+                histograms.put(phase, new LatencyHistogram());
+            }
+        }
+
+        void record(HttpTimings timings, boolean success) {
+            requestCount++;
+            if (!success) {
+                failureCount++;
+            }
+            if (timings.isCacheHit()) {
+                cacheHitCount++;
+            }
+            bytesWritten += timings.getBytesWritten();
+            bytesReceived += timings.getBytesReceived();
+            histograms.get(Phase.QUEUE).record(timings.getQueueNanos());
+            histograms.get(Phase.CACHE_LOOKUP).record(timings.getCacheLookupNanos());
+            histograms.get(Phase.CONNECT).record(timings.getConnectNanos());
+            histograms.get(Phase.REQUEST_WRITE).record(timings.getRequestWriteNanos());
+            histograms.get(Phase.TIME_TO_FIRST_BYTE).record(timings.getTimeToFirstByteNanos());
+            histograms.get(Phase.BODY).record(timings.getBodyNanos());
+            histograms.get(Phase.DELIVER).record(timings.getDeliverNanos());
+            histograms.get(Phase.TOTAL).record(timings.getTotalNanos());
+        }
+    }
+
+    /**
+     * 一个主机或接口的统计信息快照
+     */
+    public static final class Stats {
+
+        private final String key;
+        private final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+        private final long requestCount;
+        private final long failureCount;
+        private final long cacheHitCount;
+        private final long bytesWritten;
+        private final long bytesReceived;
+
+        private Stats(String key, Collector collector) {
+            this.key = key;
+            for (Map.Entry<Phase, LatencyHistogram> entry : collector.histograms.entrySet()) {
+                histograms.put(entry.getKey(), entry.getValue().copy());
+            }
+            this.requestCount = collector.requestCount;
+            this.failureCount = collector.failureCount;
+            this.cacheHitCount = collector.cacheHitCount;
+            this.bytesWritten = collector.bytesWritten;
+            this.bytesReceived = collector.bytesReceived;
+        }
+
+        /**
+         * @return 主机或接口
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @param phase 阶段
+         * @return 这个阶段耗时的直方图
+         */
+        public LatencyHistogram getHistogram(Phase phase) {
+            return histograms.get(phase);
+        }
+
+        /**
+         * @return 完成的请求数
+         */
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * @return 失败的请求数
+         */
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * @return 直接使用缓存的请求数
+         */
+        public long getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        /**
+         * @return 写入的请求体字节数
+         */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * @return 从网络读取的响应体字节数
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Stats{").append(key)
+                    .append(", requests=").append(requestCount)
+                    .append(", failures=").append(failureCount)
+                    .append(", cacheHits=").append(cacheHitCount)
+                    .append(", bytesWritten=").append(bytesWritten)
+                    .append(", bytesReceived=").append(bytesReceived);
+            for (Map.Entry<Phase, LatencyHistogram> entry : histograms.entrySet()) {
+                builder.append(", ").append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            return builder.append('}').toString();
+        }
+    }
+}
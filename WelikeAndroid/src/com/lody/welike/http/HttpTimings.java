@@ -0,0 +1,147 @@
+package com.lody.welike.http;
+
+/**
+ * 一个请求在各个阶段的时间点(纳秒,{@link System#nanoTime()})和传输的字节数,
+ * 用于分析慢请求耗在了排队,缓存,连接,等待首字节还是传输响应体上.
+ * <br>
+ * 请求重试时,网络相关的时间点记录的是最后一次尝试.
+ * 某个阶段没有发生(例如命中缓存时没有连接)时,对应的耗时为-1.
+ *
+ * @author Lody
+ * @version 1.0
+ * @see HttpEventListener
+ */
+public final class HttpTimings {
+
+    /*package*/ long enqueueNanos;
+    /*package*/ long dequeueNanos;
+    /*package*/ long startNanos;
+    /*package*/ long cacheLookupStartNanos;
+    /*package*/ long cacheLookupEndNanos;
+    /*package*/ long connectStartNanos;
+    /*package*/ long connectEndNanos;
+    /*package*/ long requestWrittenNanos;
+    /*package*/ long headersNanos;
+    /*package*/ long bodyCompleteNanos;
+    /*package*/ long deliveredNanos;
+    /*package*/ long bytesWritten;
+    /*package*/ long bytesReceived;
+    /*package*/ boolean cacheHit;
+
+    /**
+     * 开始新的一次尝试,清除上一次网络请求的记录
+     */
+    /*package*/ void resetAttempt() {
+        connectStartNanos = 0;
+        connectEndNanos = 0;
+        requestWrittenNanos = 0;
+        headersNanos = 0;
+        bodyCompleteNanos = 0;
+        bytesWritten = 0;
+        bytesReceived = 0;
+    }
+
+    /**
+     * @return 在请求队列中等待的时间(纳秒)
+     */
+    public long getQueueNanos() {
+        return span(enqueueNanos, dequeueNanos);
+    }
+
+    /**
+     * @return 从进入队列到在工作线程开始执行的时间(纳秒)
+     */
+    public long getQueueToStartNanos() {
+        return span(enqueueNanos, startNanos);
+    }
+
+    /**
+     * @return 查找缓存的时间(纳秒)
+     */
+    public long getCacheLookupNanos() {
+        return span(cacheLookupStartNanos, cacheLookupEndNanos);
+    }
+
+    /**
+     * @return 建立连接的时间(纳秒), 包括对冲请求的等待
+     */
+    public long getConnectNanos() {
+        return span(connectStartNanos, connectEndNanos);
+    }
+
+    /**
+     * @return 写入请求体的时间(纳秒)
+     */
+    public long getRequestWriteNanos() {
+        return span(connectEndNanos, requestWrittenNanos);
+    }
+
+    /**
+     * @return 写完请求到收到响应头的时间(纳秒)
+     */
+    public long getTimeToFirstByteNanos() {
+        return span(requestWrittenNanos, headersNanos);
+    }
+
+    /**
+     * @return 读取响应体的时间(纳秒)
+     */
+    public long getBodyNanos() {
+        return span(headersNanos, bodyCompleteNanos);
+    }
+
+    /**
+     * @return 从读完响应体(或命中缓存)到回调执行完的时间(纳秒), 包括转换响应和切换到主线程
+     */
+    public long getDeliverNanos() {
+        long from = bodyCompleteNanos != 0 ? bodyCompleteNanos : cacheLookupEndNanos;
+        return span(from, deliveredNanos);
+    }
+
+    /**
+     * @return 从进入队列(没有经过队列时从开始执行)到回调执行完的时间(纳秒)
+     */
+    public long getTotalNanos() {
+        return span(enqueueNanos != 0 ? enqueueNanos : startNanos, deliveredNanos);
+    }
+
+    /**
+     * @return 写入的请求体字节数
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return 从网络读取的响应体字节数
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return 结果是否直接来自缓存
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    private static long span(long from, long to) {
+        return from == 0 || to == 0 ? -1 : to - from;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpTimings{queue=" + getQueueNanos()
+                + ", cacheLookup=" + getCacheLookupNanos()
+                + ", connect=" + getConnectNanos()
+                + ", requestWrite=" + getRequestWriteNanos()
+                + ", ttfb=" + getTimeToFirstByteNanos()
+                + ", body=" + getBodyNanos()
+                + ", deliver=" + getDeliverNanos()
+                + ", total=" + getTotalNanos()
+                + ", bytesWritten=" + bytesWritten
+                + ", bytesReceived=" + bytesReceived
+                + ", cacheHit=" + cacheHit + '}';
+    }
+}
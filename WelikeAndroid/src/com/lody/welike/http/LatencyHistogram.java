@@ -0,0 +1,116 @@
+package com.lody.welike.http;
+
+/**
+ * 耗时的直方图,桶的边界按2的幂增长(1us,2us,4us...约34s),
+ * 不保存样本,占用的内存是固定的.百分位按桶的上界估算,误差不超过一倍.
+ * <br>
+ * 本类不是线程安全的,由使用者同步.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public final class LatencyHistogram {
+
+    /**
+     * 桶的个数,最后一个桶容纳所有更大的值
+     */
+    private static final int BUCKET_COUNT = 26;
+
+    private final long[] buckets;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public LatencyHistogram() {
+        buckets = new long[BUCKET_COUNT];
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        buckets = other.buckets.clone();
+        count = other.count;
+        totalNanos = other.totalNanos;
+        maxNanos = other.maxNanos;
+    }
+
+    /**
+     * 记录一个耗时,小于0的值被忽略
+     *
+     * @param nanos 耗时(纳秒)
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        long micros = nanos / 1000;
+        //值落在[2^(i-1), 2^i)微秒的桶i中
+        int index = 64 - Long.numberOfLeadingZeros(micros);
+        buckets[Math.min(index, BUCKET_COUNT - 1)]++;
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+    }
+
+    /**
+     * @return 记录的次数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return 平均耗时(纳秒), 没有记录时返回-1
+     */
+    public long getAverageNanos() {
+        return count == 0 ? -1 : totalNanos / count;
+    }
+
+    /**
+     * @return 最大耗时(纳秒)
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * 估算百分位
+     *
+     * @param percentile 百分位(1-100)
+     * @return 耗时(纳秒), 没有记录时返回-1
+     */
+    public long getPercentileNanos(int percentile) {
+        if (percentile < 1 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in [1, 100]");
+        }
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                long upperBound = i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << i) * 1000;
+                return Math.min(upperBound, maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    /**
+     * @return 当前数据的副本
+     */
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + count
+                + ", avg=" + getAverageNanos() / 1000 + "us"
+                + ", p50=" + (count == 0 ? -1 : getPercentileNanos(50) / 1000) + "us"
+                + ", p95=" + (count == 0 ? -1 : getPercentileNanos(95) / 1000) + "us"
+                + ", max=" + maxNanos / 1000 + "us}";
+    }
+}
@@ -0,0 +1,187 @@
+package com.lody.welike.http;
+
+import com.lody.welike.http.callback.FileUploadCallback;
+import com.lody.welike.utils.ByteArrayPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * multipart/form-data格式的请求体.
+ * 请求体的总长度在写入前就可以确定,文件按固定大小的块从磁盘读取并写入,
+ * 不会把整个文件读入内存.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ final class MultipartBody {
+
+    private static final String CRLF = "\r\n";
+    private static final byte[] CRLF_BYTES = {'\r', '\n'};
+
+    /**
+     * 每次从文件读取的字节数
+     */
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    /**
+     * 请求体的各个部分
+     */
+    private final List<Part> parts = new ArrayList<>();
+
+    /**
+     * 结尾的分割线
+     */
+    private final byte[] end;
+
+    /**
+     * 请求体的总长度
+     */
+    private final long contentLength;
+
+    /**
+     * 所有文件的总长度
+     */
+    private final long filesLength;
+
+    /**
+     * @param params   请求参数和需要上传的文件
+     * @param encoding 参数的编码
+     * @throws IOException
+     */
+    /*package*/ MultipartBody(HttpParams params, String encoding) throws IOException {
+        //普通参数在前,服务器可以在接收文件之前拿到它们
+        for (String name : params.paramKeySet()) {
+            String value = params.getParam(name);
+            String header = "--" + params.boundary + CRLF
+                    + "Content-Disposition: form-data; name=\"" + name + "\"" + CRLF
+                    + CRLF
+                    + URLEncoder.encode(value, encoding) + CRLF;
+            parts.add(new Part(header.getBytes(encoding), null));
+        }
+        for (String name : params.getUploadFiles().keySet()) {
+            File file = params.getUploadFiles().get(name);
+            String header = "--" + params.boundary + CRLF
+                    + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\""
+                    + URLEncoder.encode(file.getName(), encoding) + "\"" + CRLF
+                    + "Content-Type: " + getContentType(file) + CRLF
+                    + CRLF;
+            parts.add(new Part(header.getBytes(encoding), file));
+        }
+        end = ("--" + params.boundary + "--" + CRLF).getBytes(encoding);
+
+        long length = end.length;
+        long files = 0;
+        for (Part part : parts) {
+            length += part.length();
+            if (part.file != null) {
+                files += part.fileLength;
+            }
+        }
+        contentLength = length;
+        filesLength = files;
+    }
+
+    /**
+     * @return 请求体的总字节数
+     */
+    /*package*/ long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * 将请求体写入输出流,在当前线程回调上传进度.
+     *
+     * @param request  请求
+     * @param out      输出流
+     * @param callback 上传回调,可以为null
+     * @throws IOException
+     */
+    /*package*/ void writeTo(HttpRequest request, OutputStream out, FileUploadCallback callback) throws IOException {
+        long filesWritten = 0;
+        byte[] buffer = ByteArrayPool.get().getBuf(CHUNK_SIZE);
+        try {
+            for (Part part : parts) {
+                out.write(part.header);
+                if (part.file == null) {
+                    continue;
+                }
+                File file = part.file;
+                if (callback != null) {
+                    callback.onFileStartUpload(request, file);
+                }
+                try {
+                    long fileWritten = 0;
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        while (fileWritten < part.fileLength) {
+                            int read = in.read(buffer, 0, (int) Math.min(buffer.length, part.fileLength - fileWritten));
+                            if (read == -1) {
+                                //请求体的长度已经确定,文件不能在上传过程中变短
+                                throw new IOException("文件在上传过程中被修改: " + file);
+                            }
+                            out.write(buffer, 0, read);
+                            fileWritten += read;
+                            filesWritten += read;
+                            if (callback != null) {
+                                callback.onFileUploadProgress(request, file, fileWritten, part.fileLength);
+                                callback.onUploadProgress(request, filesWritten, filesLength);
+                            }
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    out.write(CRLF_BYTES);
+                } catch (IOException e) {
+                    if (callback != null) {
+                        callback.onFileUploadFailed(e.getMessage(), file);
+                    }
+                    throw e;
+                }
+                if (callback != null) {
+                    callback.onFileUploadSuccess(request, file);
+                }
+            }
+            out.write(end);
+            out.flush();
+        } finally {
+            ByteArrayPool.get().returnBuf(buffer);
+        }
+    }
+
+    private static String getContentType(File file) {
+        return "application/octet-stream";
+    }
+
+    /**
+     * 请求体的一部分,由描述和可选的文件组成.
+     */
+    private static final class Part {
+
+        final byte[] header;
+        final File file;
+        /**
+         * 文件长度在构造时确定,之后写入的字节数以它为准
+         */
+        final long fileLength;
+
+        Part(byte[] header, File file) throws IOException {
+            this.header = header;
+            this.file = file;
+            if (file != null && !file.isFile()) {
+                throw new IOException("需要上传的文件不存在: " + file);
+            }
+            this.fileLength = file == null ? 0 : file.length();
+        }
+
+        long length() {
+            return file == null ? header.length : header.length + fileLength + CRLF_BYTES.length;
+        }
+    }
+}
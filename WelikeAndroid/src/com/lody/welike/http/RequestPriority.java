@@ -0,0 +1,29 @@
+package com.lody.welike.http;
+
+/**
+ * Http请求的优先级,优先级越高越先被派发.
+ *
+ * @author Lody
+ */
+public enum RequestPriority {
+    /**
+     * 需要立即执行的请求,如用户正在等待的操作
+     */
+    IMMEDIATE,
+    /**
+     * 高优先级
+     */
+    HIGH,
+    /**
+     * 普通优先级(默认)
+     */
+    NORMAL,
+    /**
+     * 低优先级
+     */
+    LOW,
+    /**
+     * 预加载请求,只在空闲时执行
+     */
+    PREFETCH,
+}
@@ -0,0 +1,187 @@
+package com.lody.welike.http;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按{@link RequestPriority}分级的请求队列,同一优先级内先进先出.
+ * 为了避免低优先级的请求被饿死,在一个级别等待超过老化时间的请求会被提升一级.
+ * <br>
+ * 本类不是线程安全的,由{@link HttpRequestQueue}负责同步.
+ *
+ * @author Lody
+ */
+class RequestPriorityQueue {
+
+    /**
+     * 每个优先级对应一个队列
+     */
+    private final ArrayDeque<HttpRequest>[] levels;
+
+    /**
+     * 老化时间(纳秒),小于等于0时不做老化.
+     */
+    private long agingNanos;
+
+    /**
+     * 队列中的请求数
+     */
+    private int size;
+
+    /**
+     * @param agingMillis 老化时间(毫秒)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    RequestPriorityQueue(long agingMillis) {
+        levels = new ArrayDeque[RequestPriority.values().length];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new ArrayDeque<>();
+        }
+        setAgingTime(agingMillis);
+    }
+
+    /**
+     * 设置老化时间
+     *
+     * @param agingMillis 老化时间(毫秒)
+     */
+    void setAgingTime(long agingMillis) {
+        this.agingNanos = agingMillis * 1000000L;
+    }
+
+    /**
+     * 按请求的优先级放入队列
+     *
+     * @param request
+     */
+    void offer(HttpRequest request) {
+        add(request, request.getPriority().ordinal());
+    }
+
+    /**
+     * 放到请求所在级别的最前面,用于曾经到达过队首又被推迟派发的请求.
+     *
+     * @param request
+     */
+    void offerFirst(HttpRequest request) {
+        int level = Math.min(request.queueLevel, request.getPriority().ordinal());
+        request.queueLevel = level;
+        //保留原来的进入时间,并且不晚于当前的队首,age()依赖队首是最早进入的请求
+        HttpRequest head = levels[level].peekFirst();
+        if (head != null && head.levelEnterNanos < request.levelEnterNanos) {
+            request.levelEnterNanos = head.levelEnterNanos;
+        }
+        levels[level].addFirst(request);
+        size++;
+    }
+
+    private void add(HttpRequest request, int level) {
+        request.queueLevel = level;
+        request.levelEnterNanos = System.nanoTime();
+        levels[level].addLast(request);
+        size++;
+    }
+
+    /**
+     * 从队列中移除一个请求
+     *
+     * @param request
+     * @return 请求是否在队列中
+     */
+    boolean remove(HttpRequest request) {
+        if (levels[request.queueLevel].remove(request)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 请求的优先级改变后,将它移动到新的级别.
+     *
+     * @param request
+     */
+    void reposition(HttpRequest request) {
+        if (remove(request)) {
+            offer(request);
+        }
+    }
+
+    /**
+     * 取出当前优先级最高的请求
+     *
+     * @return 请求, 队列为空时返回null
+     */
+    HttpRequest poll() {
+        age();
+        for (ArrayDeque<HttpRequest> level : levels) {
+            if (!level.isEmpty()) {
+                size--;
+                return level.pollFirst();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查看当前优先级最高的请求,但不取出.
+     *
+     * @return 请求, 队列为空时返回null
+     */
+    HttpRequest peek() {
+        age();
+        for (ArrayDeque<HttpRequest> level : levels) {
+            if (!level.isEmpty()) {
+                return level.peekFirst();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 将等待过久的请求提升一级.
+     * 每个级别内最早进入的请求位于队首,所以只需要检查队首.
+     */
+    private void age() {
+        if (agingNanos <= 0 || size == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = 1; i < levels.length; i++) {
+            HttpRequest head;
+            while ((head = levels[i].peekFirst()) != null && now - head.levelEnterNanos >= agingNanos) {
+                levels[i].pollFirst();
+                head.queueLevel = i - 1;
+                head.levelEnterNanos = now;
+                levels[i - 1].addLast(head);
+            }
+        }
+    }
+
+    /**
+     * @return 队列中的请求数
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 取出队列中的所有请求并清空队列
+     *
+     * @return 队列中的请求
+     */
+    List<HttpRequest> drain() {
+        List<HttpRequest> requests = new ArrayList<>(size);
+        for (ArrayDeque<HttpRequest> level : levels) {
+            requests.addAll(level);
+            level.clear();
+        }
+        size = 0;
+        return requests;
+    }
+}
@@ -0,0 +1,417 @@
+package com.lody.welike.http;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * 可以保存中间状态的摘要算法(MD5/SHA-1/SHA-256).
+ * 系统的{@link java.security.MessageDigest}不能把计算到一半的状态写入文件,
+ * 下载暂停或进程重启后只能重新读取已经下载的部分.
+ * 这里的实现可以把中间状态保存到下载日志中,恢复下载后直接接着计算.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ abstract class ResumableDigest {
+
+    /*package*/ static final String MD5 = "MD5";
+    /*package*/ static final String SHA1 = "SHA-1";
+    /*package*/ static final String SHA256 = "SHA-256";
+
+    private static final int BLOCK_SIZE = 64;
+
+    private final String algorithm;
+
+    /**
+     * 算法的中间状态
+     */
+    protected final int[] state;
+
+    /**
+     * 还没有凑满一个块的数据
+     */
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+
+    /**
+     * 已经处理的字节数
+     */
+    private long byteCount;
+
+    private ResumableDigest(String algorithm, int[] initialState) {
+        this.algorithm = algorithm;
+        this.state = initialState;
+    }
+
+    /**
+     * 创建摘要算法
+     *
+     * @param algorithm 算法名,如"MD5","SHA-256",不区分大小写
+     * @return 摘要算法, 不支持时返回null
+     */
+    /*package*/ static ResumableDigest create(String algorithm) {
+        String name = normalize(algorithm);
+        if (MD5.equals(name)) {
+            return new Md5();
+        }
+        if (SHA1.equals(name)) {
+            return new Sha1();
+        }
+        if (SHA256.equals(name)) {
+            return new Sha256();
+        }
+        return null;
+    }
+
+    /**
+     * 统一算法名的写法
+     *
+     * @param algorithm 算法名,如"sha-256","SHA256","SHA"
+     * @return 标准的算法名, 不支持时返回null
+     */
+    /*package*/ static String normalize(String algorithm) {
+        if (algorithm == null) {
+            return null;
+        }
+        String name = algorithm.trim().toUpperCase(Locale.US).replace("-", "");
+        if ("MD5".equals(name)) {
+            return MD5;
+        }
+        if ("SHA".equals(name) || "SHA1".equals(name)) {
+            return SHA1;
+        }
+        if ("SHA256".equals(name)) {
+            return SHA256;
+        }
+        return null;
+    }
+
+    /**
+     * @return 标准的算法名
+     */
+    /*package*/ String getAlgorithm() {
+        return algorithm;
+    }
+
+    /*package*/ void update(byte[] data, int offset, int length) {
+        byteCount += length;
+        if (blockLength > 0) {
+            int count = Math.min(length, BLOCK_SIZE - blockLength);
+            System.arraycopy(data, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            length -= count;
+            if (blockLength < BLOCK_SIZE) {
+                return;
+            }
+            processBlock(block, 0);
+            blockLength = 0;
+        }
+        while (length >= BLOCK_SIZE) {
+            processBlock(data, offset);
+            offset += BLOCK_SIZE;
+            length -= BLOCK_SIZE;
+        }
+        System.arraycopy(data, offset, block, 0, length);
+        blockLength = length;
+    }
+
+    /**
+     * 处理缓冲区中剩余的数据,不改变缓冲区的位置
+     */
+    /*package*/ void update(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        byte[] chunk = new byte[Math.min(data.remaining(), 4096)];
+        while (data.hasRemaining()) {
+            int count = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, count);
+            update(chunk, 0, count);
+        }
+    }
+
+    /**
+     * 计算摘要,不影响当前的状态
+     *
+     * @return 摘要
+     */
+    /*package*/ byte[] digest() {
+        ResumableDigest copy = copy();
+        long bitLength = copy.byteCount * 8;
+        copy.update(new byte[]{(byte) 0x80}, 0, 1);
+        if (copy.blockLength > BLOCK_SIZE - 8) {
+            copy.update(new byte[BLOCK_SIZE - copy.blockLength], 0, BLOCK_SIZE - copy.blockLength);
+        }
+        copy.update(new byte[BLOCK_SIZE - 8 - copy.blockLength], 0, BLOCK_SIZE - 8 - copy.blockLength);
+        byte[] length = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            int shift = isBigEndian() ? (7 - i) * 8 : i * 8;
+            length[i] = (byte) (bitLength >>> shift);
+        }
+        copy.update(length, 0, 8);
+        byte[] result = new byte[copy.state.length * 4];
+        for (int i = 0; i < copy.state.length; i++) {
+            for (int j = 0; j < 4; j++) {
+                int shift = isBigEndian() ? (3 - j) * 8 : j * 8;
+                result[i * 4 + j] = (byte) (copy.state[i] >>> shift);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 状态相同的副本
+     */
+    /*package*/ ResumableDigest copy() {
+        ResumableDigest copy = create(algorithm);
+        System.arraycopy(state, 0, copy.state, 0, state.length);
+        System.arraycopy(block, 0, copy.block, 0, blockLength);
+        copy.blockLength = blockLength;
+        copy.byteCount = byteCount;
+        return copy;
+    }
+
+    /**
+     * 写入中间状态
+     *
+     * @throws IOException
+     */
+    /*package*/ void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(algorithm);
+        out.writeLong(byteCount);
+        for (int word : state) {
+            out.writeInt(word);
+        }
+        out.write(block, 0, blockLength);
+    }
+
+    /**
+     * 读取{@link #writeTo(DataOutputStream)}写入的中间状态
+     *
+     * @return 摘要算法
+     * @throws IOException
+     */
+    /*package*/ static ResumableDigest readFrom(DataInputStream in) throws IOException {
+        ResumableDigest digest = create(in.readUTF());
+        if (digest == null) {
+            throw new IOException("不支持的摘要算法");
+        }
+        digest.byteCount = in.readLong();
+        for (int i = 0; i < digest.state.length; i++) {
+            digest.state[i] = in.readInt();
+        }
+        digest.blockLength = (int) (digest.byteCount % BLOCK_SIZE);
+        in.readFully(digest.block, 0, digest.blockLength);
+        return digest;
+    }
+
+    /**
+     * @return 长度和结果是否按大端序排列
+     */
+    protected abstract boolean isBigEndian();
+
+    /**
+     * 处理一个64字节的块
+     */
+    protected abstract void processBlock(byte[] data, int offset);
+
+    private static int readIntBigEndian(byte[] data, int offset) {
+        return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static final class Md5 extends ResumableDigest {
+
+        private static final int[] SHIFTS = {
+                7, 12, 17, 22, 5, 9, 14, 20, 4, 11, 16, 23, 6, 10, 15, 21
+        };
+
+        private static final int[] K = new int[64];
+
+        static {
+            for (int i = 0; i < 64; i++) {
+                K[i] = (int) (long) (Math.abs(Math.sin(i + 1)) * 4294967296.0);
+            }
+        }
+
+        private final int[] x = new int[16];
+
+        Md5() {
+            super(MD5, new int[]{0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476});
+        }
+
+        @Override
+        protected boolean isBigEndian() {
+            return false;
+        }
+
+        @Override
+        protected void processBlock(byte[] data, int offset) {
+            for (int i = 0; i < 16; i++) {
+                int p = offset + i * 4;
+                x[i] = (data[p] & 0xff) | ((data[p + 1] & 0xff) << 8)
+                        | ((data[p + 2] & 0xff) << 16) | (data[p + 3] << 24);
+            }
+            int a = state[0];
+            int b = state[1];
+            int c = state[2];
+            int d = state[3];
+            for (int i = 0; i < 64; i++) {
+                int f;
+                int g;
+                int round = i >>> 4;
+                if (round == 0) {
+                    f = (b & c) | (~b & d);
+                    g = i;
+                } else if (round == 1) {
+                    f = (d & b) | (~d & c);
+                    g = (5 * i + 1) & 15;
+                } else if (round == 2) {
+                    f = b ^ c ^ d;
+                    g = (3 * i + 5) & 15;
+                } else {
+                    f = c ^ (b | ~d);
+                    g = (7 * i) & 15;
+                }
+                int temp = d;
+                d = c;
+                c = b;
+                b = b + Integer.rotateLeft(a + f + K[i] + x[g], SHIFTS[(round << 2) | (i & 3)]);
+                a = temp;
+            }
+            state[0] += a;
+            state[1] += b;
+            state[2] += c;
+            state[3] += d;
+        }
+    }
+
+    private static final class Sha1 extends ResumableDigest {
+
+        private final int[] w = new int[80];
+
+        Sha1() {
+            super(SHA1, new int[]{0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476, 0xc3d2e1f0});
+        }
+
+        @Override
+        protected boolean isBigEndian() {
+            return true;
+        }
+
+        @Override
+        protected void processBlock(byte[] data, int offset) {
+            for (int i = 0; i < 16; i++) {
+                w[i] = readIntBigEndian(data, offset + i * 4);
+            }
+            for (int i = 16; i < 80; i++) {
+                w[i] = Integer.rotateLeft(w[i - 3] ^ w[i - 8] ^ w[i - 14] ^ w[i - 16], 1);
+            }
+            int a = state[0];
+            int b = state[1];
+            int c = state[2];
+            int d = state[3];
+            int e = state[4];
+            for (int i = 0; i < 80; i++) {
+                int f;
+                int k;
+                if (i < 20) {
+                    f = (b & c) | (~b & d);
+                    k = 0x5a827999;
+                } else if (i < 40) {
+                    f = b ^ c ^ d;
+                    k = 0x6ed9eba1;
+                } else if (i < 60) {
+                    f = (b & c) | (b & d) | (c & d);
+                    k = 0x8f1bbcdc;
+                } else {
+                    f = b ^ c ^ d;
+                    k = 0xca62c1d6;
+                }
+                int temp = Integer.rotateLeft(a, 5) + f + e + k + w[i];
+                e = d;
+                d = c;
+                c = Integer.rotateLeft(b, 30);
+                b = a;
+                a = temp;
+            }
+            state[0] += a;
+            state[1] += b;
+            state[2] += c;
+            state[3] += d;
+            state[4] += e;
+        }
+    }
+
+    private static final class Sha256 extends ResumableDigest {
+
+        private static final int[] K = {
+                0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+                0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+                0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+                0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+                0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+                0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+                0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+                0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+        };
+
+        private final int[] w = new int[64];
+
+        Sha256() {
+            super(SHA256, new int[]{0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a,
+                    0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19});
+        }
+
+        @Override
+        protected boolean isBigEndian() {
+            return true;
+        }
+
+        @Override
+        protected void processBlock(byte[] data, int offset) {
+            for (int i = 0; i < 16; i++) {
+                w[i] = readIntBigEndian(data, offset + i * 4);
+            }
+            for (int i = 16; i < 64; i++) {
+                int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+                int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+                w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+            }
+            int a = state[0];
+            int b = state[1];
+            int c = state[2];
+            int d = state[3];
+            int e = state[4];
+            int f = state[5];
+            int g = state[6];
+            int h = state[7];
+            for (int i = 0; i < 64; i++) {
+                int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+                int ch = (e & f) ^ (~e & g);
+                int temp1 = h + s1 + ch + K[i] + w[i];
+                int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+                int maj = (a & b) ^ (a & c) ^ (b & c);
+                int temp2 = s0 + maj;
+                h = g;
+                g = f;
+                f = e;
+                e = d + temp1;
+                d = c;
+                c = b;
+                b = a;
+                a = temp1 + temp2;
+            }
+            state[0] += a;
+            state[1] += b;
+            state[2] += c;
+            state[3] += d;
+            state[4] += e;
+            state[5] += f;
+            state[6] += g;
+            state[7] += h;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.lody.welike.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * Http请求的重试策略.
+ * 请求因为网络错误或服务器暂时不可用(408,429,5xx)失败时,
+ * 等待一段指数增长并带有随机抖动的时间后重试,避免大量请求在同一时刻重试.
+ * <br>
+ * 默认只重试幂等的GET请求,POST请求需要{@link #setRetryPost(boolean)}.
+ * 可以继承本类并重写{@link #shouldRetry(HttpRequest, int, HttpResponse, IOException)}
+ * 和{@link #getBackoffMillis(int, HttpResponse)}实现自己的策略.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class RetryPolicy {
+
+    /**
+     * 默认的最多尝试次数(包括第一次)
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    /**
+     * 默认的第一次重试前的等待时间
+     */
+    public static final long DEFAULT_INITIAL_BACKOFF = 500;
+    /**
+     * 默认的最长等待时间
+     */
+    public static final long DEFAULT_MAX_BACKOFF = 10 * 1000;
+
+    private static final Random RANDOM = new Random();
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private float multiplier = 2;
+    private boolean retryPost = false;
+
+    /**
+     * @return 不重试的策略
+     */
+    public static RetryPolicy noRetry() {
+        return new RetryPolicy().setMaxAttempts(1);
+    }
+
+    /**
+     * 判断失败的请求是否需要重试
+     *
+     * @param request  请求
+     * @param attempt  已经尝试的次数,从1开始
+     * @param response 服务器的响应,网络错误时响应代码为0
+     * @param e        网络错误,服务器返回错误代码时为null
+     * @return 是否重试
+     */
+    public boolean shouldRetry(HttpRequest request, int attempt, HttpResponse response, IOException e) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        if (request.getSession().getRequestMethod() != RequestMethod.GET && !retryPost) {
+            //非幂等的请求可能已经被服务器处理过了
+            return false;
+        }
+        if (e != null) {
+            return true;
+        }
+        return isRetryableCode(response.responseCode);
+    }
+
+    /**
+     * @param responseCode 响应代码
+     * @return 是否是暂时性的错误
+     */
+    protected boolean isRetryableCode(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || responseCode == 429
+                || responseCode >= 500;
+    }
+
+    /**
+     * 计算下一次重试前的等待时间.
+     * 在[0, min(maxBackoff, initialBackoff * multiplier^(attempt-1))]中随机取值(full jitter),
+     * 服务器返回Retry-After时以它为下限.
+     *
+     * @param attempt  已经尝试的次数,从1开始
+     * @param response 服务器的响应
+     * @return 等待时间(毫秒)
+     */
+    public long getBackoffMillis(int attempt, HttpResponse response) {
+        double backoff = initialBackoff * Math.pow(multiplier, attempt - 1);
+        long ceiling = (long) Math.min(maxBackoff, backoff);
+        long delay;
+        synchronized (RANDOM) {
+            delay = (long) (RANDOM.nextDouble() * ceiling);
+        }
+        long retryAfter = parseRetryAfter(response);
+        if (retryAfter > 0) {
+            delay = Math.max(delay, Math.min(retryAfter, maxBackoff));
+        }
+        return delay;
+    }
+
+    /**
+     * @return Retry-After指定的等待时间(毫秒), 没有时返回-1
+     */
+    private static long parseRetryAfter(HttpResponse response) {
+        String retryAfter = CacheControl.getHeader(response.header, "Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            long date = CacheFreshness.parseHttpDate(retryAfter);
+            return date == -1 ? -1 : date - System.currentTimeMillis();
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts 最多尝试次数(包括第一次),设为1则不重试
+     * @return 重试策略
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts < 1");
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * @param initialBackoff 第一次重试前的最长等待时间(毫秒)
+     * @return 重试策略
+     */
+    public RetryPolicy setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = Math.max(0, initialBackoff);
+        return this;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * @param maxBackoff 最长等待时间(毫秒)
+     * @return 重试策略
+     */
+    public RetryPolicy setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = Math.max(0, maxBackoff);
+        return this;
+    }
+
+    public float getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * @param multiplier 每次重试等待时间的增长倍数
+     * @return 重试策略
+     */
+    public RetryPolicy setMultiplier(float multiplier) {
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier < 1");
+        }
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    public boolean isRetryPost() {
+        return retryPost;
+    }
+
+    /**
+     * @param retryPost 是否重试POST请求,只有服务器能处理重复提交时才应该开启
+     * @return 重试策略
+     */
+    public RetryPolicy setRetryPost(boolean retryPost) {
+        this.retryPost = retryPost;
+        return this;
+    }
+}
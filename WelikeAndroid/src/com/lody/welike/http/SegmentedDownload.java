@@ -0,0 +1,632 @@
+package com.lody.welike.http;
+
+import com.lody.welike.utils.ByteArrayPool;
+import com.lody.welike.utils.TaskScheduler;
+import com.lody.welike.utils.WeLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分段下载.
+ * 文件被划分为多个字节区间(Range),由多个线程并行下载,每个区间写入目标文件中自己的位置.
+ * <br>
+ * 区间不是预先划分好的:空闲的线程会把剩余最多的区间从中间切开,取走后半段,
+ * 所以快的连接会自动承担更多的数据.
+ * 线程数从{@link #INITIAL_WORKERS}开始,每个采样周期检查一次总吞吐量,
+ * 吞吐量仍在明显增长时才会增加线程,直到{@link DownloadController#getMaxSegments()}.
+ * <br>
+ * 调用{@link #run(HttpURLConnection)}的线程同样参与下载,
+ * 即使额外的线程因为线程池已满而迟迟没有启动,下载也能完成.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ final class SegmentedDownload {
+
+    /**
+     * 区间的最小长度,小于它的区间不再切分
+     */
+    /*package*/ static final long MIN_SEGMENT_SIZE = 512 * 1024;
+
+    /**
+     * 开始时的线程数(包括调用者)
+     */
+    private static final int INITIAL_WORKERS = 2;
+
+    /**
+     * 吞吐量采样周期(纳秒)
+     */
+    private static final long SAMPLE_INTERVAL_NANOS = 1000L * 1000 * 1000;
+
+    /**
+     * 增加线程后,吞吐量至少要提升的比例(百分比),否则认为带宽已经跑满
+     */
+    private static final int MIN_GAIN_PERCENT = 10;
+
+    /**
+     * 一个区间最多重试的次数
+     */
+    private static final int MAX_RETRY = 3;
+
+    /**
+     * 保存下载进度的周期(纳秒)
+     */
+    private static final long CHECKPOINT_INTERVAL_NANOS = 1000L * 1000 * 1000;
+
+    private static final int BUFFER_SIZE = 4 * 1024;
+
+    private final DownloadTask task;
+    private final String url;
+    private final DownloadSink sink;
+    private final long contentLength;
+    private final int maxWorkers;
+
+    /**
+     * 已写入数据的摘要,只有一个线程顺序下载时才会计算
+     */
+    private final ResumableDigest digest;
+
+    /**
+     * 所有区间,只能在持有this锁时访问
+     */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * 已经派发的线程数(包括调用者)
+     */
+    private int workers;
+    /**
+     * 正在下载的线程数
+     */
+    private int runningWorkers;
+    /**
+     * 已写入的字节数
+     */
+    private long downloaded;
+    /**
+     * 导致下载失败的异常
+     */
+    private IOException failure;
+    /**
+     * {@link #run(HttpURLConnection)}已经返回,文件可能已经关闭.
+     * 还在排队的线程启动后不能再领取区间(任务可能已经恢复,{@link DownloadTask#isStopped()}不再可靠)
+     */
+    private boolean finished;
+
+    //吞吐量采样
+    private long sampleStartNanos;
+    private long sampleBytes;
+    private long lastThroughput;
+    /**
+     * 增加线程已经不能提升吞吐量
+     */
+    private boolean saturated;
+
+    //进度保存
+    private long lastCheckpointNanos;
+    private boolean checkpointing;
+
+    /**
+     * @param task          下载任务
+     * @param url           下载的Url
+     * @param sink          目标文件,长度必须已经设为contentLength
+     * @param contentLength 文件总长度
+     * @param ranges        需要下载的区间,每一项为{开始位置, 结束位置(包含)}
+     * @param maxWorkers    最多同时下载的区间数
+     * @param digest        已写入部分的摘要,不为null时只用一个线程按顺序下载
+     */
+    /*package*/ SegmentedDownload(DownloadTask task, String url, DownloadSink sink, long contentLength,
+                                  List<long[]> ranges, int maxWorkers, ResumableDigest digest) {
+        this.task = task;
+        this.url = url;
+        this.sink = sink;
+        this.contentLength = contentLength;
+        //摘要只能按顺序计算
+        this.maxWorkers = digest != null ? 1 : Math.max(1, maxWorkers);
+        this.digest = digest;
+        long remaining = 0;
+        for (long[] range : ranges) {
+            if (range[0] <= range[1]) {
+                segments.add(new Segment(range[0], range[1]));
+                remaining += range[1] - range[0] + 1;
+            }
+        }
+        this.downloaded = contentLength - remaining;
+    }
+
+    /**
+     * 打开一个下载连接
+     *
+     * @param url    下载的Url
+     * @param params 请求头
+     * @return 连接
+     * @throws IOException
+     */
+    /*package*/ static HttpURLConnection openConnection(String url, HttpParams params) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        //Range请求的响应不能被透明解压
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        for (String key : params.headerKeySet()) {
+            connection.setRequestProperty(key, params.getHeader(key));
+        }
+        return connection;
+    }
+
+    /**
+     * 开始下载,阻塞直到下载结束.
+     *
+     * @param firstConnection 已经打开的Range连接,从第一个区间的开始位置读取
+     * @throws IOException 下载失败
+     */
+    /*package*/ void run(HttpURLConnection firstConnection) throws IOException {
+        Segment first;
+        synchronized (this) {
+            if (segments.isEmpty()) {
+                firstConnection.disconnect();
+                return;
+            }
+            first = segments.get(0);
+            first.claimed = true;
+            workers = 1;
+            sampleStartNanos = System.nanoTime();
+            lastCheckpointNanos = sampleStartNanos;
+        }
+        try {
+            for (int i = 1; i < Math.min(INITIAL_WORKERS, maxWorkers); i++) {
+                spawnWorker();
+            }
+            //调用者自己也是一个下载线程
+            runWorker(first, firstConnection);
+            for (; ; ) {
+                Segment segment = claimOrWait();
+                if (segment == null) {
+                    break;
+                }
+                runWorker(segment, null);
+            }
+        } finally {
+            synchronized (this) {
+                //之后启动的线程直接退出
+                finished = true;
+            }
+        }
+        synchronized (this) {
+            //等待其它线程退出后才能关闭文件
+            while (runningWorkers > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * @return 已写入的字节数
+     */
+    /*package*/ synchronized long getDownloaded() {
+        return downloaded;
+    }
+
+    /**
+     * 取得还没有写入磁盘的区间,用于保存下载进度.
+     *
+     * @return 每一项为{已写入的位置, 结束位置(包含)}
+     */
+    /*package*/ synchronized List<long[]> getRemainingRanges() {
+        List<long[]> ranges = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            if (segment.written <= segment.end) {
+                ranges.add(new long[]{segment.written, segment.end});
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * 把已经写入的数据同步到存储设备,然后保存下载进度.
+     */
+    /*package*/ void checkpoint() {
+        //先取得进度再同步,进度中记录的数据一定已经同步
+        List<long[]> ranges;
+        ResumableDigest digestState;
+        synchronized (this) {
+            //只有一个线程在写入,写入器刷新时摘要和区间的位置同时更新
+            ranges = getRemainingRanges();
+            digestState = digest != null ? digest.copy() : null;
+        }
+        try {
+            sink.force();
+        } catch (IOException e) {
+            WeLog.w("同步下载文件失败: " + e.getMessage());
+            return;
+        }
+        task.checkpoint(ranges, digestState);
+    }
+
+    /**
+     * @return 所有区间是否都已下载完成
+     */
+    /*package*/ synchronized boolean isComplete() {
+        for (Segment segment : segments) {
+            if (!segment.isComplete()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 派发一个额外的下载线程,线程启动时才会领取区间.
+     */
+    private void spawnWorker() {
+        synchronized (this) {
+            if (workers >= maxWorkers) {
+                return;
+            }
+            workers++;
+        }
+        WeLog.d("分段下载增加一个线程: " + url);
+        TaskScheduler.get().execute(TaskScheduler.Lane.DOWNLOAD, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (SegmentedDownload.this) {
+                        //排队期间下载可能已经暂停或结束
+                        if (finished || failure != null || task.isStopped()) {
+                            return;
+                        }
+                    }
+                    runWorker(null, null);
+                } finally {
+                    synchronized (SegmentedDownload.this) {
+                        workers--;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 领取一个区间并下载,完成后继续领取,直到没有可以领取的区间.
+     *
+     * @param segment    已经领取的区间,为null时先领取一个
+     * @param connection 区间已经打开的连接,可以为null
+     */
+    private void runWorker(Segment segment, HttpURLConnection connection) {
+        synchronized (this) {
+            runningWorkers++;
+        }
+        try {
+            if (segment == null) {
+                segment = claim();
+            }
+            while (segment != null) {
+                if (!download(segment, connection)) {
+                    break;
+                }
+                connection = null;
+                segment = claim();
+            }
+        } finally {
+            synchronized (this) {
+                runningWorkers--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 领取一个区间:优先领取下载失败后被释放的区间,
+     * 否则从剩余最多的区间中切出后半段.
+     *
+     * @return 区间, 没有可以领取的区间时返回null
+     */
+    private synchronized Segment claim() {
+        if (finished || failure != null || task.isStopped()) {
+            return null;
+        }
+        Segment largest = null;
+        for (Segment segment : segments) {
+            if (segment.isComplete()) {
+                continue;
+            }
+            if (!segment.claimed) {
+                segment.claimed = true;
+                return segment;
+            }
+            if (largest == null || segment.remaining() > largest.remaining()) {
+                largest = segment;
+            }
+        }
+        if (largest == null || largest.remaining() < 2 * MIN_SEGMENT_SIZE) {
+            return null;
+        }
+        long middle = largest.position + largest.remaining() / 2;
+        Segment tail = new Segment(middle, largest.end);
+        tail.claimed = true;
+        largest.end = middle - 1;
+        segments.add(tail);
+        return tail;
+    }
+
+    /**
+     * 调用者领取区间,暂时没有可领取的区间时等待其它线程.
+     *
+     * @return 区间, 下载结束时返回null
+     */
+    private synchronized Segment claimOrWait() {
+        for (; ; ) {
+            if (failure != null || task.isStopped() || isComplete()) {
+                return null;
+            }
+            Segment segment = claim();
+            if (segment != null) {
+                return segment;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 下载一个区间
+     *
+     * @param segment    区间
+     * @param connection 已经打开的连接,为null时新建连接
+     * @return 区间是否下载完成
+     */
+    private boolean download(Segment segment, HttpURLConnection connection) {
+        InputStream in = null;
+        DownloadSink.Writer writer = null;
+        byte[] buffer = ByteArrayPool.get().getBuf(BUFFER_SIZE);
+        try {
+            long from;
+            long to;
+            synchronized (this) {
+                from = segment.position;
+                to = segment.end;
+            }
+            if (connection == null) {
+                HttpParams params = new HttpParams().setRange("bytes=" + from + "-" + to);
+                connection = openConnection(url, params);
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("服务器没有返回请求的区间: " + connection.getResponseCode());
+                }
+            }
+            in = connection.getInputStream();
+            //只有这个线程会推进区间的位置,写入器的数据总是连续的
+            writer = sink.newWriter(from, digest);
+            for (; ; ) {
+                if (task.isStopped()) {
+                    if (!closeWriter(segment, writer)) {
+                        return false;
+                    }
+                    writer = null;
+                    release(segment, null);
+                    return false;
+                }
+                int read = in.read(buffer);
+                if (read == -1) {
+                    synchronized (this) {
+                        if (segment.isComplete()) {
+                            break;
+                        }
+                    }
+                    throw new IOException("连接在区间结束前关闭");
+                }
+                task.throttle(read);
+                int count;
+                //区间可能被其它线程切短,先占用要写入的位置
+                synchronized (this) {
+                    count = (int) Math.min(read, segment.remaining());
+                    segment.position += count;
+                }
+                if (count > 0) {
+                    if (!write(segment, writer, buffer, count)) {
+                        writer = null;
+                        return false;
+                    }
+                }
+                onWritten(count);
+                if (count < read) {
+                    //区间已经完成,多余的数据属于其它区间
+                    break;
+                }
+                synchronized (this) {
+                    if (segment.isComplete()) {
+                        break;
+                    }
+                }
+            }
+            boolean closed = closeWriter(segment, writer);
+            writer = null;
+            return closed;
+        } catch (IOException e) {
+            //保留已经收到的数据,重试时从这里继续
+            if (writer != null) {
+                boolean closed = closeWriter(segment, writer);
+                writer = null;
+                if (!closed) {
+                    return false;
+                }
+            }
+            release(segment, e);
+            return false;
+        } finally {
+            ByteArrayPool.get().returnBuf(buffer);
+            if (writer != null) {
+                closeWriter(segment, writer);
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 将数据写入区间的写入器,写入失败会导致整个下载失败.
+     *
+     * @return 是否写入成功
+     */
+    private boolean write(Segment segment, DownloadSink.Writer writer, byte[] buffer, int count) {
+        try {
+            writer.write(buffer, 0, count);
+        } catch (IOException e) {
+            closeWriter(segment, writer);
+            onWriteFailed(e);
+            return false;
+        }
+        synchronized (this) {
+            segment.written = writer.getFlushedPosition();
+        }
+        return true;
+    }
+
+    /**
+     * 写入缓冲区中剩余的数据并关闭写入器
+     *
+     * @return 是否写入成功
+     */
+    private boolean closeWriter(Segment segment, DownloadSink.Writer writer) {
+        try {
+            writer.close();
+            return true;
+        } catch (IOException e) {
+            onWriteFailed(e);
+            return false;
+        } finally {
+            synchronized (this) {
+                segment.written = writer.getFlushedPosition();
+            }
+        }
+    }
+
+    private synchronized void onWriteFailed(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        notifyAll();
+    }
+
+    /**
+     * 释放一个没有完成的区间,让其它线程继续下载.
+     *
+     * @param segment 区间
+     * @param e       下载失败的原因,暂停或取消时为null
+     */
+    private synchronized void release(Segment segment, IOException e) {
+        segment.claimed = false;
+        if (e != null) {
+            WeLog.w("区间[" + segment.position + "-" + segment.end + "]下载失败: " + e.getMessage());
+            if (++segment.retries > MAX_RETRY && failure == null) {
+                failure = e;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * 记录写入的字节数,更新进度,并根据吞吐量决定是否增加线程.
+     */
+    private void onWritten(int count) {
+        boolean spawn = false;
+        boolean checkpoint = false;
+        long finished;
+        synchronized (this) {
+            downloaded += count;
+            sampleBytes += count;
+            finished = downloaded;
+            long now = System.nanoTime();
+            long elapsed = now - sampleStartNanos;
+            if (elapsed >= SAMPLE_INTERVAL_NANOS) {
+                long throughput = sampleBytes * 1000L * 1000 * 1000 / elapsed;
+                if (!saturated && workers < maxWorkers) {
+                    if (throughput * 100 >= lastThroughput * (100 + MIN_GAIN_PERCENT)) {
+                        spawn = true;
+                    } else {
+                        saturated = true;
+                        WeLog.d("分段下载的吞吐量不再增长,线程数保持为" + workers);
+                    }
+                }
+                lastThroughput = Math.max(lastThroughput, throughput);
+                sampleStartNanos = now;
+                sampleBytes = 0;
+            }
+            if (!checkpointing && now - lastCheckpointNanos >= CHECKPOINT_INTERVAL_NANOS) {
+                checkpointing = true;
+                checkpoint = true;
+                lastCheckpointNanos = now;
+            }
+        }
+        task.updateProgress(finished, contentLength);
+        if (spawn) {
+            spawnWorker();
+        }
+        if (checkpoint) {
+            try {
+                checkpoint();
+            } finally {
+                synchronized (this) {
+                    checkpointing = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个字节区间[start, end]
+     */
+    private static final class Segment {
+        final long start;
+        /**
+         * 区间的结束位置(包含),可能被其它线程切短
+         */
+        long end;
+        /**
+         * 下一个要写入的位置,数据可能还在写入器的缓冲区中
+         */
+        long position;
+        /**
+         * 已经写入文件的位置
+         */
+        long written;
+        boolean claimed;
+        int retries;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+            this.written = start;
+        }
+
+        long remaining() {
+            return end - position + 1;
+        }
+
+        boolean isComplete() {
+            return position > end;
+        }
+    }
+}
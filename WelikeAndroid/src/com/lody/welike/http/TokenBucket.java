@@ -0,0 +1,62 @@
+package com.lody.welike.http;
+
+/**
+ * 令牌桶限速器.
+ * 令牌以每秒rate个字节的速度补充,最多积累一秒的量,
+ * 取走令牌时允许透支,透支的部分由调用者按返回的时间等待,
+ * 这样每次读取的数据块大小不会影响限速的精度.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+/*package*/ final class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+
+    /**
+     * 每秒的字节数,0表示不限速
+     */
+    private long rate;
+
+    private double tokens;
+
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond 每秒的字节数,0表示不限速
+     */
+    /*package*/ synchronized void setRate(long bytesPerSecond) {
+        this.rate = Math.max(0, bytesPerSecond);
+        this.tokens = 0;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * @return 每秒的字节数, 0表示不限速
+     */
+    /*package*/ synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * 取走指定数量的令牌
+     *
+     * @param bytes 字节数
+     * @return 调用者需要等待的时间(纳秒)
+     */
+    /*package*/ synchronized long reserve(int bytes) {
+        if (rate <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - lastRefillNanos;
+        lastRefillNanos = now;
+        //补充全部经过时间的令牌,透支较多时才能完整抵消;只限制积累的上限
+        tokens = Math.min(rate, tokens + (double) elapsed * rate / NANOS_PER_SECOND);
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * NANOS_PER_SECOND / rate);
+    }
+}
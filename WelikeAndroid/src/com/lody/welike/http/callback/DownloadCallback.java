@@ -39,6 +39,17 @@ public abstract class DownloadCallback {
     public void onDownloadFailed(String url) {
     }
 
+    /**
+     * 下载完成,但文件的摘要与期望的不一致时回调,
+     * 文件已经被删除,默认当作下载失败处理.
+     *
+     * @param url        下载的url
+     * @param targetFile 被删除的文件
+     */
+    public void onVerifyFailed(String url, File targetFile) {
+        onDownloadFailed(url);
+    }
+
     /**
      * 下载任务取消时回调
      *
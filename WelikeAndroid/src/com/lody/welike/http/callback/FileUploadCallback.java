@@ -19,6 +19,28 @@ public class FileUploadCallback extends HttpCallback {
     public void onFileStartUpload(HttpRequest request, File file) {
     }
 
+    /**
+     * 文件上传进度的回调,每写入一块数据回调一次.
+     * Note:与其它上传回调一样,运行在执行请求的工作线程.
+     *
+     * @param request
+     * @param file         正在上传的文件
+     * @param bytesWritten 已写入的字节数
+     * @param totalBytes   文件的总字节数
+     */
+    public void onFileUploadProgress(HttpRequest request, File file, long bytesWritten, long totalBytes) {
+    }
+
+    /**
+     * 所有文件的总上传进度.
+     *
+     * @param request
+     * @param bytesWritten 所有文件已写入的字节数
+     * @param totalBytes   所有文件的总字节数
+     */
+    public void onUploadProgress(HttpRequest request, long bytesWritten, long totalBytes) {
+    }
+
     /**
      * 当一个文件上传成功时回调.
      *
@@ -0,0 +1,85 @@
+package com.lody.welike.http.callback;
+
+import com.lody.welike.http.HttpResponse;
+import com.lody.welike.http.converter.StringConverter;
+import com.lody.welike.http.json.JsonMapper;
+import com.lody.welike.http.json.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+
+/**
+ * 逐个读取Json数组元素的回调,适用于很长的列表:
+ * 每读到一个元素就回调{@link #onElement(Object)},整个列表不会同时存在于内存中.
+ * <br>
+ * 数组嵌套在对象中时,可以指定到达数组的属性名路径,例如响应为
+ * {"data":{"items":[...]}}时路径为"data","items".
+ * <br>
+ * <b>注意:</b>{@link #onElement(Object)}运行在子线程.
+ *
+ * @param <E> 元素的类型
+ * @author Lody
+ * @version 1.0
+ */
+public abstract class HttpBeanArrayCallback<E> extends HttpStreamCallback {
+
+    private final Type elementType;
+    private final String[] path;
+
+    /**
+     * @param elementType 元素的类型
+     * @param path        到达数组的属性名,响应本身是数组时不需要指定
+     */
+    protected HttpBeanArrayCallback(Type elementType, String... path) {
+        if (elementType == null) {
+            throw new IllegalArgumentException("elementType == null");
+        }
+        this.elementType = elementType;
+        this.path = path;
+    }
+
+    @Override
+    public void onResponseStream(HttpResponse response, InputStream inputStream) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream,
+                StringConverter.getCharset(response)));
+        try {
+            for (String name : path) {
+                moveTo(reader, name);
+            }
+            JsonMapper.readArray(reader, elementType, new JsonMapper.ElementConsumer<E>() {
+                @Override
+                public void onElement(E element) throws IOException {
+                    HttpBeanArrayCallback.this.onElement(element);
+                }
+            });
+        } catch (RuntimeException e) {
+            //元素的定义有问题,或者解析时出错,都作为请求失败处理
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 进入对象,跳过其它属性直到指定的属性
+     */
+    private static void moveTo(JsonReader reader, String name) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (name.equals(reader.nextName())) {
+                return;
+            }
+            reader.skipValue();
+        }
+        throw new IOException("响应中没有属性" + name);
+    }
+
+    /**
+     * 读取到一个元素时回调(运行在子线程).
+     * 抛出的异常会中止读取,并导致{@link #onFailure(HttpResponse)}被回调.
+     *
+     * @param element 元素
+     * @throws IOException
+     */
+    public abstract void onElement(E element) throws IOException;
+}
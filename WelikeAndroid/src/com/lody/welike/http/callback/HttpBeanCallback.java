@@ -0,0 +1,97 @@
+package com.lody.welike.http.callback;
+
+import com.lody.welike.http.HttpResponse;
+import com.lody.welike.http.converter.StringConverter;
+import com.lody.welike.http.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 边下载边把Json响应读取为Bean的回调,响应体不会整体读入内存.
+ * 读取在工作线程完成,{@link #onSuccess(Object)}在主线程收到读取好的Bean.
+ * <pre>
+ * new HttpBeanCallback&lt;List&lt;User&gt;&gt;() {
+ *     public void onSuccess(List&lt;User&gt; users) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * @param <T> Bean的类型
+ * @author Lody
+ * @version 1.0
+ */
+public abstract class HttpBeanCallback<T> extends HttpStreamCallback {
+
+    private final Type beanType;
+
+    /**
+     * 读取结果,在onSuccess时取出
+     */
+    private final Map<HttpResponse, Object> results =
+            Collections.synchronizedMap(new IdentityHashMap<HttpResponse, Object>());
+
+    /**
+     * 从匿名子类的泛型参数取得Bean的类型
+     */
+    protected HttpBeanCallback() {
+        Type superclass = getClass().getGenericSuperclass();
+        if (!(superclass instanceof ParameterizedType)) {
+            throw new IllegalArgumentException("没有指定Bean的类型");
+        }
+        this.beanType = ((ParameterizedType) superclass).getActualTypeArguments()[0];
+    }
+
+    /**
+     * @param beanType Bean的类型
+     */
+    protected HttpBeanCallback(Class<T> beanType) {
+        this.beanType = beanType;
+    }
+
+    /**
+     * @return Bean的类型
+     */
+    public Type getBeanType() {
+        return beanType;
+    }
+
+    @Override
+    public void onResponseStream(HttpResponse response, InputStream inputStream) throws IOException {
+        Object result;
+        try {
+            result = JsonMapper.fromJson(new InputStreamReader(inputStream,
+                    StringConverter.getCharset(response)), beanType);
+        } catch (RuntimeException e) {
+            //Bean的定义有问题,或者解析时出错,都作为请求失败处理
+            throw new IOException(e.getMessage(), e);
+        }
+        results.put(response, result);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void onSuccess(HttpResponse response) {
+        onSuccess((T) results.remove(response));
+    }
+
+    @Override
+    public void onFinish(HttpResponse response) {
+        results.remove(response);
+    }
+
+    /**
+     * 请求成功并完成读取时回调
+     *
+     * @param bean 读取的Bean
+     */
+    public void onSuccess(T bean) {
+    }
+}
@@ -19,7 +19,8 @@ public abstract class HttpBitmapCallback extends HttpCallback {
     }
 
     /**
-     * 处理图片时回调,可以自己定义如何加载图片
+     * 处理图片时回调,可以自己定义如何加载图片.
+     * 在工作线程回调,返回null时使用默认的方式解码.
      * @param data
      * @return
      */
@@ -0,0 +1,60 @@
+package com.lody.welike.http.callback;
+
+import com.lody.welike.http.HttpConfig;
+import com.lody.welike.http.converter.ResponseConverter;
+
+/**
+ * 需要把响应转换为指定类型时使用本回调.
+ * 转换在工作线程完成,{@link #onSuccess(Object)}在主线程收到转换好的对象;
+ * 转换失败时回调onFailure.
+ *
+ * @param <T> 转换结果的类型
+ * @author Lody
+ * @version 1.0
+ */
+public abstract class HttpConverterCallback<T> extends HttpCallback {
+
+    private final Class<T> resultType;
+    private final ResponseConverter<T> converter;
+
+    /**
+     * 使用{@link HttpConfig#registerConverter(Class, ResponseConverter)}为这个类型注册的转换器,
+     * 没有注册时把响应当作Json读取为这个类型的Bean.
+     *
+     * @param resultType 转换结果的类型
+     */
+    public HttpConverterCallback(Class<T> resultType) {
+        this.resultType = resultType;
+        this.converter = null;
+    }
+
+    /**
+     * @param converter 响应转换器
+     */
+    public HttpConverterCallback(ResponseConverter<T> converter) {
+        this.resultType = null;
+        this.converter = converter;
+    }
+
+    /**
+     * @return 转换结果的类型, 指定了转换器时返回null
+     */
+    public Class<T> getResultType() {
+        return resultType;
+    }
+
+    /**
+     * @return 指定的转换器, 按类型查找转换器时返回null
+     */
+    public ResponseConverter<T> getConverter() {
+        return converter;
+    }
+
+    /**
+     * 请求成功并完成转换时回调
+     *
+     * @param result 转换结果
+     */
+    public void onSuccess(T result) {
+    }
+}
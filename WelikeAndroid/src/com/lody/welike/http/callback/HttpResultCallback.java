@@ -9,7 +9,7 @@ package com.lody.welike.http.callback;
 public abstract class HttpResultCallback extends HttpCallback {
 
     /**
-     * 请求成功时返回的响应结果文本内容
+     * 请求成功时返回的响应结果文本内容,文本在工作线程解码.
      *
      * @param content
      */
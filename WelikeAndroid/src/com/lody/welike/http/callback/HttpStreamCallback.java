@@ -0,0 +1,51 @@
+package com.lody.welike.http.callback;
+
+import com.lody.welike.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 以流的形式读取响应体的回调,适用于较大的响应(如大型JSON或文件).
+ * 响应体不会整体读入内存,{@link HttpResponse#data}为null.
+ * <br>
+ * <b>注意:</b>{@link #onResponseStream(HttpResponse, InputStream)}运行在子线程,
+ * 其余回调仍然运行在主线程.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public abstract class HttpStreamCallback extends HttpCallback {
+
+    /**
+     * 响应体可读时回调(运行在子线程),方法返回后流会被关闭.
+     * 抛出的异常会导致{@link #onFailure(HttpResponse)}被回调.
+     *
+     * @param response    已经填充了响应码和响应头的响应
+     * @param inputStream 响应体的输入流
+     * @throws IOException
+     */
+    public abstract void onResponseStream(HttpResponse response, InputStream inputStream) throws IOException;
+
+    /**
+     * 是否在读取响应体的同时将其写入磁盘缓存,默认开启.
+     * 只有响应体被完整读取时缓存才会提交.
+     *
+     * @return 是否写入缓存
+     */
+    public boolean shouldCacheResponse() {
+        return true;
+    }
+
+    /**
+     * 将响应体的输入流包装为Channel,便于使用NIO读取.
+     *
+     * @param inputStream 响应体的输入流
+     * @return 对应的Channel
+     */
+    protected static ReadableByteChannel toChannel(InputStream inputStream) {
+        return Channels.newChannel(inputStream);
+    }
+}
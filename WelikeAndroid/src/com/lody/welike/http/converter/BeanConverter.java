@@ -0,0 +1,43 @@
+package com.lody.welike.http.converter;
+
+import com.lody.welike.http.HttpResponse;
+import com.lody.welike.http.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+
+/**
+ * 把Json响应体直接读取为Bean,不经过JSONObject.
+ * 没有为类型注册转换器时,{@link com.lody.welike.http.callback.HttpConverterCallback}默认使用本转换器.
+ *
+ * @param <T> Bean的类型
+ * @author Lody
+ * @version 1.0
+ * @see JsonMapper
+ */
+public class BeanConverter<T> implements ResponseConverter<T> {
+
+    private final Type type;
+
+    /**
+     * @param type Bean的类型,可以是{@link java.lang.reflect.ParameterizedType}
+     */
+    public BeanConverter(Type type) {
+        if (type == null) {
+            throw new IllegalArgumentException("type == null");
+        }
+        this.type = type;
+    }
+
+    @Override
+    public T convert(HttpResponse response) throws IOException {
+        if (response.data == null) {
+            throw new IOException("响应体为空");
+        }
+        InputStreamReader in = new InputStreamReader(new ByteArrayInputStream(response.data),
+                StringConverter.getCharset(response));
+        return JsonMapper.fromJson(in, type);
+    }
+}
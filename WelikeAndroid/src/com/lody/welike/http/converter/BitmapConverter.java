@@ -0,0 +1,36 @@
+package com.lody.welike.http.converter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.lody.welike.http.HttpResponse;
+
+/**
+ * 把响应体解码为图片
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class BitmapConverter implements ResponseConverter<Bitmap> {
+
+    private final BitmapFactory.Options options;
+
+    public BitmapConverter() {
+        this(null);
+    }
+
+    /**
+     * @param options 解码选项,可以为null
+     */
+    public BitmapConverter(BitmapFactory.Options options) {
+        this.options = options;
+    }
+
+    @Override
+    public Bitmap convert(HttpResponse response) {
+        if (response.data == null || response.data.length == 0) {
+            return null;
+        }
+        return BitmapFactory.decodeByteArray(response.data, 0, response.data.length, options);
+    }
+}
@@ -0,0 +1,68 @@
+package com.lody.welike.http.converter;
+
+import com.lody.welike.http.HttpResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * 把响应体解析为Json,再由子类转换为需要的对象(POJO).
+ * 解析和转换都在工作线程完成.
+ * <pre>
+ * new JsonConverter&lt;User&gt;() {
+ *     protected User fromJson(Object json) throws JSONException {
+ *         JSONObject object = (JSONObject) json;
+ *         return new User(object.getString("name"));
+ *     }
+ * }
+ * </pre>
+ *
+ * @param <T> 转换结果的类型
+ * @author Lody
+ * @version 1.0
+ */
+public abstract class JsonConverter<T> implements ResponseConverter<T> {
+
+    /**
+     * 转换为{@link JSONObject}
+     */
+    public static final JsonConverter<JSONObject> OBJECT = new JsonConverter<JSONObject>() {
+        @Override
+        protected JSONObject fromJson(Object json) throws JSONException {
+            if (!(json instanceof JSONObject)) {
+                throw new JSONException("响应不是Json对象");
+            }
+            return (JSONObject) json;
+        }
+    };
+
+    /**
+     * 转换为{@link JSONArray}
+     */
+    public static final JsonConverter<JSONArray> ARRAY = new JsonConverter<JSONArray>() {
+        @Override
+        protected JSONArray fromJson(Object json) throws JSONException {
+            if (!(json instanceof JSONArray)) {
+                throw new JSONException("响应不是Json数组");
+            }
+            return (JSONArray) json;
+        }
+    };
+
+    @Override
+    public T convert(HttpResponse response) throws Exception {
+        String text = new StringConverter().convert(response);
+        return fromJson(new JSONTokener(text).nextValue());
+    }
+
+    /**
+     * 把解析出的Json转换为需要的对象
+     *
+     * @param json {@link JSONObject},{@link JSONArray},字符串,数字,布尔值或{@link JSONObject#NULL}
+     * @return 转换结果
+     * @throws JSONException
+     */
+    protected abstract T fromJson(Object json) throws JSONException;
+}
@@ -0,0 +1,23 @@
+package com.lody.welike.http.converter;
+
+import com.lody.welike.http.HttpResponse;
+
+/**
+ * 响应转换器,把响应体转换为回调需要的类型.
+ * 转换在工作线程执行,主线程只接收转换完成的对象.
+ *
+ * @param <T> 转换结果的类型
+ * @author Lody
+ * @version 1.0
+ */
+public interface ResponseConverter<T> {
+
+    /**
+     * 转换响应
+     *
+     * @param response Http响应,响应体在{@link HttpResponse#data}中
+     * @return 转换结果
+     * @throws Exception 无法转换时抛出,请求会以onFailure结束
+     */
+    T convert(HttpResponse response) throws Exception;
+}
@@ -0,0 +1,49 @@
+package com.lody.welike.http.converter;
+
+import com.lody.welike.http.HttpResponse;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * 把响应体转换为文本.
+ * 优先使用Content-Type中声明的charset,没有声明时使用请求配置的编码.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class StringConverter implements ResponseConverter<String> {
+
+    @Override
+    public String convert(HttpResponse response) throws UnsupportedEncodingException {
+        if (response.data == null) {
+            return "";
+        }
+        return new String(response.data, getCharset(response));
+    }
+
+    /**
+     * @param response Http响应
+     * @return 响应体的编码
+     */
+    public static String getCharset(HttpResponse response) {
+        String contentType = response.contentType;
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                parameter = parameter.trim();
+                if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String charset = parameter.substring(8).trim();
+                    if (charset.length() > 1 && charset.startsWith("\"") && charset.endsWith("\"")) {
+                        charset = charset.substring(1, charset.length() - 1);
+                    }
+                    if (charset.length() > 0) {
+                        return charset;
+                    }
+                }
+            }
+        }
+        if (response.httpRequest != null) {
+            return response.httpRequest.getHttpConfig().getEncoding();
+        }
+        return "UTF-8";
+    }
+}
@@ -0,0 +1,80 @@
+package com.lody.welike.http.json;
+
+import com.lody.welike.http.json.annotation.JsonIgnore;
+import com.lody.welike.http.json.annotation.JsonName;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Lody
+ *         解析Bean的字段,构造{@link JsonBeanInfo}的辅助类.
+ *         每个类只反射一次,之后的解析直接使用缓存.
+ */
+public class JsonBeanBuilder {
+
+    /*package*/ static final Map<Class<?>, JsonBeanInfo> classToBeanInfoMap = new ConcurrentHashMap<>();
+
+    /**
+     * 根据传入的Bean的Class将其映射为一个JsonBeanInfo.
+     *
+     * @param clazz Bean的类型,必须有无参构造器
+     * @return Bean的映射信息
+     */
+    public static JsonBeanInfo from(Class<?> clazz) {
+        JsonBeanInfo beanInfo = classToBeanInfoMap.get(clazz);
+        if (beanInfo != null) {
+            return beanInfo;
+        }
+        if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+            throw new IllegalArgumentException(clazz.getName() + " 是接口或抽象类,无法从Json创建.");
+        }
+        beanInfo = new JsonBeanInfo();
+        beanInfo.beanClass = clazz;
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            beanInfo.constructor = constructor;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(clazz.getName() + " 没有无参构造器.");
+        }
+
+        Map<String, Field> nameToFieldMap = new HashMap<>();
+        Map<Field, Type> fieldToTypeMap = new HashMap<>();
+        //从子类到父类,子类的同名字段优先
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+                        || field.isSynthetic() || field.getAnnotation(JsonIgnore.class) != null) {
+                    continue;
+                }
+                JsonName jsonName = field.getAnnotation(JsonName.class);
+                String name = jsonName != null ? jsonName.value() : field.getName();
+                if (nameToFieldMap.containsKey(name)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                nameToFieldMap.put(name, field);
+                fieldToTypeMap.put(field, field.getGenericType());
+            }
+        }
+        beanInfo.nameToFieldMap = nameToFieldMap;
+        beanInfo.fieldToTypeMap = fieldToTypeMap;
+
+        classToBeanInfoMap.put(clazz, beanInfo);
+        return beanInfo;
+    }
+
+    /**
+     * 清除缓存的映射信息
+     */
+    public static void clearCache() {
+        classToBeanInfoMap.clear();
+    }
+}
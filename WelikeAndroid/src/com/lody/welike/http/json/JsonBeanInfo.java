@@ -0,0 +1,46 @@
+package com.lody.welike.http.json;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * @author Lody
+ *         储存Bean与Json之间的映射信息,由{@link JsonBeanBuilder}创建并缓存.
+ */
+public class JsonBeanInfo {
+
+    /**
+     * Bean的类型
+     */
+    public Class<?> beanClass;
+
+    /**
+     * 无参构造器
+     */
+    public Constructor<?> constructor;
+
+    /**
+     * Json属性名 -> 字段
+     */
+    public Map<String, Field> nameToFieldMap;
+
+    /**
+     * 字段 -> 字段的泛型类型
+     */
+    public Map<Field, Type> fieldToTypeMap;
+
+    /**
+     * 创建Bean的实例
+     *
+     * @return 新的实例
+     */
+    public Object newInstance() {
+        try {
+            return constructor.newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("无法创建" + beanClass.getName() + "的实例", e);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package com.lody.welike.http.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 从{@link JsonReader}直接读取出Bean,不会生成JSONObject等中间对象.
+ * <br>
+ * 支持的类型:基本类型及其包装类,String,枚举,数组,List/Set/Collection,
+ * 以String为键的Map,Object(解析为Map/List)以及含有无参构造器的Bean.
+ * Bean的字段信息由{@link JsonBeanBuilder}缓存,Json中多余的属性会被跳过.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class JsonMapper {
+
+    /**
+     * 逐个接收数组元素
+     *
+     * @param <E> 元素的类型
+     */
+    public interface ElementConsumer<E> {
+        /**
+         * 读取到一个元素时回调,回调后元素不再被引用.
+         *
+         * @param element 元素
+         * @throws IOException
+         */
+        void onElement(E element) throws IOException;
+    }
+
+    private JsonMapper() {
+    }
+
+    /**
+     * 把整个文档读取为指定类型的对象
+     *
+     * @param in   Json文本
+     * @param type 对象的类型
+     * @return 读取的对象
+     * @throws IOException 读取失败或Json格式错误
+     */
+    public static <T> T fromJson(Reader in, Type type) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        T result = read(reader, type);
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new IOException("文档结束后还有多余的内容");
+        }
+        return result;
+    }
+
+    /**
+     * 读取下一个值
+     *
+     * @param reader Json读取器
+     * @param type   值的类型
+     * @return 读取的值, Json中为null时返回null(基本类型返回默认值)
+     * @throws IOException 读取失败或Json格式错误
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T read(JsonReader reader, Type type) throws IOException {
+        return (T) readValue(reader, type, null);
+    }
+
+    /**
+     * 逐个读取数组的元素,整个数组不会同时存在于内存中.
+     *
+     * @param reader      Json读取器,下一个值必须是数组
+     * @param elementType 元素的类型
+     * @param consumer    元素的接收者
+     * @return 读取的元素个数
+     * @throws IOException 读取失败或Json格式错误
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> int readArray(JsonReader reader, Type elementType, ElementConsumer<? super E> consumer)
+            throws IOException {
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            consumer.onElement((E) readValue(reader, elementType, null));
+            count++;
+        }
+        reader.endArray();
+        return count;
+    }
+
+    /**
+     * 构造一个参数化类型,例如List&lt;User&gt;:
+     * <pre>
+     * JsonMapper.newParameterizedType(List.class, User.class)
+     * </pre>
+     *
+     * @param rawType       原始类型
+     * @param typeArguments 类型参数
+     * @return 参数化类型
+     */
+    public static ParameterizedType newParameterizedType(Class<?> rawType, Type... typeArguments) {
+        if (rawType.getTypeParameters().length != typeArguments.length) {
+            throw new IllegalArgumentException(rawType.getName() + " 需要"
+                    + rawType.getTypeParameters().length + "个类型参数.");
+        }
+        return new ParameterizedTypeImpl(rawType, typeArguments.clone());
+    }
+
+    private static Object readValue(JsonReader reader, Type type, Map<TypeVariable<?>, Type> bindings)
+            throws IOException {
+        type = resolve(type, bindings);
+        Class<?> rawType = rawTypeOf(type);
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return rawType.isPrimitive() ? defaultValue(rawType) : null;
+        }
+        if (rawType == String.class || rawType == CharSequence.class) {
+            return reader.nextString();
+        }
+        if (rawType == int.class || rawType == Integer.class) {
+            return reader.nextInt();
+        }
+        if (rawType == long.class || rawType == Long.class) {
+            return reader.nextLong();
+        }
+        if (rawType == boolean.class || rawType == Boolean.class) {
+            return reader.nextBoolean();
+        }
+        if (rawType == double.class || rawType == Double.class) {
+            return reader.nextDouble();
+        }
+        if (rawType == float.class || rawType == Float.class) {
+            return (float) reader.nextDouble();
+        }
+        if (rawType == short.class || rawType == Short.class) {
+            return (short) reader.nextInt();
+        }
+        if (rawType == byte.class || rawType == Byte.class) {
+            return (byte) reader.nextInt();
+        }
+        if (rawType == char.class || rawType == Character.class) {
+            String text = reader.nextString();
+            return text.length() > 0 ? text.charAt(0) : '\0';
+        }
+        if (rawType.isEnum()) {
+            return readEnum(reader, rawType);
+        }
+        if (rawType == Object.class) {
+            return readAny(reader);
+        }
+        if (rawType.isArray()) {
+            Type componentType = type instanceof GenericArrayType
+                    ? ((GenericArrayType) type).getGenericComponentType() : rawType.getComponentType();
+            List<Object> list = new ArrayList<>();
+            readCollection(reader, componentType, list);
+            Object array = Array.newInstance(rawTypeOf(componentType), list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Array.set(array, i, list.get(i));
+            }
+            return array;
+        }
+        if (Collection.class.isAssignableFrom(rawType)) {
+            Collection<Object> collection = newCollection(rawType);
+            readCollection(reader, typeArgument(type, 0), collection);
+            return collection;
+        }
+        if (Map.class.isAssignableFrom(rawType)) {
+            return readMap(reader, rawType, typeArgument(type, 1));
+        }
+        return readBean(reader, type, rawType);
+    }
+
+    private static Object readBean(JsonReader reader, Type type, Class<?> rawType) throws IOException {
+        JsonBeanInfo beanInfo = JsonBeanBuilder.from(rawType);
+        Map<TypeVariable<?>, Type> bindings = bindingsOf(type, rawType);
+        Object bean = beanInfo.newInstance();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            Field field = beanInfo.nameToFieldMap.get(reader.nextName());
+            if (field == null) {
+                reader.skipValue();
+                continue;
+            }
+            Object value = readValue(reader, beanInfo.fieldToTypeMap.get(field), bindings);
+            if (value == null && field.getType().isPrimitive()) {
+                continue;
+            }
+            try {
+                field.set(bean, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("无法设置字段" + field.getName(), e);
+            }
+        }
+        reader.endObject();
+        return bean;
+    }
+
+    private static void readCollection(JsonReader reader, Type elementType, Collection<Object> out)
+            throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            out.add(readValue(reader, elementType, null));
+        }
+        reader.endArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readMap(JsonReader reader, Class<?> rawType, Type valueType)
+            throws IOException {
+        Map<String, Object> map;
+        if (rawType.isInterface() || rawType == HashMap.class || rawType == LinkedHashMap.class) {
+            map = new LinkedHashMap<>();
+        } else {
+            try {
+                map = (Map<String, Object>) rawType.newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("无法创建" + rawType.getName() + "的实例", e);
+            }
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            map.put(name, readValue(reader, valueType, null));
+        }
+        reader.endObject();
+        return map;
+    }
+
+    /**
+     * 读取任意的值,对象读取为Map,数组读取为List,数字读取为Long或Double
+     */
+    private static Object readAny(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readMap(reader, Map.class, Object.class);
+            case BEGIN_ARRAY:
+                List<Object> list = new ArrayList<>();
+                readCollection(reader, Object.class, list);
+                return list;
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                String text = reader.nextString();
+                try {
+                    return Long.parseLong(text);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(text);
+                }
+            default:
+                return reader.nextString();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readEnum(JsonReader reader, Class<?> rawType) throws IOException {
+        String name = reader.nextString();
+        try {
+            return Enum.valueOf((Class) rawType, name);
+        } catch (IllegalArgumentException e) {
+            //未知的枚举值当作null处理,避免服务器新增取值后解析失败
+            return null;
+        }
+    }
+
+    private static Collection<Object> newCollection(Class<?> rawType) {
+        if (rawType.isInterface()) {
+            return Set.class.isAssignableFrom(rawType) ? new LinkedHashSet<>() : new ArrayList<>();
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            Collection<Object> collection = (Collection<Object>) rawType.newInstance();
+            return collection;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("无法创建" + rawType.getName() + "的实例", e);
+        }
+    }
+
+    private static Object defaultValue(Class<?> primitive) {
+        if (primitive == boolean.class) {
+            return false;
+        }
+        if (primitive == char.class) {
+            return '\0';
+        }
+        return Array.get(Array.newInstance(primitive, 1), 0);
+    }
+
+    /**
+     * 取得类型参数,没有指定时为Object
+     */
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * 把Bean的类型变量绑定到实际的类型,例如Page&lt;User&gt;中的T绑定为User
+     */
+    private static Map<TypeVariable<?>, Type> bindingsOf(Type type, Class<?> rawType) {
+        Map<TypeVariable<?>, Type> bindings = null;
+        Type current = type;
+        Class<?> currentClass = rawType;
+        while (currentClass != null && currentClass != Object.class) {
+            if (current instanceof ParameterizedType) {
+                TypeVariable<?>[] variables = currentClass.getTypeParameters();
+                Type[] arguments = ((ParameterizedType) current).getActualTypeArguments();
+                if (bindings == null) {
+                    bindings = new HashMap<>();
+                }
+                for (int i = 0; i < variables.length && i < arguments.length; i++) {
+                    bindings.put(variables[i], resolve(arguments[i], bindings));
+                }
+            }
+            current = currentClass.getGenericSuperclass();
+            currentClass = currentClass.getSuperclass();
+        }
+        return bindings;
+    }
+
+    private static Type resolve(Type type, Map<TypeVariable<?>, Type> bindings) {
+        if (type instanceof TypeVariable) {
+            Type bound = bindings != null ? bindings.get(type) : null;
+            if (bound != null) {
+                return bound;
+            }
+            Type[] bounds = ((TypeVariable<?>) type).getBounds();
+            return bounds.length > 0 ? resolve(bounds[0], null) : Object.class;
+        }
+        if (type instanceof WildcardType) {
+            Type[] upperBounds = ((WildcardType) type).getUpperBounds();
+            return upperBounds.length > 0 ? resolve(upperBounds[0], bindings) : Object.class;
+        }
+        if (bindings != null && type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            Type[] arguments = parameterizedType.getActualTypeArguments().clone();
+            boolean changed = false;
+            for (int i = 0; i < arguments.length; i++) {
+                Type resolved = resolve(arguments[i], bindings);
+                if (resolved != arguments[i]) {
+                    arguments[i] = resolved;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                return new ParameterizedTypeImpl((Class<?>) parameterizedType.getRawType(), arguments);
+            }
+        }
+        if (bindings != null && type instanceof GenericArrayType) {
+            Type componentType = resolve(((GenericArrayType) type).getGenericComponentType(), bindings);
+            if (componentType instanceof Class) {
+                return Array.newInstance((Class<?>) componentType, 0).getClass();
+            }
+        }
+        return type;
+    }
+
+    private static Class<?> rawTypeOf(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        if (type instanceof GenericArrayType) {
+            Class<?> componentType = rawTypeOf(((GenericArrayType) type).getGenericComponentType());
+            return Array.newInstance(componentType, 0).getClass();
+        }
+        return Object.class;
+    }
+
+    private static final class ParameterizedTypeImpl implements ParameterizedType {
+
+        private final Class<?> rawType;
+        private final Type[] typeArguments;
+
+        ParameterizedTypeImpl(Class<?> rawType, Type[] typeArguments) {
+            this.rawType = rawType;
+            this.typeArguments = typeArguments;
+        }
+
+        @Override
+        public Type[] getActualTypeArguments() {
+            return typeArguments.clone();
+        }
+
+        @Override
+        public Type getRawType() {
+            return rawType;
+        }
+
+        @Override
+        public Type getOwnerType() {
+            return rawType.getEnclosingClass();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ParameterizedType)) {
+                return false;
+            }
+            ParameterizedType that = (ParameterizedType) o;
+            return rawType.equals(that.getRawType())
+                    && Arrays.equals(typeArguments, that.getActualTypeArguments());
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(typeArguments) ^ rawType.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(rawType.getName()).append('<');
+            for (int i = 0; i < typeArguments.length; i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                Type argument = typeArguments[i];
+                builder.append(argument instanceof Class ? ((Class<?>) argument).getName() : argument.toString());
+            }
+            return builder.append('>').toString();
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package com.lody.welike.http.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 流式的Json读取器,边读取边解析,不会把整个文档读入内存.
+ * (android.util.JsonReader从API 11才开始提供)
+ * <pre>
+ * reader.beginObject();
+ * while (reader.hasNext()) {
+ *     String name = reader.nextName();
+ *     ...
+ * }
+ * reader.endObject();
+ * </pre>
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class JsonReader implements Closeable {
+
+    //=============================================
+    //                 所处的位置
+    //=============================================
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    /**
+     * 读完属性名,还没有读属性值
+     */
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader in;
+
+    private final char[] buffer = new char[1024];
+    private int pos;
+    private int limit;
+    /**
+     * 已经从buffer中移出的字符数,用于错误信息
+     */
+    private long consumed;
+
+    private int[] stack = new int[32];
+    private int stackSize;
+
+    /**
+     * 已经读出但还没有被取走的记号
+     */
+    private JsonToken peeked;
+    /**
+     * NAME,STRING和NUMBER记号的文本
+     */
+    private String peekedString;
+    private boolean peekedBoolean;
+
+    private final StringBuilder builder = new StringBuilder();
+
+    public JsonReader(Reader in) {
+        if (in == null) {
+            throw new IllegalArgumentException("in == null");
+        }
+        this.in = in;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * 查看下一个记号,但不取出
+     *
+     * @return 下一个记号
+     * @throws IOException
+     */
+    public JsonToken peek() throws IOException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        stackSize--;
+    }
+
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * @return 当前数组或对象中是否还有元素
+     * @throws IOException
+     */
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        return peekedString;
+    }
+
+    /**
+     * 读取字符串,数字和布尔值也会以文本的形式返回
+     *
+     * @return 文本
+     * @throws IOException
+     */
+    public String nextString() throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.BOOLEAN) {
+            peeked = null;
+            return String.valueOf(peekedBoolean);
+        }
+        if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+            throw syntaxError("期望STRING,但是读到了" + token);
+        }
+        peeked = null;
+        return peekedString;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.STRING) {
+            //兼容以字符串表示的布尔值
+            peeked = null;
+            return Boolean.parseBoolean(peekedString);
+        }
+        expect(JsonToken.BOOLEAN);
+        return peekedBoolean;
+    }
+
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+    }
+
+    public double nextDouble() throws IOException {
+        String text = nextNumberText();
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw syntaxError("不是数字: " + text);
+        }
+    }
+
+    public long nextLong() throws IOException {
+        String text = nextNumberText();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            double value;
+            try {
+                value = Double.parseDouble(text);
+            } catch (NumberFormatException e2) {
+                throw syntaxError("不是数字: " + text);
+            }
+            long result = (long) value;
+            if (result != value) {
+                throw syntaxError("不是整数: " + text);
+            }
+            return result;
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw syntaxError("超出int的范围: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * 跳过下一个值,值是数组或对象时跳过其中的所有内容
+     *
+     * @throws IOException
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("文档意外结束");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        peeked = null;
+        stackSize = 0;
+        in.close();
+    }
+
+    private String nextNumberText() throws IOException {
+        JsonToken token = peek();
+        if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+            throw syntaxError("期望NUMBER,但是读到了" + token);
+        }
+        peeked = null;
+        return peekedString.trim();
+    }
+
+    private void expect(JsonToken expected) throws IOException {
+        JsonToken token = peek();
+        if (token != expected) {
+            throw syntaxError("期望" + expected + ",但是读到了" + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private JsonToken doPeek() throws IOException {
+        if (stackSize == 0) {
+            throw new IllegalStateException("JsonReader已经关闭");
+        }
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return JsonToken.END_ARRAY;
+                }
+                if (c == -1) {
+                    throw syntaxError("文档意外结束");
+                }
+                pos--;
+                return readValue();
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return JsonToken.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("数组中缺少','");
+                }
+                return readValue();
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return JsonToken.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("对象中缺少','");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("期望属性名");
+                }
+                peekedString = readString();
+                stack[stackSize - 1] = DANGLING_NAME;
+                return JsonToken.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("属性名后缺少':'");
+                }
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                return readValue();
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return readValue();
+            default:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("文档结束后还有多余的内容");
+                }
+                return JsonToken.END_DOCUMENT;
+        }
+    }
+
+    private JsonToken readValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return JsonToken.BEGIN_OBJECT;
+            case '[':
+                return JsonToken.BEGIN_ARRAY;
+            case '"':
+                peekedString = readString();
+                return JsonToken.STRING;
+            case 't':
+            case 'f':
+            case 'n':
+                pos--;
+                String literal = readLiteral();
+                if ("true".equals(literal) || "false".equals(literal)) {
+                    peekedBoolean = literal.charAt(0) == 't';
+                    return JsonToken.BOOLEAN;
+                }
+                if ("null".equals(literal)) {
+                    return JsonToken.NULL;
+                }
+                throw syntaxError("无法识别的值: " + literal);
+            case -1:
+                throw syntaxError("文档意外结束");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    peekedString = readLiteral();
+                    return JsonToken.NUMBER;
+                }
+                throw syntaxError("无法识别的字符: " + (char) c);
+        }
+    }
+
+    /**
+     * 读取数字或true/false/null
+     */
+    private String readLiteral() throws IOException {
+        builder.setLength(0);
+        for (; ; ) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            char c = buffer[pos];
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || c == '-' || c == '+' || c == '.') {
+                builder.append(c);
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 读取字符串,开头的'"'已经读过了
+     */
+    private String readString() throws IOException {
+        builder.setLength(0);
+        for (; ; ) {
+            if (pos == limit && !fill()) {
+                throw syntaxError("字符串没有结束");
+            }
+            //一次复制一段没有转义的字符
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"') {
+                    builder.append(buffer, start, pos - start);
+                    pos++;
+                    return builder.toString();
+                }
+                if (c == '\\') {
+                    builder.append(buffer, start, pos - start);
+                    pos++;
+                    builder.append(readEscape());
+                    start = pos;
+                    break;
+                }
+                pos++;
+            }
+            if (start < pos) {
+                builder.append(buffer, start, pos - start);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("错误的\\u转义");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("错误的转义字符");
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        for (; ; ) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " (位置: " + (consumed + pos) + ")");
+    }
+}
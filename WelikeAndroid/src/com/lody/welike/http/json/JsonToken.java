@@ -0,0 +1,26 @@
+package com.lody.welike.http.json;
+
+/**
+ * {@link JsonReader}读到的记号
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    /**
+     * 对象中的属性名
+     */
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    /**
+     * 文档结束
+     */
+    END_DOCUMENT
+}
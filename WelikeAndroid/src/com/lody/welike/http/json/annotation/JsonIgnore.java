@@ -0,0 +1,16 @@
+package com.lody.welike.http.json.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @author Lody
+ *         <p/>
+ *         此注解表示字段不从Json中读取.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD})
+public @interface JsonIgnore {
+}
@@ -0,0 +1,17 @@
+package com.lody.welike.http.json.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @author Lody
+ *         <p/>
+ *         指定字段在Json中的名称,没有此注解时使用字段名.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD})
+public @interface JsonName {
+    String value();
+}
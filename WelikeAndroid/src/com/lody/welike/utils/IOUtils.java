@@ -25,8 +25,13 @@ public class IOUtils {
     public static byte[] toByteArray(InputStream input)
             throws IOException {
         ByteArrayOutputStream output = new PoolingByteArrayOutputStream(ByteArrayPool.get());
-        copy(input, output);
-        return output.toByteArray();
+        try {
+            copy(input, output);
+            return output.toByteArray();
+        } finally {
+            //读取中断(如请求被取消)时也要把缓冲区还给缓冲池
+            output.close();
+        }
     }
 
     /**
@@ -40,8 +45,12 @@ public class IOUtils {
             throws IOException {
 
         ByteArrayOutputStream output = new PoolingByteArrayOutputStream(ByteArrayPool.get(), len);
-        copy(input, output);
-        return output.toByteArray();
+        try {
+            copy(input, output);
+            return output.toByteArray();
+        } finally {
+            output.close();
+        }
     }
 
     /**
@@ -74,9 +83,13 @@ public class IOUtils {
         byte[] buffer = ByteArrayPool.get().getBuf(5096);
         long count = 0L;
         int n;
-        while (-1 != (n = input.read(buffer))) {
-            output.write(buffer, 0, n);
-            count += n;
+        try {
+            while (-1 != (n = input.read(buffer))) {
+                output.write(buffer, 0, n);
+                count += n;
+            }
+        } finally {
+            ByteArrayPool.get().returnBuf(buffer);
         }
         return count;
     }
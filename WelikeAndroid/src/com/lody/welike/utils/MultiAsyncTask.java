@@ -4,14 +4,11 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
 /**
  * 重构版的AsyncTask,
  * 由于其在不同API版本有不同的表现,
  * 我们在这里采用在多API版本运行效果一致的异步任务执行器.
+ * 任务统一托管于{@link TaskScheduler},通过{@link TaskScheduler.Lane}选择执行的通道.
  *
  * @param <Param>  参数类型
  * @param <Update> 更新传递的参数类型
@@ -32,20 +29,29 @@ public abstract class MultiAsyncTask<Param, Update, Result> {
      */
     private static HandlerPoster sHandlerPoster;
     /**
-     * 用于执行一个异步任务, 如果想要修改并发数目,在构造器传入一个int表示并发数.
+     * 任务执行的通道
      */
-    private static ThreadPoolExecutor MAIN_THREAD_POOL_EXECUTOR;
+    private final TaskScheduler.Lane mLane;
 
     public MultiAsyncTask() {
-        this(5);
+        this(TaskScheduler.Lane.CPU);
     }
 
     /**
      * @param count 并发数
+     * @deprecated 并发数已交由{@link TaskScheduler}按通道统一控制,本参数不再生效,
+     * 请使用{@link #MultiAsyncTask(TaskScheduler.Lane)}.
      */
+    @Deprecated
     public MultiAsyncTask(int count) {
-        MAIN_THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(count, count, 0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<Runnable>());
+        this();
+    }
+
+    /**
+     * @param lane 任务执行的通道
+     */
+    public MultiAsyncTask(TaskScheduler.Lane lane) {
+        this.mLane = lane;
     }
 
     /**
@@ -72,7 +78,7 @@ public abstract class MultiAsyncTask<Param, Update, Result> {
 	public final void execute(Param... params) {
         onPrepare();
         TaskExecutor taskExecutor = new TaskExecutor(this, params);
-        MAIN_THREAD_POOL_EXECUTOR.execute(taskExecutor);
+        TaskScheduler.get().execute(mLane, taskExecutor);
     }
 
     /**
@@ -81,7 +87,14 @@ public abstract class MultiAsyncTask<Param, Update, Result> {
      * @see #execute(Object[])
      */
     public final void execute(Runnable runnable) {
-        MAIN_THREAD_POOL_EXECUTOR.execute(runnable);
+        TaskScheduler.get().execute(mLane, runnable);
+    }
+
+    /**
+     * @return 任务执行的通道
+     */
+    public final TaskScheduler.Lane getLane() {
+        return mLane;
     }
 
     /**
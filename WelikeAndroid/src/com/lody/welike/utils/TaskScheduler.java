@@ -0,0 +1,290 @@
+package com.lody.welike.utils;
+
+import android.os.Process;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程级的任务调度器.
+ * 任务按类型划分到不同的通道({@link Lane}),每条通道拥有独立且有上限的并发数,
+ * 无论创建了多少个{@link MultiAsyncTask},线程数都保持稳定.
+ * 延时任务由一个后台的计时线程计时,到期后交给指定的通道执行,不经过主线程.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public final class TaskScheduler {
+
+    /**
+     * 空闲线程的存活时间(秒),超时后核心线程也会被回收.
+     */
+    private static final int KEEP_ALIVE_TIME = 30;
+
+    /**
+     * 任务通道
+     */
+    public enum Lane {
+        /**
+         * 网络IO
+         */
+        NETWORK("WL-Network", 5, Process.THREAD_PRIORITY_BACKGROUND),
+        /**
+         * 文件下载及其分段线程,与{@link #NETWORK}分开,
+         * 长时间占用线程的下载不会让Http请求排队等待
+         */
+        DOWNLOAD("WL-Download", 12, Process.THREAD_PRIORITY_BACKGROUND),
+        /**
+         * 磁盘IO
+         */
+        DISK("WL-Disk", 2, Process.THREAD_PRIORITY_BACKGROUND),
+        /**
+         * 计算密集型任务(如图片解码)
+         */
+        CPU("WL-Cpu", Math.max(2, Runtime.getRuntime().availableProcessors()), Process.THREAD_PRIORITY_DEFAULT),
+        /**
+         * 串行执行的任务
+         */
+        SERIAL("WL-Serial", 1, Process.THREAD_PRIORITY_BACKGROUND),
+        /**
+         * 常驻的队列循环(如{@link com.lody.welike.http.HttpRequestQueue}),
+         * 以及必须立即开始、数量已由调用者限制的任务(如对冲请求).
+         * 每个任务独占一个线程,不排队,不限制并发数.
+         */
+        LOOP("WL-Loop", 0, Process.THREAD_PRIORITY_BACKGROUND);
+
+        final String threadName;
+        final int defaultConcurrency;
+        final int threadPriority;
+
+        Lane(String threadName, int defaultConcurrency, int threadPriority) {
+            this.threadName = threadName;
+            this.defaultConcurrency = defaultConcurrency;
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    /**
+     * TaskScheduler的单例
+     */
+    private static TaskScheduler sScheduler = new TaskScheduler();
+
+    /**
+     * @return TaskScheduler的单例
+     */
+    public static TaskScheduler get() {
+        return sScheduler;
+    }
+
+    /**
+     * 每条通道对应的执行器
+     */
+    private final Map<Lane, ThreadPoolExecutor> laneToExecutorMap = new EnumMap<>(Lane.class);
+
+    /**
+     * 每条通道上各个使用者要求的并发数,使用者被回收后自动移除
+     */
+    private final Map<Lane, Map<Object, Integer>> laneToDemandMap = new EnumMap<>(Lane.class);
+
+    /**
+     * 延时任务的计时器,只负责计时,任务本身在通道中执行
+     */
+    private ScheduledThreadPoolExecutor timer;
+
+    private TaskScheduler() {
+        for (Lane lane : Lane.values()) {
+            laneToExecutorMap.put(lane, createExecutor(lane));
+        }
+    }
+
+    /**
+     * 为通道创建执行器
+     *
+     * @param lane 通道
+     * @return 执行器
+     */
+    private static ThreadPoolExecutor createExecutor(Lane lane) {
+        ThreadPoolExecutor executor;
+        LaneThreadFactory threadFactory = new LaneThreadFactory(lane.threadName, lane.threadPriority);
+        if (lane == Lane.LOOP) {
+            executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), threadFactory);
+        } else {
+            BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>();
+            executor = new ThreadPoolExecutor(lane.defaultConcurrency, lane.defaultConcurrency,
+                    KEEP_ALIVE_TIME, TimeUnit.SECONDS, workQueue, threadFactory);
+            //空闲时不保留线程
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * 在指定通道执行一个任务
+     *
+     * @param lane     通道
+     * @param runnable 任务
+     */
+    public void execute(Lane lane, Runnable runnable) {
+        laneToExecutorMap.get(lane).execute(runnable);
+    }
+
+    /**
+     * 延时后在指定通道执行一个任务.
+     * 计时在后台线程进行,不会唤醒主线程.
+     *
+     * @param lane        通道
+     * @param runnable    任务
+     * @param delayMillis 延时(毫秒)
+     * @return 用于取消的Future, 任务交给通道后就不能再取消了
+     */
+    public ScheduledFuture<?> schedule(final Lane lane, final Runnable runnable, long delayMillis) {
+        return timer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                execute(lane, runnable);
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledThreadPoolExecutor timer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1,
+                    new LaneThreadFactory("WL-Timer", Process.THREAD_PRIORITY_BACKGROUND));
+        }
+        return timer;
+    }
+
+    /**
+     * 设置通道的最大并发数
+     *
+     * @param lane        通道
+     * @param concurrency 并发数
+     */
+    public void setConcurrency(Lane lane, int concurrency) {
+        if (lane == Lane.LOOP) {
+            throw new IllegalArgumentException("LOOP通道不限制并发数.");
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency <= 0");
+        }
+        ThreadPoolExecutor executor = laneToExecutorMap.get(lane);
+        synchronized (executor) {
+            //注意顺序,核心线程数不能大于最大线程数
+            if (concurrency > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(concurrency);
+                executor.setCorePoolSize(concurrency);
+            } else {
+                executor.setCorePoolSize(concurrency);
+                executor.setMaximumPoolSize(concurrency);
+            }
+        }
+    }
+
+    /**
+     * 登记某个使用者对通道并发数的要求.
+     * 通道是进程级共享的,实际并发数取所有使用者要求中的最大值,
+     * 因此一个使用者不会把其它使用者需要的线程数改小.
+     *
+     * @param lane        通道
+     * @param owner       使用者(如{@link com.lody.welike.WelikeHttp}实例),只被弱引用
+     * @param concurrency 要求的并发数
+     */
+    public void requestConcurrency(Lane lane, Object owner, int concurrency) {
+        if (lane == Lane.LOOP) {
+            throw new IllegalArgumentException("LOOP通道不限制并发数.");
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency <= 0");
+        }
+        int max = 0;
+        synchronized (laneToDemandMap) {
+            Map<Object, Integer> demands = laneToDemandMap.get(lane);
+            if (demands == null) {
+                demands = new WeakHashMap<>();
+                laneToDemandMap.put(lane, demands);
+            }
+            demands.put(owner, concurrency);
+            for (Integer demand : demands.values()) {
+                max = Math.max(max, demand);
+            }
+        }
+        setConcurrency(lane, max);
+    }
+
+    /**
+     * 取得通道的最大并发数
+     *
+     * @param lane 通道
+     * @return 并发数
+     */
+    public int getConcurrency(Lane lane) {
+        return laneToExecutorMap.get(lane).getMaximumPoolSize();
+    }
+
+    /**
+     * 取得通道当前存活的线程数
+     *
+     * @param lane 通道
+     * @return 线程数
+     */
+    public int getPoolSize(Lane lane) {
+        return laneToExecutorMap.get(lane).getPoolSize();
+    }
+
+    /**
+     * 取得通道中等待执行的任务数
+     *
+     * @param lane 通道
+     * @return 等待中的任务数
+     */
+    public int getQueuedCount(Lane lane) {
+        return laneToExecutorMap.get(lane).getQueue().size();
+    }
+
+    /**
+     * 取得通道的执行器
+     *
+     * @param lane 通道
+     * @return 执行器
+     */
+    public ThreadPoolExecutor getExecutor(Lane lane) {
+        return laneToExecutorMap.get(lane);
+    }
+
+    /**
+     * 为通道创建命名线程,并设置线程优先级.
+     */
+    private static class LaneThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger integer = new AtomicInteger();
+        private final String threadName;
+        private final int threadPriority;
+
+        LaneThreadFactory(String threadName, int threadPriority) {
+            this.threadName = threadName;
+            this.threadPriority = threadPriority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(threadPriority);
+                    r.run();
+                }
+            }, threadName + " #" + integer.getAndIncrement());
+        }
+    }
+}
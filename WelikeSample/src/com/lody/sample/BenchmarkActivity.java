@@ -0,0 +1,67 @@
+package com.lody.sample;
+
+import android.os.Bundle;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+
+import com.lody.welike.http.DownloadSinkBenchmark;
+import com.lody.welike.ui.WelikeActivity;
+import com.lody.welike.ui.annotation.JoinView;
+
+import java.io.IOException;
+
+/**
+ * 比较下载文件的写入方式,详见{@link DownloadSinkBenchmark}.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public class BenchmarkActivity extends WelikeActivity {
+
+    @JoinView(id = R.id.runBenchmark, click = true)
+    Button runButton;
+    @JoinView(id = R.id.benchmarkResult)
+    TextView resultView;
+
+    @Override
+    public void initRootView(Bundle savedInstanceState) {
+        super.initRootView(savedInstanceState);
+        setContentView(R.layout.benchmark_layout);
+    }
+
+    @Override
+    public void onWidgetClick(View widget) {
+        super.onWidgetClick(widget);
+        if (widget == runButton) {
+            runBenchmark();
+        }
+    }
+
+    /**
+     * 在后台线程中运行, 写入应用的缓存目录
+     */
+    private void runBenchmark() {
+        runButton.setEnabled(false);
+        resultView.setText("正在测试...");
+        new Thread("DownloadSinkBenchmark") {
+            @Override
+            public void run() {
+                String result;
+                try {
+                    result = DownloadSinkBenchmark.run(getCacheDir(), DownloadSinkBenchmark.DEFAULT_TOTAL_BYTES);
+                } catch (IOException e) {
+                    result = "测试失败: " + e;
+                }
+                final String report = result;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        resultView.setText(report);
+                        runButton.setEnabled(true);
+                    }
+                });
+            }
+        }.start();
+    }
+}
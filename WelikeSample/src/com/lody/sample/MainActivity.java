@@ -22,6 +22,8 @@ public class MainActivity extends WelikeActivity {
     private Button httpButton;
     @JoinView(id = R.id.guard)
     private Button guardButton;
+    @JoinView(id = R.id.benchmark)
+    private Button benchmarkButton;
     @Override
     public void initRootView(Bundle savedInstanceState) {
         super.initRootView(savedInstanceState);
@@ -46,6 +48,8 @@ public class MainActivity extends WelikeActivity {
             startActivity(new Intent(this,HttpActivity.class));
         }else if (guardButton == widget){
             startActivity(new Intent(this,GuardActivity.class));
+        }else if (benchmarkButton == widget){
+            startActivity(new Intent(this,BenchmarkActivity.class));
         }
 
     }
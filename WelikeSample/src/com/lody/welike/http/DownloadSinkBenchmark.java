@@ -0,0 +1,122 @@
+package com.lody.welike.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * 比较下载文件的写入方式:
+ * 旧版本以"rwd"模式打开文件,每次写入都同步到存储设备;
+ * 现在通过{@link DownloadSink}缓冲写入,按{@link DownloadController.Durability}决定何时同步.
+ * <br>
+ * 和下载时一样,每次写入{@link #CHUNK_SIZE}字节,每写入{@link #CHECKPOINT_BYTES}字节保存一次进度.
+ * 可以在{@link com.lody.sample.BenchmarkActivity}中运行,也可以直接运行{@link #main(String[])}.
+ *
+ * @author Lody
+ * @version 1.0
+ */
+public final class DownloadSinkBenchmark {
+
+    /**
+     * 每次写入的字节数,与旧版本下载时的缓冲区大小相同
+     */
+    public static final int CHUNK_SIZE = 2 * 1024;
+
+    /**
+     * 模拟进度保存的间隔
+     */
+    public static final long CHECKPOINT_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 默认写入的总字节数
+     */
+    public static final long DEFAULT_TOTAL_BYTES = 16 * 1024 * 1024;
+
+    private DownloadSinkBenchmark() {
+    }
+
+    /**
+     * 运行所有写入方式
+     *
+     * @param dir        写入临时文件的目录
+     * @param totalBytes 每种方式写入的总字节数
+     * @return 每种方式的耗时和吞吐量, 每行一种
+     * @throws IOException
+     */
+    public static String run(File dir, long totalBytes) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        new Random(1).nextBytes(chunk);
+        File file = new File(dir, "download_sink_benchmark.tmp");
+        StringBuilder report = new StringBuilder();
+        try {
+            report.append(format("rwd", runRwd(file, chunk, totalBytes), totalBytes));
+            for (DownloadController.Durability durability : DownloadController.Durability.values()) {
+                report.append(format(durability.name(), runSink(file, chunk, totalBytes, durability), totalBytes));
+            }
+        } finally {
+            file.delete();
+        }
+        return report.toString();
+    }
+
+    /**
+     * 旧的写入方式
+     *
+     * @return 耗时(纳秒)
+     */
+    private static long runRwd(File file, byte[] chunk, long totalBytes) throws IOException {
+        file.delete();
+        long start = System.nanoTime();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rwd");
+        try {
+            for (long written = 0; written < totalBytes; written += chunk.length) {
+                randomAccessFile.write(chunk);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 通过{@link DownloadSink}写入
+     *
+     * @return 耗时(纳秒)
+     */
+    private static long runSink(File file, byte[] chunk, long totalBytes,
+                                DownloadController.Durability durability) throws IOException {
+        file.delete();
+        long start = System.nanoTime();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            DownloadSink sink = new DownloadSink(randomAccessFile.getChannel(), durability);
+            DownloadSink.Writer writer = sink.newWriter(0);
+            for (long written = 0; written < totalBytes; written += chunk.length) {
+                writer.write(chunk, 0, chunk.length);
+                if (written % CHECKPOINT_BYTES == 0) {
+                    sink.force();
+                }
+            }
+            writer.close();
+            sink.force();
+        } finally {
+            randomAccessFile.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String format(String name, long nanos, long totalBytes) {
+        long millis = Math.max(1, nanos / (1000 * 1000));
+        return name + ": " + millis + "ms, " + (totalBytes * 1000 / millis / 1024) + "KB/s\n";
+    }
+
+    /**
+     * @param args [写入目录] [总字节数]
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        long totalBytes = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_TOTAL_BYTES;
+        System.out.print(run(dir, totalBytes));
+    }
+}